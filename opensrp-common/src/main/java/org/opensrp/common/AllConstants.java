@@ -284,7 +284,8 @@ public class AllConstants {
 	
 	public enum Config {
 		FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, FORM_ENTITY_PARSER_LAST_MIGRATED_FORM_SUBMISSION, // Used when executing data migrations
-		EVENTS_PARSER_LAST_PROCESSED_EVENT // Used to track last time events processed
+		EVENTS_PARSER_LAST_PROCESSED_EVENT, // Used to track last time events processed
+		SERVER_VERSION_RESERVED_UNTIL // Highest serverVersion the allocator may have handed out
 	}
 	
 	public static final String FORM_SCHEDULE_SUBJECT = "FORM-SCHEDULE";
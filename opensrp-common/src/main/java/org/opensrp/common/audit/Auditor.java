@@ -11,62 +11,83 @@ import org.springframework.stereotype.Component;
 
 import java.text.MessageFormat;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
-
-import static java.util.Collections.binarySearch;
-import static org.opensrp.common.audit.AuditMessageType.NORMAL;
-
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the latest audit messages in a fixed size ring buffer. A message gets the next index and goes into slot
+ * index % capacity, overwriting the message capacity places before it, so adding never shifts or locks. Readers copy
+ * out the messages after a given index without locking either; a message whose index has been handed out but which
+ * has not been stored yet ends the copy, so a poller never skips a message it will not be shown later.
+ */
 @Scope("singleton")
 @Component
 public class Auditor {
-    private List<AuditMessage> messages;
+    private final AtomicReferenceArray<AuditMessage> messages;
     private final int numberOfAuditMessagesToHoldOnTo;
-    private static long messageIndex = DateTime.now().getMillis();
-    private static ReentrantLock lock = new ReentrantLock();
+    private final long firstMessageIndex;
+    private final AtomicLong messageIndex;
     private static Logger logger = LoggerFactory.getLogger(Auditor.class.toString());
 
     @Autowired
     public Auditor(@Value("#{opensrp['number.of.audit.messages']}") int numberOfAuditMessagesToHoldOnTo) {
-        this.messages = new ArrayList<>();
-        this.numberOfAuditMessagesToHoldOnTo = numberOfAuditMessagesToHoldOnTo;
+        this.numberOfAuditMessagesToHoldOnTo = Math.max(1, numberOfAuditMessagesToHoldOnTo);
+        this.messages = new AtomicReferenceArray<>(this.numberOfAuditMessagesToHoldOnTo);
+        this.firstMessageIndex = DateTime.now().getMillis();
+        this.messageIndex = new AtomicLong(firstMessageIndex);
     }
 
     public AuditMessageBuilder audit(AuditMessageType type) {
         return new AuditMessageBuilder(this, type);
     }
 
+    /**
+     * @param messageIndex index of the last message seen, 0 or less for all messages held
+     * @return a copy of the messages held with a higher index, oldest first
+     */
     public List<AuditMessage> messagesSince(long messageIndex) {
-        if (messageIndex <= 0) {
-            return messages;
+        long last = this.messageIndex.get() - 1;
+        long from = Math.max(last - numberOfAuditMessagesToHoldOnTo + 1, firstMessageIndex);
+        if (messageIndex > 0) {
+            from = Math.max(from, messageIndex + 1);
         }
-
-        int index = binarySearch(messages, new AuditMessage(DateUtil.now(), messageIndex, NORMAL, null));
-        int position = Math.abs(index + 1);
-
-        if (position >= messages.size()) {
+        if (from > last) {
             return Collections.emptyList();
         }
 
-        return messages.subList(position, messages.size());
+        List<AuditMessage> since = new ArrayList<>((int) (last - from + 1));
+        for (long index = from; index <= last; index++) {
+            AuditMessage message = messages.get(slot(index));
+            if (message == null || message.index() < index) {
+                // not stored yet
+                break;
+            }
+            if (message.index() == index) {
+                since.add(message);
+            }
+        }
+        return since;
     }
 
-    private void prune() {
-        if (messages.size() > numberOfAuditMessagesToHoldOnTo) {
-            messages.remove(0);
-        }
+    private int slot(long index) {
+        return (int) ((index - firstMessageIndex) % numberOfAuditMessagesToHoldOnTo);
     }
 
     private void createAuditMessage(AuditMessageType messageType, Map<String, String> data) {
-        lock.lock();
-        try {
-            AuditMessage auditMessage = new AuditMessage(DateUtil.now(), messageIndex, messageType, data);
-            messages.add(auditMessage);
-            messageIndex++;
-            logger.debug(MessageFormat.format("Added message: {0}", auditMessage));
-            prune();
-        } finally {
-            lock.unlock();
+        long index = messageIndex.getAndIncrement();
+        AuditMessage auditMessage = new AuditMessage(DateUtil.now(), index, messageType, data);
+        int slot = slot(index);
+        while (true) {
+            AuditMessage current = messages.get(slot);
+            if (current != null && current.index() > index) {
+                // a full lap of newer messages went in while this one was being created
+                return;
+            }
+            if (messages.compareAndSet(slot, current, auditMessage)) {
+                break;
+            }
         }
+        logger.debug(MessageFormat.format("Added message: {0}", auditMessage));
     }
 
     public static class AuditMessageBuilder {
@@ -0,0 +1,245 @@
+package org.opensrp.common.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opensrp.common.monitor.Gauge;
+import org.opensrp.common.monitor.MetricsRegistry;
+
+/**
+ * Values loaded on demand and kept for a while, safe to share between threads without them queueing on one lock.
+ * Concurrent misses on the same key wait for a single load; misses on different keys load in parallel. Entries expire
+ * a fixed time after they were loaded, and once the cache holds more than its maximum size the least recently used
+ * tenth is dropped. Null values are not kept, so a missing value is looked up again next time.
+ * <p>
+ * Each cache counts its own hits, misses, loads and evictions, and publishes them with its current size as gauges
+ * named "cache.&lt;name&gt;.*" in the default {@link MetricsRegistry}. The name must be unique: a cache created with
+ * the name of another one replaces its gauges. The gauges only hold the cache weakly, so a cache that is no longer
+ * used can be collected and then reports zero.
+ */
+public class ConcurrentCache<K, V> {
+
+    /**
+     * Loads the value of a key missing from the cache
+     */
+    public interface Loader<K, V> {
+        V load(K key);
+    }
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final int maxSize;
+    private final long expireAfterNanos;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param name the statistics are reported under, unique among the caches
+     * @param maxSize
+     * @param expireAfter how long a loaded value is kept
+     * @param unit
+     */
+    public ConcurrentCache(String name, int maxSize, long expireAfter, TimeUnit unit) {
+        this.maxSize = maxSize;
+        this.expireAfterNanos = unit.toNanos(expireAfter);
+        publish("cache." + name, this);
+    }
+
+    /**
+     * Registers the statistics of the cache as gauges. This is static so that the gauges reach the cache only through
+     * a weak reference.
+     */
+    private static void publish(String prefix, ConcurrentCache<?, ?> cache) {
+        final WeakReference<ConcurrentCache<?, ?>> reference = new WeakReference<ConcurrentCache<?, ?>>(cache);
+        MetricsRegistry registry = MetricsRegistry.getDefault();
+        registry.gauge(prefix + ".hits", new Gauge() {
+            @Override
+            public long value() {
+                ConcurrentCache<?, ?> cache = reference.get();
+                return cache == null ? 0 : cache.getHits();
+            }
+        });
+        registry.gauge(prefix + ".misses", new Gauge() {
+            @Override
+            public long value() {
+                ConcurrentCache<?, ?> cache = reference.get();
+                return cache == null ? 0 : cache.getMisses();
+            }
+        });
+        registry.gauge(prefix + ".loads", new Gauge() {
+            @Override
+            public long value() {
+                ConcurrentCache<?, ?> cache = reference.get();
+                return cache == null ? 0 : cache.getLoads();
+            }
+        });
+        registry.gauge(prefix + ".evictions", new Gauge() {
+            @Override
+            public long value() {
+                ConcurrentCache<?, ?> cache = reference.get();
+                return cache == null ? 0 : cache.getEvictions();
+            }
+        });
+        registry.gauge(prefix + ".size", new Gauge() {
+            @Override
+            public long value() {
+                ConcurrentCache<?, ?> cache = reference.get();
+                return cache == null ? 0 : cache.size();
+            }
+        });
+    }
+
+    /**
+     * @param key
+     * @param loader called for a missing or expired key, by one thread while the others asking for it wait
+     * @return the cached or loaded value, null if the loader found none
+     */
+    public V get(final K key, final Loader<K, V> loader) {
+        long now = System.nanoTime();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.isExpired(now, expireAfterNanos)) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            Entry<V> created = new Entry<>(now, new Callable<V>() {
+                @Override
+                public V call() {
+                    return loader.load(key);
+                }
+            });
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+                loads.incrementAndGet();
+                created.load.run();
+                evictIfFull();
+            }
+        }
+        entry.lastAccess = now;
+        return valueOf(key, entry);
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private V valueOf(K key, Entry<V> entry) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    V value = entry.load.get();
+                    if (value == null) {
+                        entries.remove(key, entry);
+                    }
+                    return value;
+                } catch (InterruptedException e) {
+                    // the load is shared with other threads so it is waited for anyway
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    entries.remove(key, entry);
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Drops the least recently used entries down to nine tenths of the maximum size. Only one thread evicts at a time,
+     * the others carry on rather than wait for it.
+     */
+    private void evictIfFull() {
+        if (entries.size() <= maxSize || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int excess = entries.size() - (maxSize - maxSize / 10);
+            if (excess <= 0) {
+                return;
+            }
+            List<Map.Entry<K, Entry<V>>> byLastAccess = new ArrayList<>(entries.entrySet());
+            Collections.sort(byLastAccess, new Comparator<Map.Entry<K, Entry<V>>>() {
+                @Override
+                public int compare(Map.Entry<K, Entry<V>> one, Map.Entry<K, Entry<V>> other) {
+                    long difference = one.getValue().lastAccess - other.getValue().lastAccess;
+                    return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+                }
+            });
+            for (Map.Entry<K, Entry<V>> evicted : byLastAccess.subList(0, Math.min(excess, byLastAccess.size()))) {
+                if (entries.remove(evicted.getKey(), evicted.getValue())) {
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static class Entry<V> {
+        private final long loadedAt;
+        private final FutureTask<V> load;
+        private volatile long lastAccess;
+
+        Entry(long loadedAt, Callable<V> loader) {
+            this.loadedAt = loadedAt;
+            this.load = new FutureTask<>(loader);
+            this.lastAccess = loadedAt;
+        }
+
+        /**
+         * A value still being loaded does not expire
+         */
+        boolean isExpired(long now, long expireAfterNanos) {
+            return load.isDone() && now - loadedAt > expireAfterNanos;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.opensrp.common.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic count of something that happened, e.g. failed pushes
+ */
+public class Counter {
+    private final AtomicLong count = new AtomicLong();
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        count.addAndGet(delta);
+    }
+
+    public long value() {
+        return count.get();
+    }
+
+    void reset() {
+        count.set(0);
+    }
+}
@@ -0,0 +1,9 @@
+package org.opensrp.common.monitor;
+
+/**
+ * Current value of something the registry does not own, e.g. connections in a pool. Read on every export, so it
+ * should be cheap.
+ */
+public interface Gauge {
+    long value();
+}
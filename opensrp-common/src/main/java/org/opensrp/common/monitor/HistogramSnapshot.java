@@ -0,0 +1,49 @@
+package org.opensrp.common.monitor;
+
+/**
+ * Point in time copy of a {@link Histogram}
+ */
+public class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value below which the given percentage of recorded values fall, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Histogram.highestValueIn(i), max);
+            }
+        }
+        return max;
+    }
+}
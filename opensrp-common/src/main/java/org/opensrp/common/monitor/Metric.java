@@ -1,8 +1,39 @@
 package org.opensrp.common.monitor;
 
+/**
+ * Timed operations. Each gets a latency {@link Histogram} in the {@link MetricsRegistry}.
+ */
 public enum Metric {
     REPORTING_ANM_REPORTS_CACHE_TIME,
     REPORTING_ANM_REPORTS_INSERT_TIME,
     REPORTING_SERVICE_PROVIDED_CACHE_TIME,
     REPORTING_SERVICE_PROVIDED_INSERT_TIME,
+
+    SYNC_EVENTS_TIME,
+    SYNC_EVENTS_STREAM_TIME,
+    SYNC_ACTIONS_TIME,
+    SYNC_STOCK_TIME,
+    SYNC_FORM_SUBMISSIONS_TIME,
+    EVENTS_INGEST_TIME,
+    FORM_SUBMISSIONS_INGEST_TIME,
+
+    LUCENE_QUERY_TIME,
+    COUCHDB_GET_TIME,
+    COUCHDB_WRITE_TIME,
+    COUCHDB_VIEW_QUERY_TIME,
+
+    FORM_SUBMISSION_LISTENER_BATCH_TIME,
+    FORM_SUBMISSION_PROCESS_TIME,
+    EVENTS_LISTENER_BATCH_TIME,
+    OPENMRS_SYNCER_BATCH_TIME,
+    OPENMRS_PUSH_CLIENT_TIME,
+    OPENMRS_PUSH_EVENT_TIME,
+    DHIS2_SYNCER_BATCH_TIME,
+    OPENMRS_ATOMFEED_SYNCER_BATCH_TIME,
+
+    FORM_SCHEDULE_JOB_LAG,
+    EVENTS_SCHEDULE_JOB_LAG,
+    OPENMRS_SYNCER_JOB_LAG,
+    OPENMRS_ATOMFEED_JOB_LAG,
+    DHIS2_SYNCER_JOB_LAG,
 }
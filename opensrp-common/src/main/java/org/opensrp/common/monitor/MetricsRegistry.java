@@ -0,0 +1,163 @@
+package org.opensrp.common.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timers, counters and gauges of the running server. There is one timer histogram per {@link Metric}, looked up by
+ * ordinal so recording takes no lock and allocates nothing. Counters and gauges are named and created on first use.
+ * <p>
+ * The registry is process wide: instrumented code records through {@link Probe#stop()} or a {@link Monitor}, and the
+ * web module exports it as JSON while {@link Monitor} registers it with the platform MBean server.
+ */
+public class MetricsRegistry implements MetricsRegistryMXBean {
+    public static final String OBJECT_NAME = "org.opensrp:type=Metrics";
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class.toString());
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Histogram[] timers;
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    private ObjectName registeredAs;
+
+    public MetricsRegistry() {
+        Metric[] metrics = Metric.values();
+        timers = new Histogram[metrics.length];
+        for (int i = 0; i < metrics.length; i++) {
+            timers[i] = new Histogram();
+        }
+    }
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param metric
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void record(Metric metric, long nanos) {
+        timers[metric.ordinal()].record(nanos);
+    }
+
+    public Histogram timer(Metric metric) {
+        return timers[metric.ordinal()];
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Register a gauge, replacing any registered before under the same name
+     *
+     * @param name
+     * @param gauge
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    @Override
+    public Map<String, TimerStats> getTimers() {
+        Map<String, TimerStats> stats = new TreeMap<String, TimerStats>();
+        for (Metric metric : Metric.values()) {
+            stats.put(metric.name(), new TimerStats(timer(metric).snapshot()));
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().value());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            try {
+                values.put(gauge.getKey(), gauge.getValue().value());
+            }
+            catch (RuntimeException e) {
+                logger.warn("Could not read gauge " + gauge.getKey(), e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return timers, counters and gauges keyed by kind, ready to be written out as JSON
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<String, Object>();
+        snapshot.put("timers", getTimers());
+        snapshot.put("counters", getCounters());
+        snapshot.put("gauges", getGauges());
+        return snapshot;
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram timer : timers) {
+            timer.reset();
+        }
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+    }
+
+    synchronized void registerMBean() {
+        if (registeredAs != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                registeredAs = name;
+            }
+        }
+        catch (JMException e) {
+            logger.warn("Could not register metrics with JMX", e);
+        }
+    }
+
+    synchronized void unregisterMBean() {
+        if (registeredAs == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+        }
+        catch (JMException e) {
+            logger.warn("Could not unregister metrics from JMX", e);
+        }
+        registeredAs = null;
+    }
+}
@@ -0,0 +1,19 @@
+package org.opensrp.common.monitor;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link MetricsRegistry}, registered as {@value MetricsRegistry#OBJECT_NAME}
+ */
+public interface MetricsRegistryMXBean {
+    Map<String, TimerStats> getTimers();
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getGauges();
+
+    /**
+     * Start all timers and counters from zero again, e.g. before measuring a load test
+     */
+    void reset();
+}
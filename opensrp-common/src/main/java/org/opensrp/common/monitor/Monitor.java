@@ -1,5 +1,8 @@
 package org.opensrp.common.monitor;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.motechproject.util.DateUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,6 +13,26 @@ public class Monitor {
     public static final String LOGGER_NAME = "DRISHTI_MONITOR";
     private static Logger logger = LoggerFactory.getLogger(LOGGER_NAME);
 
+    private final MetricsRegistry registry;
+
+    public Monitor() {
+        this(MetricsRegistry.getDefault());
+    }
+
+    public Monitor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @PostConstruct
+    public void registerMBean() {
+        registry.registerMBean();
+    }
+
+    @PreDestroy
+    public void unregisterMBean() {
+        registry.unregisterMBean();
+    }
+
     public Probe start(Metric metric) {
         return new Probe(metric);
     }
@@ -19,6 +42,11 @@ public class Monitor {
     }
 
     public void addObservationFor(Metric metric, long value) {
+        registry.record(metric, value);
         logger.info(metric.name() + " " + value + " " + DateUtil.now().getMillis());
     }
+
+    public MetricsRegistry registry() {
+        return registry;
+    }
 }
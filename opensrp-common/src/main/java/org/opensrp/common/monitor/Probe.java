@@ -16,4 +16,16 @@ public class Probe {
     public Metric metric() {
         return metric;
     }
+
+    /**
+     * Record the time since the probe was started in the default registry. For code that is not handed a
+     * {@link Monitor}; call it once, usually from a finally block.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long stop() {
+        long value = value();
+        MetricsRegistry.getDefault().record(metric, value);
+        return value;
+    }
 }
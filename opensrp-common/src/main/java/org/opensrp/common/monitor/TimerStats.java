@@ -0,0 +1,54 @@
+package org.opensrp.common.monitor;
+
+/**
+ * Summary of a timer histogram in milliseconds, as exported over HTTP and JMX
+ */
+public class TimerStats {
+    private static final double NANOS_PER_MILLI = 1000000d;
+
+    private final long count;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double p999Millis;
+    private final double maxMillis;
+
+    public TimerStats(HistogramSnapshot snapshot) {
+        this.count = snapshot.getCount();
+        this.meanMillis = snapshot.getMean() / NANOS_PER_MILLI;
+        this.p50Millis = snapshot.getValueAtPercentile(50) / NANOS_PER_MILLI;
+        this.p90Millis = snapshot.getValueAtPercentile(90) / NANOS_PER_MILLI;
+        this.p99Millis = snapshot.getValueAtPercentile(99) / NANOS_PER_MILLI;
+        this.p999Millis = snapshot.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+        this.maxMillis = snapshot.getMax() / NANOS_PER_MILLI;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP90Millis() {
+        return p90Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getP999Millis() {
+        return p999Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+}
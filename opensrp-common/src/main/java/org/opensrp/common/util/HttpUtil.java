@@ -3,38 +3,163 @@ package org.opensrp.common.util;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.*;
-import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.opensrp.common.monitor.Gauge;
+import org.opensrp.common.monitor.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.KeyStore;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Every OpenMRS, DHIS2 and RapidPro call goes through the one pooled client held here. The pool limits, keep-alive and
+ * request compression come from opensrp.properties when the class is picked up as a Spring bean; defaults are used
+ * otherwise. Idle and expired connections are closed in the background, responses are accepted gzipped, and the
+ * *Async methods run a call on a bounded worker pool and return at once.
+ */
 @Component
 public class HttpUtil {
 
+	private static Logger logger = LoggerFactory.getLogger(HttpUtil.class.toString());
+
+	public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+
+	/**
+	 * Request bodies smaller than this are not worth compressing
+	 */
+	static final int GZIP_MIN_REQUEST_SIZE = 1024;
+
+	private static final long IDLE_EVICTION_INTERVAL_MILLIS = 5000;
+
 	private HttpUtil() {
 
 	}
 
+	/**
+	 * Applies the http.* settings of opensrp.properties to the shared pool
+	 */
+	@Autowired
+	void configureFromProperties(@Value("#{opensrp['http.pool.max.total']}") int maxTotal,
+	                             @Value("#{opensrp['http.pool.max.per.route']}") int maxPerRoute,
+	                             @Value("#{opensrp['http.keep.alive.millis']}") long keepAliveMillis,
+	                             @Value("#{opensrp['http.gzip.requests']}") boolean gzipRequests) {
+		configurePool(maxTotal, maxPerRoute, keepAliveMillis, gzipRequests);
+	}
+
 	public enum AuthType {
 		BASIC, TOKEN, NONE
 	}
 
+	private static volatile long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+
+	private static volatile boolean gzipRequests;
+
+	private static final AtomicLong requestCount = new AtomicLong();
+
+	private static final AtomicLong failedRequestCount = new AtomicLong();
+
+	private static final AtomicInteger activeRequests = new AtomicInteger();
+
+	private static ThreadSafeClientConnManager connectionManager;
+
+	private static ThreadSafeClientConnManager verifiedConnectionManager;
+
 	private final static DefaultHttpClient httpClient = init();
 
-	public static DefaultHttpClient init() {
+	private final static DefaultHttpClient verifiedHttpClient = initVerified();
+
+	private static final ThreadPoolExecutor asyncExecutor = new ThreadPoolExecutor(DEFAULT_MAX_TOTAL_CONNECTIONS,
+			DEFAULT_MAX_TOTAL_CONNECTIONS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+			daemonThreads("http-async"));
+
+	static {
+		asyncExecutor.allowCoreThreadTimeOut(true);
+		ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(daemonThreads("http-evictor"));
+		evictor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				for (ThreadSafeClientConnManager manager : new ThreadSafeClientConnManager[] { connectionManager,
+						verifiedConnectionManager }) {
+					manager.closeExpiredConnections();
+					manager.closeIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS);
+				}
+			}
+		}, IDLE_EVICTION_INTERVAL_MILLIS, IDLE_EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		metrics.gauge("http.connections.pool", new Gauge() {
+
+			@Override
+			public long value() {
+				return getConnectionsInPool();
+			}
+		});
+		metrics.gauge("http.requests.active", new Gauge() {
+
+			@Override
+			public long value() {
+				return getActiveRequests();
+			}
+		});
+		metrics.gauge("http.requests.total", new Gauge() {
+
+			@Override
+			public long value() {
+				return getRequestCount();
+			}
+		});
+		metrics.gauge("http.requests.failed", new Gauge() {
+
+			@Override
+			public long value() {
+				return getFailedRequestCount();
+			}
+		});
+	}
+
+	private static DefaultHttpClient init() {
 		try {
 			//TODO add option to ignore cetificate validation in opensrp.prop
 			KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
@@ -42,16 +167,12 @@ public class HttpUtil {
 			CustomCertificateSSLSocketFactory sf = new CustomCertificateSSLSocketFactory(trustStore);
 			sf.setHostnameVerifier(CustomCertificateSSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
 
-			BasicHttpParams basicHttpParams = new BasicHttpParams();
-			HttpConnectionParams.setConnectionTimeout(basicHttpParams, 30000);
-			HttpConnectionParams.setSoTimeout(basicHttpParams, 60000);
-
 			SchemeRegistry registry = new SchemeRegistry();
 			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
 			registry.register(new Scheme("https", sf, 443));
 
-			ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(basicHttpParams, registry);
-			return new DefaultHttpClient(connectionManager, basicHttpParams);
+			connectionManager = newConnectionManager(registry);
+			return newClient(connectionManager);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -59,6 +180,117 @@ public class HttpUtil {
 		}
 	}
 
+	/**
+	 * Same pool settings as the shared client, but https certificates and host names are checked against the JVM
+	 * trust store
+	 */
+	private static DefaultHttpClient initVerified() {
+		verifiedConnectionManager = newConnectionManager(SchemeRegistryFactory.createSystemDefault());
+		return newClient(verifiedConnectionManager);
+	}
+
+	private static ThreadSafeClientConnManager newConnectionManager(SchemeRegistry registry) {
+		ThreadSafeClientConnManager manager = new ThreadSafeClientConnManager(registry);
+		manager.setMaxTotal(DEFAULT_MAX_TOTAL_CONNECTIONS);
+		manager.setDefaultMaxPerRoute(DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+		return manager;
+	}
+
+	private static DefaultHttpClient newClient(ThreadSafeClientConnManager manager) {
+		BasicHttpParams basicHttpParams = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(basicHttpParams, 30000);
+		HttpConnectionParams.setSoTimeout(basicHttpParams, 60000);
+
+		DefaultHttpClient client = new DefaultHttpClient(manager, basicHttpParams);
+		client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+
+			@Override
+			public long getKeepAliveDuration(org.apache.http.HttpResponse response, HttpContext context) {
+				// servers that do not say how long to keep the connection get the configured keep-alive
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration > 0 ? duration : keepAliveMillis;
+			}
+		});
+		return client;
+	}
+
+	/**
+	 * Resize the shared pool; connections already open are kept
+	 *
+	 * @param maxTotal connections open at once over all hosts
+	 * @param maxPerRoute connections open at once to a single host
+	 * @param keepAlive how long an unused connection is kept when the server does not say, in milliseconds
+	 * @param gzip whether request bodies are sent gzipped
+	 */
+	public static void configurePool(int maxTotal, int maxPerRoute, long keepAlive, boolean gzip) {
+		int total = maxTotal > 0 ? maxTotal : DEFAULT_MAX_TOTAL_CONNECTIONS;
+		int perRoute = maxPerRoute > 0 ? maxPerRoute : DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+		for (ThreadSafeClientConnManager manager : new ThreadSafeClientConnManager[] { connectionManager,
+				verifiedConnectionManager }) {
+			manager.setMaxTotal(total);
+			manager.setDefaultMaxPerRoute(perRoute);
+		}
+		if (total > asyncExecutor.getMaximumPoolSize()) {
+			asyncExecutor.setMaximumPoolSize(total);
+			asyncExecutor.setCorePoolSize(total);
+		} else {
+			asyncExecutor.setCorePoolSize(total);
+			asyncExecutor.setMaximumPoolSize(total);
+		}
+		keepAliveMillis = keepAlive > 0 ? keepAlive : DEFAULT_KEEP_ALIVE_MILLIS;
+		gzipRequests = gzip;
+		logger.info("HTTP pool: " + total + " connections, " + connectionManager.getDefaultMaxPerRoute() + " per host");
+	}
+
+	/**
+	 * @return the shared pooled client, for callers that build their own requests. Response entities must be consumed
+	 *         for the connection to go back to the pool. Like the rest of HttpUtil it accepts any https certificate.
+	 */
+	public static HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * @return a pooled client that validates https certificates and host names, for services that must not talk to an
+	 *         unverified server. Response entities must be consumed for the connection to go back to the pool.
+	 */
+	public static HttpClient getVerifiedHttpClient() {
+		return verifiedHttpClient;
+	}
+
+	/**
+	 * @return connections held by both pools, in use or idle
+	 */
+	public static int getConnectionsInPool() {
+		return connectionManager.getConnectionsInPool() + verifiedConnectionManager.getConnectionsInPool();
+	}
+
+	public static int getMaxTotalConnections() {
+		return connectionManager.getMaxTotal();
+	}
+
+	public static int getMaxConnectionsPerRoute() {
+		return connectionManager.getDefaultMaxPerRoute();
+	}
+
+	/**
+	 * @return requests waiting for or holding a connection right now
+	 */
+	public static int getActiveRequests() {
+		return activeRequests.get();
+	}
+
+	public static long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return requests that failed with an exception, not those answered with an error status
+	 */
+	public static long getFailedRequestCount() {
+		return failedRequestCount.get();
+	}
+
 	public static HttpResponse post(String url, String payload, String data, String username, String password) {
 		return post(url, payload, data, "application/json", AuthType.BASIC, username + ":" + password);
 	}
@@ -77,12 +309,8 @@ public class HttpUtil {
 		try {
 			HttpPost request = (HttpPost) makeConnection(url, payload, RequestMethod.POST, authType, authString);
 			request.setHeader(HTTP.CONTENT_TYPE, contentType);
-			StringEntity entity = new StringEntity(data == null ? "" : data);
-			System.out.println(data);
-			entity.setContentEncoding(contentType);
-			request.setEntity(entity);
-			org.apache.http.HttpResponse response = httpClient.execute(request);
-			return createCustomResponseFrom(response);
+			request.setEntity(createEntity(data == null ? "" : data, contentType));
+			return execute(request);
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -109,8 +337,7 @@ public class HttpUtil {
 	public static HttpResponse get(String url, String payload, AuthType authType, String authString) {
 		try {
 			HttpGet request = (HttpGet) makeConnection(url, payload, RequestMethod.GET, authType, authString);
-			org.apache.http.HttpResponse response = httpClient.execute(request);
-			return createCustomResponseFrom(response);
+			return execute(request);
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
@@ -120,24 +347,106 @@ public class HttpUtil {
 	public static HttpResponse delete(String url, String payload, AuthType authType, String authString) {
 		try {
 			HttpDelete request = (HttpDelete) makeConnection(url, payload, RequestMethod.DELETE, authType, authString);
-			org.apache.http.HttpResponse response = httpClient.execute(request);
-			return createCustomResponseFrom(response);
+			return execute(request);
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	public static Future<HttpResponse> getAsync(final String url, final String payload, final String username,
+	                                            final String password) {
+		return asyncExecutor.submit(new Callable<HttpResponse>() {
+
+			@Override
+			public HttpResponse call() {
+				return get(url, payload, username, password);
+			}
+		});
+	}
+
+	public static Future<HttpResponse> postAsync(final String url, final String payload, final String data,
+	                                             final String username, final String password) {
+		return asyncExecutor.submit(new Callable<HttpResponse>() {
+
+			@Override
+			public HttpResponse call() {
+				return post(url, payload, data, username, password);
+			}
+		});
+	}
+
+	private static HttpResponse execute(HttpRequestBase request) throws IOException {
+		requestCount.incrementAndGet();
+		activeRequests.incrementAndGet();
+		try {
+			return createCustomResponseFrom(httpClient.execute(request));
+		}
+		catch (IOException | RuntimeException e) {
+			failedRequestCount.incrementAndGet();
+			request.abort();
+			throw e;
+		}
+		finally {
+			activeRequests.decrementAndGet();
+		}
+	}
+
+	static AbstractHttpEntity createEntity(String data, String contentType) throws IOException {
+		AbstractHttpEntity entity;
+		if (gzipRequests && data.length() >= GZIP_MIN_REQUEST_SIZE) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+			try {
+				gzip.write(data.getBytes(HTTP.DEFAULT_CONTENT_CHARSET));
+			}
+			finally {
+				gzip.close();
+			}
+			entity = new ByteArrayEntity(bytes.toByteArray());
+			entity.setContentEncoding("gzip");
+		} else {
+			entity = new StringEntity(data);
+			entity.setContentEncoding(contentType);
+		}
+		return entity;
+	}
+
 	static HttpResponse createCustomResponseFrom(org.apache.http.HttpResponse response) throws IOException {
 		int statusCode = response.getStatusLine().getStatusCode();
 		String entity = "";
-		if (response.getEntity() != null) {
-			entity = IOUtils.toString(response.getEntity().getContent());
+		HttpEntity httpEntity = response.getEntity();
+		if (httpEntity != null) {
+			// closing the stream, even if not read to the end, hands the connection back to the pool
+			InputStream content = httpEntity.getContent();
+			try {
+				Header encoding = httpEntity.getContentEncoding();
+				if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) {
+					content = new GZIPInputStream(content);
+				}
+				entity = IOUtils.toString(content);
+			}
+			finally {
+				IOUtils.closeQuietly(content);
+			}
 		}
 
 		return new HttpResponse(checkSuccessBasedOnHttpCode(statusCode), statusCode, entity);
 	}
 
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
 	static boolean checkSuccessBasedOnHttpCode(int httpCode) {
 		if (httpCode >= 400 && httpCode <= 599) {
 			return false;
@@ -168,6 +477,7 @@ public class HttpUtil {
 		}
 		requestBase.setURI(urlo);
 		requestBase.addHeader("Accept-Charset", charset);
+		requestBase.addHeader("Accept-Encoding", "gzip");
 
 		if (authType.name().equalsIgnoreCase("basic")) {
 			String encoded = authString.matches(".+:.+") ?
@@ -178,7 +488,7 @@ public class HttpUtil {
 			requestBase.addHeader("Authorization", "Token " + authString);
 		}
 
-		System.out.println(url);
+		logger.debug(method + " " + url);
 		return requestBase;
 	}
 
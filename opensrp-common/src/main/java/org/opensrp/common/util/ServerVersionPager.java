@@ -0,0 +1,106 @@
+package org.opensrp.common.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily walks a view keyed on [serverVersion] a page at a time, so that only one page of documents is held in memory.
+ * Every call to {@link #iterator()} starts again from the first document after the given serverVersion.
+ * <p>
+ * The next page is requested from the key and doc id of the last document read (startkey + startkey_docid), so
+ * documents that share a serverVersion are neither skipped nor repeated at a page boundary.
+ *
+ * @param <T> document type
+ */
+public abstract class ServerVersionPager<T> implements Iterable<T> {
+
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	private final long serverVersion;
+
+	private final int pageSize;
+
+	/**
+	 * @param serverVersion only documents with a greater serverVersion are returned
+	 * @param pageSize number of documents fetched per request
+	 */
+	protected ServerVersionPager(long serverVersion, int pageSize) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be positive");
+		}
+		this.serverVersion = serverVersion;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Query the view in key order, starting at the given key.
+	 *
+	 * @param startVersion serverVersion of the first key to return
+	 * @param startDocId doc id to start at within startVersion, or null to start at the first doc with that version
+	 * @param limit maximum number of documents to return
+	 * @return
+	 */
+	protected abstract List<T> fetch(long startVersion, String startDocId, int limit);
+
+	protected abstract long serverVersionOf(T document);
+
+	protected abstract String idOf(T document);
+
+	@Override
+	public Iterator<T> iterator() {
+		return new PageIterator();
+	}
+
+	private class PageIterator implements Iterator<T> {
+
+		private List<T> page = Collections.emptyList();
+
+		private int index;
+
+		private boolean last;
+
+		private T previous;
+
+		@Override
+		public boolean hasNext() {
+			while (index >= page.size()) {
+				if (last) {
+					return false;
+				}
+				nextPage();
+			}
+			return true;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			previous = page.get(index++);
+			return previous;
+		}
+
+		private void nextPage() {
+			index = 0;
+			if (previous == null) {
+				page = fetch(serverVersion + 1, null, pageSize);
+				last = page.size() < pageSize;
+				return;
+			}
+			// the continuation starts at the last document read, one more is asked for to make up for it
+			page = fetch(serverVersionOf(previous), idOf(previous), pageSize + 1);
+			last = page.size() < pageSize + 1;
+			if (!page.isEmpty() && idOf(page.get(0)).equals(idOf(previous))) {
+				index = 1;
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.opensrp.common.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks shared out by key hash. Writes for the same key always go through the same lock while
+ * writes for unrelated keys rarely do, so they can run in parallel without keeping a lock per key.
+ * <p>
+ * Several keys can be locked at once with {@link #lockAll(Collection)}. The stripes are always taken in index order
+ * so two callers locking overlapping key sets can not deadlock.
+ */
+public class StripedLock {
+
+	private final ReentrantLock[] stripes;
+
+	public StripedLock(int stripeCount) {
+		if (stripeCount < 1) {
+			throw new IllegalArgumentException("stripeCount must be positive");
+		}
+		stripes = new ReentrantLock[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	public ReentrantLock get(Object key) {
+		return stripes[indexFor(key)];
+	}
+
+	/**
+	 * Lock the stripes of all the given keys. Null keys are ignored; if no key is left a single shared stripe is locked.
+	 *
+	 * @param keys
+	 * @return the locks taken, to be passed to {@link #unlockAll(List)} in a finally block
+	 */
+	public List<ReentrantLock> lockAll(Collection<?> keys) {
+		TreeSet<Integer> indexes = new TreeSet<Integer>();
+		for (Object key : keys) {
+			if (key != null) {
+				indexes.add(indexFor(key));
+			}
+		}
+		if (indexes.isEmpty()) {
+			indexes.add(0);
+		}
+		List<ReentrantLock> locks = new ArrayList<ReentrantLock>(indexes.size());
+		try {
+			for (Integer index : indexes) {
+				stripes[index].lock();
+				locks.add(stripes[index]);
+			}
+		}
+		catch (RuntimeException e) {
+			unlockAll(locks);
+			throw e;
+		}
+		return locks;
+	}
+
+	public void unlockAll(List<ReentrantLock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+
+	public int size() {
+		return stripes.length;
+	}
+
+	int indexFor(Object key) {
+		// spread the hash so that keys differing only in the high bits do not pile onto one stripe
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return (h & 0x7fffffff) % stripes.length;
+	}
+}
@@ -14,6 +14,7 @@ import java.util.List;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.opensrp.common.audit.AuditMessageType.NORMAL;
 
 public class AuditorTest extends BaseUnitTest {
@@ -179,6 +180,45 @@ public class AuditorTest extends BaseUnitTest {
         assertEquals(10000, auditor.messagesSince(0).size());
     }
 
+    @Test
+    public void shouldGiveIncreasingMessagesToReadersWhileMessagesAreBeingAdded() throws Exception {
+        final Auditor auditor = new Auditor(100);
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        audit(auditor, "Message " + i);
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+
+        long lastSeen = 0;
+        boolean writing = true;
+        while (writing) {
+            writing = false;
+            for (Thread writer : writers) {
+                writing |= writer.isAlive();
+            }
+            List<AuditMessage> messages = auditor.messagesSince(lastSeen);
+            for (int i = 0; i < messages.size(); i++) {
+                // messages lapped by the writers leave gaps, so the indexes only need to increase
+                long previous = i == 0 ? lastSeen : messages.get(i - 1).index();
+                assertTrue(messages.get(i).index() > previous);
+            }
+            if (!messages.isEmpty()) {
+                lastSeen = messages.get(messages.size() - 1).index();
+            }
+        }
+
+        assertThat(auditor.messagesSince(0).size(), is(100));
+    }
+
     private void assertData(AuditMessage message, Matcher<String> expectedDataMatcher) {
         assertThat(message.data().get("data"), expectedDataMatcher);
     }
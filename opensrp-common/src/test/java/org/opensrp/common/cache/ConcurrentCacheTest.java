@@ -0,0 +1,141 @@
+package org.opensrp.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opensrp.common.monitor.MetricsRegistry;
+
+public class ConcurrentCacheTest {
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final ConcurrentCache.Loader<String, String> loader = new ConcurrentCache.Loader<String, String>() {
+        @Override
+        public String load(String key) {
+            loads.incrementAndGet();
+            return key.startsWith("missing") ? null : key.toUpperCase();
+        }
+    };
+
+    @Test
+    public void shouldLoadOnceAndServeFromCache() {
+        ConcurrentCache<String, String> cache = new ConcurrentCache<>("test", 10, 1, TimeUnit.HOURS);
+
+        assertEquals("BCG", cache.get("bcg", loader));
+        assertEquals("BCG", cache.get("bcg", loader));
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldNotKeepMissingValues() {
+        ConcurrentCache<String, String> cache = new ConcurrentCache<>("test", 10, 1, TimeUnit.HOURS);
+
+        assertNull(cache.get("missing", loader));
+        assertNull(cache.get("missing", loader));
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldLoadAgainAfterInvalidationOrExpiry() throws Exception {
+        ConcurrentCache<String, String> cache = new ConcurrentCache<>("test", 10, 1, TimeUnit.HOURS);
+        cache.get("bcg", loader);
+        cache.invalidate("bcg");
+        cache.get("bcg", loader);
+        assertEquals(2, loads.get());
+
+        ConcurrentCache<String, String> expiring = new ConcurrentCache<>("test", 10, 1, TimeUnit.MILLISECONDS);
+        expiring.get("opv", loader);
+        Thread.sleep(5);
+        expiring.get("opv", loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void shouldCountHitsAndMissesPerCacheAndPublishThem() {
+        ConcurrentCache<String, String> first = new ConcurrentCache<>("counted", 10, 1, TimeUnit.HOURS);
+        first.get("bcg", loader);
+        first.get("bcg", loader);
+        ConcurrentCache<String, String> second = new ConcurrentCache<>("counted", 10, 1, TimeUnit.HOURS);
+        second.get("opv", loader);
+
+        assertEquals(1, first.getHits());
+        assertEquals(1, first.getMisses());
+        assertEquals(0, second.getHits());
+        assertEquals(1, second.getMisses());
+        assertEquals(Long.valueOf(1), MetricsRegistry.getDefault().getGauges().get("cache.counted.misses"));
+        assertEquals(Long.valueOf(1), MetricsRegistry.getDefault().getGauges().get("cache.counted.size"));
+    }
+
+    @Test
+    public void shouldDropLeastRecentlyUsedWhenFull() {
+        ConcurrentCache<String, String> cache = new ConcurrentCache<>("test", 10, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 10; i++) {
+            cache.get("key" + i, loader);
+        }
+        cache.get("key0", loader);
+
+        cache.get("key10", loader);
+
+        assertEquals(9, cache.size());
+        loads.set(0);
+        cache.get("key0", loader);
+        cache.get("key10", loader);
+        assertEquals(0, loads.get());
+        cache.get("key1", loader);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldLoadOnceForConcurrentMisses() throws Exception {
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>("test", 10, 1, TimeUnit.HOURS);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ConcurrentCache.Loader<String, String> slowLoader = new ConcurrentCache.Loader<String, String>() {
+            @Override
+            public String load(String key) {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "ANM X";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return cache.get("anm", slowLoader);
+                    }
+                }));
+            }
+            loading.await(5, TimeUnit.SECONDS);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("ANM X", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
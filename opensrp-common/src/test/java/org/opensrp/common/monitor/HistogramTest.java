@@ -0,0 +1,55 @@
+package org.opensrp.common.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void everyValueShouldFallInsideTheBoundsOfItsBucket() {
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1000, 999999, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = Histogram.bucketFor(value);
+            long lowest = bucket == 0 ? 0 : Histogram.highestValueIn(bucket - 1) + 1;
+            assertTrue(value + " below its bucket", value >= lowest);
+            assertTrue(value + " above its bucket", value <= Histogram.highestValueIn(bucket));
+            assertTrue(bucket < Histogram.BUCKETS);
+        }
+    }
+
+    @Test
+    public void shouldReportPercentilesWithinThreePercent() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500000d, snapshot.getMean(), 0.1);
+        assertEquals(1000000000, snapshot.getMax());
+        assertEquals(500000000d, snapshot.getValueAtPercentile(50), 500000000 * 0.03);
+        assertEquals(990000000d, snapshot.getValueAtPercentile(99), 990000000 * 0.03);
+        assertEquals(1000000000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void shouldReportZeroWhenNothingWasRecorded() {
+        HistogramSnapshot snapshot = new Histogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+        assertEquals(0d, snapshot.getMean(), 0);
+    }
+
+    @Test
+    public void shouldRecordNegativeValuesAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+
+        assertEquals(0, histogram.snapshot().getValueAtPercentile(100));
+    }
+}
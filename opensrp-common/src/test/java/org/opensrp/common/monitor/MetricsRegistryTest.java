@@ -0,0 +1,77 @@
+package org.opensrp.common.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+    private MetricsRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new MetricsRegistry();
+    }
+
+    @Test
+    public void shouldSummariseTimersInMilliseconds() {
+        registry.record(Metric.SYNC_EVENTS_TIME, 2000000);
+        registry.record(Metric.SYNC_EVENTS_TIME, 4000000);
+
+        TimerStats stats = registry.getTimers().get(Metric.SYNC_EVENTS_TIME.name());
+
+        assertEquals(2, stats.getCount());
+        assertEquals(3d, stats.getMeanMillis(), 0.001);
+        assertEquals(4d, stats.getMaxMillis(), 0.001);
+        assertEquals(0, registry.getTimers().get(Metric.LUCENE_QUERY_TIME.name()).getCount());
+    }
+
+    @Test
+    public void shouldHandOutTheSameCounterForAName() {
+        registry.counter("openmrs.push.event.failed").increment();
+        registry.counter("openmrs.push.event.failed").add(2);
+
+        assertSame(registry.counter("openmrs.push.event.failed"), registry.counter("openmrs.push.event.failed"));
+        assertEquals(Long.valueOf(3), registry.getCounters().get("openmrs.push.event.failed"));
+    }
+
+    @Test
+    public void shouldReadGaugesOnExport() {
+        final long[] pool = {5};
+        registry.gauge("http.connections.pool", new Gauge() {
+
+            @Override
+            public long value() {
+                return pool[0];
+            }
+        });
+        pool[0] = 7;
+
+        assertEquals(Long.valueOf(7), registry.getGauges().get("http.connections.pool"));
+    }
+
+    @Test
+    public void shouldStartTimersAndCountersFromZeroAfterReset() {
+        registry.record(Metric.LUCENE_QUERY_TIME, 1000);
+        registry.counter("failed").increment();
+
+        registry.reset();
+
+        assertEquals(0, registry.timer(Metric.LUCENE_QUERY_TIME).snapshot().getCount());
+        assertEquals(Long.valueOf(0), registry.getCounters().get("failed"));
+    }
+
+    @Test
+    public void snapshotShouldHoldTimersCountersAndGauges() {
+        Map<String, Object> snapshot = registry.snapshot();
+
+        assertTrue(snapshot.containsKey("timers"));
+        assertTrue(snapshot.containsKey("counters"));
+        assertTrue(snapshot.containsKey("gauges"));
+    }
+}
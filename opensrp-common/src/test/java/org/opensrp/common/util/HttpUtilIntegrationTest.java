@@ -2,15 +2,22 @@ package org.opensrp.common.util;
 
 
 import org.apache.http.Header;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
 import org.junit.Assert;
 import org.junit.Test;
 import sun.misc.BASE64Encoder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.net.URISyntaxException;
+import java.util.zip.GZIPOutputStream;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
@@ -183,6 +190,30 @@ public class HttpUtilIntegrationTest {
         assertEquals(expectedAuthString, outputAuthString);
     }
 
+    @Test
+    public void testMakingConnectionAcceptsGzip() throws URISyntaxException {
+        HttpRequestBase requestBase = makeConnection("www.google.com", "", RequestMethod.GET, HttpUtil.AuthType.NONE, "");
+
+        assertEquals("gzip", requestBase.getFirstHeader("Accept-Encoding").getValue());
+    }
+
+    @Test
+    public void testGzippedResponseIsDecoded() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write("{\"results\":[]}".getBytes("UTF-8"));
+        gzip.close();
+        ByteArrayEntity entity = new ByteArrayEntity(bytes.toByteArray());
+        entity.setContentEncoding("gzip");
+        BasicHttpResponse gzipped = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+        gzipped.setEntity(entity);
+
+        HttpResponse response = createCustomResponseFrom(gzipped);
+
+        assertTrue(response.isSuccess());
+        assertEquals("{\"results\":[]}", response.body());
+    }
+
     @Test
     public void testSuccessfulDeleteMethod() {
         String url = "http://httpbin.org/delete";
@@ -312,6 +343,15 @@ public class HttpUtilIntegrationTest {
         post(null, null, null, "", null);
     }
 
+    @Test
+    public void testVerifiedClientDoesNotTrustAllCertificates() {
+        Object trustAll = getHttpClient().getConnectionManager().getSchemeRegistry().getScheme("https").getSchemeSocketFactory();
+        Object verified = getVerifiedHttpClient().getConnectionManager().getSchemeRegistry().getScheme("https").getSchemeSocketFactory();
+
+        assertTrue(trustAll instanceof CustomCertificateSSLSocketFactory);
+        assertFalse(verified instanceof CustomCertificateSSLSocketFactory);
+    }
+
     @Test
     public void testCheckHttpCallSuccessBasedOnReturnCode() {
         assertTrue(checkSuccessBasedOnHttpCode(200));
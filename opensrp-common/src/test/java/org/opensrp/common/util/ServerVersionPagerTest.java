@@ -0,0 +1,115 @@
+package org.opensrp.common.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ServerVersionPagerTest {
+
+	private static class Doc {
+
+		final long serverVersion;
+
+		final String id;
+
+		Doc(long serverVersion, String id) {
+			this.serverVersion = serverVersion;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Pages over an in memory list sorted the way the view is, by serverVersion then doc id
+	 */
+	private static class ListPager extends ServerVersionPager<Doc> {
+
+		final List<Doc> view;
+
+		int requests;
+
+		ListPager(List<Doc> view, long serverVersion, int pageSize) {
+			super(serverVersion, pageSize);
+			this.view = view;
+		}
+
+		@Override
+		protected List<Doc> fetch(long startVersion, String startDocId, int limit) {
+			requests++;
+			List<Doc> page = new ArrayList<Doc>();
+			for (Doc doc : view) {
+				boolean afterStart = doc.serverVersion > startVersion || doc.serverVersion == startVersion
+				        && (startDocId == null || doc.id.compareTo(startDocId) >= 0);
+				if (afterStart && page.size() < limit) {
+					page.add(doc);
+				}
+			}
+			return page;
+		}
+
+		@Override
+		protected long serverVersionOf(Doc document) {
+			return document.serverVersion;
+		}
+
+		@Override
+		protected String idOf(Doc document) {
+			return document.id;
+		}
+	}
+
+	private List<String> ids(Iterable<Doc> docs) {
+		List<String> ids = new ArrayList<String>();
+		for (Doc doc : docs) {
+			ids.add(doc.id);
+		}
+		return ids;
+	}
+
+	@Test
+	public void shouldReturnEveryDocAfterServerVersionAcrossPages() {
+		List<Doc> view = new ArrayList<Doc>();
+		for (int i = 1; i <= 7; i++) {
+			view.add(new Doc(i, "d" + i));
+		}
+		ListPager pager = new ListPager(view, 2, 2);
+
+		assertEquals(asList("d3", "d4", "d5", "d6", "d7"), ids(pager));
+		assertEquals(3, pager.requests);
+	}
+
+	@Test
+	public void shouldNotSkipOrRepeatDocsSharingServerVersionAtPageBoundary() {
+		List<Doc> view = new ArrayList<Doc>();
+		view.add(new Doc(5, "a"));
+		view.add(new Doc(5, "b"));
+		view.add(new Doc(5, "c"));
+		view.add(new Doc(5, "d"));
+		view.add(new Doc(6, "e"));
+
+		assertEquals(asList("a", "b", "c", "d", "e"), ids(new ListPager(view, 4, 2)));
+	}
+
+	@Test
+	public void shouldStopWhenLastPageIsExactlyFull() {
+		List<Doc> view = new ArrayList<Doc>();
+		view.add(new Doc(1, "a"));
+		view.add(new Doc(2, "b"));
+		ListPager pager = new ListPager(view, 0, 2);
+
+		assertEquals(asList("a", "b"), ids(pager));
+		assertEquals(2, pager.requests);
+	}
+
+	@Test
+	public void shouldBeEmptyWhenNothingIsNewer() {
+		Iterator<Doc> iterator = new ListPager(new ArrayList<Doc>(), 0, 10).iterator();
+
+		assertFalse(iterator.hasNext());
+	}
+}
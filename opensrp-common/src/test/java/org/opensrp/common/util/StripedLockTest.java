@@ -0,0 +1,71 @@
+package org.opensrp.common.util;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+public class StripedLockTest {
+
+	@Test
+	public void shouldAlwaysGiveSameLockForSameKey() {
+		StripedLock lock = new StripedLock(16);
+		assertSame(lock.get("baseEntityId-1"), lock.get(new String("baseEntityId-1")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectNonPositiveStripeCount() {
+		new StripedLock(0);
+	}
+
+	@Test
+	public void shouldLockEachStripeOnceAndReleaseAll() {
+		StripedLock lock = new StripedLock(4);
+		List<ReentrantLock> locks = lock.lockAll(asList("a", "a", null, "b"));
+		for (ReentrantLock l : locks) {
+			assertTrue(l.isHeldByCurrentThread());
+			assertEquals(1, l.getHoldCount());
+		}
+		lock.unlockAll(locks);
+		for (ReentrantLock l : locks) {
+			assertFalse(l.isLocked());
+		}
+	}
+
+	@Test
+	public void shouldLockSharedStripeWhenNoKeys() {
+		StripedLock lock = new StripedLock(4);
+		List<ReentrantLock> locks = lock.lockAll(asList((Object) null));
+		assertEquals(1, locks.size());
+		lock.unlockAll(locks);
+	}
+
+	@Test
+	public void shouldBlockOtherThreadsOnSameKeyOnly() throws Exception {
+		final StripedLock lock = new StripedLock(1024);
+		List<ReentrantLock> held = lock.lockAll(asList("entity-1"));
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicBoolean acquiredSameKey = new AtomicBoolean();
+		Thread other = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				acquiredSameKey.set(lock.get("entity-1").tryLock());
+				done.countDown();
+			}
+		});
+		other.start();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertFalse(acquiredSameKey.get());
+		lock.unlockAll(held);
+	}
+}
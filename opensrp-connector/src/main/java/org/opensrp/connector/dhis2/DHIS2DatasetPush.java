@@ -165,11 +165,10 @@ public class DHIS2DatasetPush extends DHIS2Service {
 		
 		Long start = lastsync == null || lastsync.getValue() == null ? 0 : lastsync.longValue();
 		
-		List<Report> reports = reportService.findByServerVersion(start);
-		logger.info("Report list size " + reports.size() + " [start]" + start);
+		logger.info("Pushing reports [start]" + start);
 		
-		// process all reports and sync them to DHIS2
-		for (Report report : reports) {
+		// process all reports and sync them to DHIS2, a page at a time
+		for (Report report : reportService.iterateByServerVersion(start)) {
 			try {
 				JSONObject dhis2DatasetToPush = this.createDHIS2Dataset(report);
 				if (dhis2DatasetToPush == null) {
@@ -2,16 +2,21 @@ package org.opensrp.connector.dhis2;
 
 import java.util.List;
 
+import javax.annotation.PreDestroy;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
 import org.opensrp.common.AllConstants.DHIS2Constants;
+import org.opensrp.common.monitor.Metric;
 import org.opensrp.common.util.DateUtil;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.DHIS2Marker;
 import org.opensrp.repository.AllDHIS2Marker;
+import org.opensrp.scheduler.BackgroundJob;
+import org.opensrp.scheduler.BackgroundJob.Overlap;
 import org.opensrp.service.ClientService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -27,12 +32,34 @@ public class DHIS2SyncerListener {
 	@Autowired
 	private Dhis2TrackCaptureConnector dhis2TrackCaptureConnector;
 	
+	/**
+	 * Runs {@link #pushToDHIS2(MotechEvent)} off the schedule thread. The syncer is scheduled every minute, so a trigger
+	 * that comes while a run is in progress is dropped and the next one catches up.
+	 */
+	private final BackgroundJob job = new BackgroundJob("dhis2-syncer", Overlap.SKIP, Metric.DHIS2_SYNCER_JOB_LAG,
+	        Metric.DHIS2_SYNCER_BATCH_TIME, new BackgroundJob.Task() {
+		        
+		        @Override
+		        public void run(MotechEvent event) {
+			        pushToDHIS2(event);
+		        }
+	        });
+	
 	@Autowired
 	public DHIS2SyncerListener(ClientService clientService) {
 		this.clientService = clientService;
 	}
 	
+	@PreDestroy
+	public void shutdown() {
+		job.shutdown();
+	}
+	
 	@MotechListener(subjects = DHIS2Constants.DHIS2_TRACK_DATA_SYNCER_SUBJECT)
+	public void schedulePushToDHIS2(MotechEvent event) {
+		job.trigger(event);
+	}
+	
 	public JSONObject pushToDHIS2(MotechEvent event) {
 		JSONObject response = null;
 		try {
@@ -45,8 +72,7 @@ public class DHIS2SyncerListener {
 			} else {
 				start = lastsync == null || lastsync.get(0).getValue() == null ? 0 : lastsync.get(0).getValue();
 			}
-			List<Client> cl = clientService.findByServerVersion(start);
-			for (Client c : cl) {
+			for (Client c : clientService.iterateByServerVersion(start)) {
 				try {
 					response = sentTrackCaptureDataToDHIS2(c);
 				}
@@ -2,11 +2,16 @@ package org.opensrp.connector.openmrs.schedule;
 
 import java.util.logging.Logger;
 
+import javax.annotation.PreDestroy;
+
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
+import org.opensrp.common.monitor.Metric;
 import org.opensrp.connector.openmrs.EncounterAtomfeed;
 import org.opensrp.connector.openmrs.PatientAtomfeed;
 import org.opensrp.connector.openmrs.constants.OpenmrsConstants;
+import org.opensrp.scheduler.BackgroundJob;
+import org.opensrp.scheduler.BackgroundJob.Overlap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -15,6 +20,14 @@ public class OpenmrsAtomfeedListener {
 	Logger log = Logger.getLogger(getClass().getName());
 	private PatientAtomfeed patientAtomfeed;
 	private EncounterAtomfeed encounterAtomfeed;
+	private final BackgroundJob job = new BackgroundJob("openmrs-atomfeed", Overlap.SKIP, Metric.OPENMRS_ATOMFEED_JOB_LAG,
+			Metric.OPENMRS_ATOMFEED_SYNCER_BATCH_TIME, new BackgroundJob.Task() {
+				
+				@Override
+				public void run(MotechEvent event) {
+					syncAtomfeeds(event);
+				}
+			});
 
 	@Autowired
 	public OpenmrsAtomfeedListener(PatientAtomfeed patientAtomfeed, EncounterAtomfeed encounterAtomfeed) {
@@ -22,7 +35,16 @@ public class OpenmrsAtomfeedListener {
 		this.encounterAtomfeed = encounterAtomfeed;
 	}
 
+	@PreDestroy
+	public void shutdown() {
+		job.shutdown();
+	}
+
 	@MotechListener(subjects=OpenmrsConstants.SCHEDULER_OPENMRS_ATOMFEED_SYNCER_SUBJECT)
+	public void scheduleAtomfeedSync(MotechEvent event) {
+		job.trigger(event);
+	}
+
 	public void syncAtomfeeds(MotechEvent event) {
 		try{
 			log.info("Running "+OpenmrsConstants.SCHEDULER_OPENMRS_ATOMFEED_SYNCER_SUBJECT);
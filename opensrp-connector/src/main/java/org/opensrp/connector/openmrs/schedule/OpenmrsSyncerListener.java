@@ -1,8 +1,18 @@
 package org.opensrp.connector.openmrs.schedule;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.joda.time.DateTime;
@@ -11,6 +21,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.MetricsRegistry;
+import org.opensrp.common.monitor.Probe;
 import org.opensrp.connector.dhis2.Dhis2TrackCaptureConnector;
 import org.opensrp.connector.openmrs.constants.OpenmrsConstants;
 import org.opensrp.connector.openmrs.constants.OpenmrsConstants.SchedulerConfig;
@@ -19,6 +32,8 @@ import org.opensrp.connector.openmrs.service.PatientService;
 import org.opensrp.domain.AppStateToken;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.Event;
+import org.opensrp.scheduler.BackgroundJob;
+import org.opensrp.scheduler.BackgroundJob.Overlap;
 import org.opensrp.scheduler.service.ActionService;
 import org.opensrp.scheduler.service.ScheduleService;
 import org.opensrp.service.ClientService;
@@ -28,15 +43,28 @@ import org.opensrp.service.EventService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
 public class OpenmrsSyncerListener {
 	
-	private static final ReentrantLock lock = new ReentrantLock();
-	
 	private static Logger logger = LoggerFactory.getLogger(OpenmrsSyncerListener.class.toString());
 	
+	/**
+	 * Runs {@link #pushToOpenMRS(MotechEvent)} on a thread of its own so a slow OpenMRS does not hold up other jobs
+	 */
+	private final BackgroundJob job = new BackgroundJob("openmrs-syncer", Overlap.COALESCE,
+	        Metric.OPENMRS_SYNCER_JOB_LAG, Metric.OPENMRS_SYNCER_BATCH_TIME, new BackgroundJob.Task() {
+		        
+		        @Override
+		        public void run(MotechEvent event) {
+			        pushToOpenMRS(event);
+		        }
+	        });
+	
+	static final int DEFAULT_PUSH_THREADS = 4;
+	
 	//private final OpenmrsSchedulerService openmrsSchedulerService;
 	
 	private final ScheduleService opensrpScheduleService;
@@ -55,6 +83,13 @@ public class OpenmrsSyncerListener {
 	
 	private final ClientService clientService;
 	
+	private final ExecutorService executor;
+	
+	/**
+	 * Maximum number of clients or events being pushed at any one time
+	 */
+	private final int pushWindow;
+	
 	// private RelationShipService relationShipService;
 	
 	@Autowired
@@ -63,7 +98,7 @@ public class OpenmrsSyncerListener {
 	@Autowired
 	public OpenmrsSyncerListener(ScheduleService opensrpScheduleService, ActionService actionService, ConfigService config,
 	    ErrorTraceService errorTraceService, PatientService patientService, EncounterService encounterService,
-	    ClientService clientService, EventService eventService) {
+	    ClientService clientService, EventService eventService, @Value("#{opensrp['openmrs.push.threads']}") int threads) {
 		//this.openmrsSchedulerService = openmrsSchedulerService;
 		this.opensrpScheduleService = opensrpScheduleService;
 		this.actionService = actionService;
@@ -73,6 +108,9 @@ public class OpenmrsSyncerListener {
 		this.encounterService = encounterService;
 		this.eventService = eventService;
 		this.clientService = clientService;
+		int workers = threads > 0 ? threads : DEFAULT_PUSH_THREADS;
+		this.executor = Executors.newFixedThreadPool(workers);
+		this.pushWindow = workers * 2;
 		
 		this.config.registerAppStateToken(SchedulerConfig.openmrs_syncer_sync_schedule_tracker_by_last_update_enrollment, 0,
 		    "ScheduleTracker token to keep track of enrollment synced with OpenMRS", true);
@@ -90,6 +128,12 @@ public class OpenmrsSyncerListener {
 		    "OpenMRS data pusher token to keep track of voided events synced with OpenMRS", true);
 	}
 	
+	@PreDestroy
+	public void shutdown() {
+		job.shutdown();
+		executor.shutdown();
+	}
+	
 	// @MotechListener(subjects =
 	// OpenmrsConstants.SCHEDULER_TRACKER_SYNCER_SUBJECT)
 	// public void scheduletrackerSyncer(MotechEvent event) {
@@ -136,12 +180,17 @@ public class OpenmrsSyncerListener {
 	// }
 	
 	@MotechListener(subjects = OpenmrsConstants.SCHEDULER_OPENMRS_DATA_PUSH_SUBJECT)
+	public void schedulePushToOpenMRS(MotechEvent event) {
+		job.trigger(event);
+	}
+	
+	/**
+	 * Push the clients and then the events updated since the last run to OpenMRS. Scheduled runs go through the
+	 * openmrs-syncer {@link BackgroundJob}, which never starts one while another is in progress.
+	 * 
+	 * @param event
+	 */
 	public void pushToOpenMRS(MotechEvent event) {
-		
-		if (!lock.tryLock()) {
-			logger.warn("Not fetching forms from Message Queue. It is already in progress.");
-			return;
-		}
 		try {
 			
 			logger("RUNNING ", event.getSubject());
@@ -157,14 +206,12 @@ public class OpenmrsSyncerListener {
 			start = lastsync == null || lastsync.getValue() == null ? 0 : lastsync.longValue();
 			pushEvent(start);
 			logger("PUSH TO OPENMRS FINISHED AT ", "");
+			logger.info("OpenMRS lookups " + patientService.getLookupCaches() + encounterService.getLookupCaches());
 			
 		}
 		catch (Exception ex) {
 			logger.error("", ex);
 		}
-		finally {
-			lock.unlock();
-		}
 	}
 	
 	public DateTime logger(String message, String subject) {
@@ -173,134 +220,315 @@ public class OpenmrsSyncerListener {
 		
 	}
 	
+	/**
+	 * Pushes the clients updated after start to OpenMRS, several at a time. All clients are created or updated before
+	 * any relationship is, so both ends of a relationship exist in OpenMRS by then. The token only moves over clients
+	 * whose push has finished along with every client before them.
+	 * 
+	 * @param start
+	 * @return
+	 * @throws JSONException
+	 */
 	public JSONObject pushClient(long start) throws JSONException {
-		List<Client> cl = clientService.findByServerVersion(start);
-		logger.info("Clients list size " + cl.size());
-		JSONObject patient = new JSONObject();// only for test code purpose
-		JSONArray patientsJsonArray = new JSONArray();// only for test code purpose
-		JSONArray relationshipsArray = new JSONArray();// only for test code purpose
+		// paged, so the second pass over the clients below queries them again instead of holding them all in memory
+		Iterable<Client> cl = clientService.iterateByServerVersion(start);
+		final JSONArray patientsJsonArray = new JSONArray();// only for test code purpose
+		final JSONArray relationshipsArray = new JSONArray();// only for test code purpose
 		JSONObject returnJsonObject = new JSONObject();// only for test code purpose
-		for (Client c : cl) {
-			try {
-				// FIXME This is to deal with existing records and should be
-				// removed later
-				if (c.getIdentifiers().containsKey("M_ZEIR_ID")) {
-					if (c.getBirthdate() == null) {
-						c.setBirthdate(new DateTime("1970-01-01"));
-					}
-					c.setGender("Female");
+		
+		PushPipeline<Client> patients = new PushPipeline<Client>() {
+			
+			@Override
+			protected void completed(Client c, Pushed pushed) {
+				if (pushed.synced) {
+					config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_client_by_date_updated,
+					    c.getServerVersion());
+				}
+				if (pushed.json != null) {
+					patientsJsonArray.put(pushed.json);
 				}
-				String uuid = c.getIdentifier(PatientService.OPENMRS_UUID_IDENTIFIER_TYPE);
+			}
+		};
+		for (final Client c : cl) {
+			patients.submit(c, c.getBaseEntityId(), new Callable<Pushed>() {
 				
-				if (uuid == null) {
-					JSONObject p = patientService.getPatientByIdentifier(c.getBaseEntityId());
-					for (Entry<String, String> id : c.getIdentifiers().entrySet()) {
-						p = patientService.getPatientByIdentifier(id.getValue());
-						if (p != null) {
-							break;
-						}
+				@Override
+				public Pushed call() {
+					Probe probe = new Probe(Metric.OPENMRS_PUSH_CLIENT_TIME);
+					try {
+						return pushPatient(c);
 					}
-					if (p != null) {
-						uuid = p.getString("uuid");
+					finally {
+						probe.stop();
 					}
 				}
-				if (uuid != null) {
-					logger.info("Updating patient " + uuid);
-					patient = patientService.updatePatient(c, uuid);
-					config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_client_by_date_updated,
-					    c.getServerVersion());
-					
-				} else {
-					JSONObject patientJson = patientService.createPatient(c);
-					patient = patientJson;//only for test code purpose					
-					if (patientJson != null && patientJson.has("uuid")) {
-						c.addIdentifier(PatientService.OPENMRS_UUID_IDENTIFIER_TYPE, patientJson.getString("uuid"));
-						clientService.addorUpdate(c, false);
-						
-						config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_client_by_date_updated,
-						    c.getServerVersion());
-						
-					}
-					
+			});
+		}
+		int processed = patients.drain();
+		logger.info("Clients processed " + processed);
+		
+		PushPipeline<Client> relationships = new PushPipeline<Client>() {
+			
+			@Override
+			protected void completed(Client c, Pushed pushed) {
+				if (pushed.json != null) {
+					relationshipsArray.put(pushed.json); // only for test code purpose
 				}
 			}
-			catch (Exception ex1) {
-				ex1.printStackTrace();
-				errorTraceService.log("OPENMRS FAILED CLIENT PUSH", Client.class.getName(), c.getBaseEntityId(),
-				    ExceptionUtils.getStackTrace(ex1), "");
+		};
+		for (final Client c : cl) {
+			if (c.getRelationships() != null) {// Mother has no relations. 
+				relationships.submit(c, c.getBaseEntityId(), new Callable<Pushed>() {
+					
+					@Override
+					public Pushed call() {
+						return pushRelationships(c);
+					}
+				});
 			}
-			patientsJsonArray.put(patient);
 		}
+		relationships.drain();
+		returnJsonObject.put("patient", patientsJsonArray); // only for test code purpose
+		returnJsonObject.put("relation", relationshipsArray);// only for test code purpose
+		return returnJsonObject;
 		
-		for (Client c : cl) {
-			if (c.getRelationships() != null) {// Mother has no relations. 
-				JSONObject motherJson = patientService.getPatientByIdentifier(c.getRelationships().get("mother").get(0)
-				        .toString());
-				JSONObject person = motherJson.getJSONObject("person");
-				
-				if (person.getString("uuid") != null) {
-					JSONObject relation = patientService.createPatientRelationShip(c.getIdentifier("OPENMRS_UUID"),
-					    person.getString("uuid"), "8d91a210-c2cc-11de-8d13-0010c6dffd0f");
-					relationshipsArray.put(relation); // only for test code purpose
-					logger.info("RelationshipsCreated check openrs" + c.getIdentifier("OPENMRS_UUID"));
+	}
+	
+	private Pushed pushPatient(Client c) {
+		try {
+			// FIXME This is to deal with existing records and should be
+			// removed later
+			if (c.getIdentifiers().containsKey("M_ZEIR_ID")) {
+				if (c.getBirthdate() == null) {
+					c.setBirthdate(new DateTime("1970-01-01"));
 				}
-				
-				List<Client> siblings = clientService.findByRelationship(c.getRelationships().get("mother").get(0)
-				        .toString());
-				if (!siblings.isEmpty() || siblings != null) {
-					JSONObject siblingJson;
-					JSONObject sibling;
-					for (Client client : siblings) {
-						if (!c.getBaseEntityId().equals(client.getBaseEntityId())) {
-							siblingJson = patientService.getPatientByIdentifier(client.getBaseEntityId());
-							sibling = siblingJson.getJSONObject("person");
-							patientService.createPatientRelationShip(c.getIdentifier("OPENMRS_UUID"),
-							    sibling.getString("uuid"), "8d91a01c-c2cc-11de-8d13-0010c6dffd0f");
+				c.setGender("Female");
+			}
+			String uuid = c.getIdentifier(PatientService.OPENMRS_UUID_IDENTIFIER_TYPE);
+			
+			if (uuid == null) {
+				uuid = patientService.getPatientUuidByIdentifier(c.getBaseEntityId());
+				for (Entry<String, String> id : c.getIdentifiers().entrySet()) {
+					if (uuid != null) {
+						break;
+					}
+					uuid = patientService.getPatientUuidByIdentifier(id.getValue());
+				}
+			}
+			if (uuid != null) {
+				logger.info("Updating patient " + uuid);
+				return new Pushed(patientService.updatePatient(c, uuid), true);
+			}
+			JSONObject patientJson = patientService.createPatient(c);
+			if (patientJson != null && patientJson.has("uuid")) {
+				c.addIdentifier(PatientService.OPENMRS_UUID_IDENTIFIER_TYPE, patientJson.getString("uuid"));
+				clientService.addorUpdate(c, false);
+				return new Pushed(patientJson, true);
+			}
+			return new Pushed(patientJson, false);
+		}
+		catch (Exception ex1) {
+			ex1.printStackTrace();
+			MetricsRegistry.getDefault().counter("openmrs.push.client.failed").increment();
+			errorTraceService.log("OPENMRS FAILED CLIENT PUSH", Client.class.getName(), c.getBaseEntityId(),
+			    ExceptionUtils.getStackTrace(ex1), "");
+			return new Pushed(null, false);
+		}
+	}
+	
+	private Pushed pushRelationships(Client c) {
+		try {
+			JSONObject relation = null;
+			// the uuid of a patient is the uuid of its person as well
+			String motherUuid = patientService.getPatientUuidByIdentifier(c.getRelationships().get("mother").get(0)
+			        .toString());
+			
+			if (motherUuid != null) {
+				relation = patientService.createPatientRelationShip(c.getIdentifier("OPENMRS_UUID"), motherUuid,
+				    "8d91a210-c2cc-11de-8d13-0010c6dffd0f");
+				logger.info("RelationshipsCreated check openrs" + c.getIdentifier("OPENMRS_UUID"));
+			}
+			
+			List<Client> siblings = clientService.findByRelationship(c.getRelationships().get("mother").get(0)
+			        .toString());
+			if (!siblings.isEmpty() || siblings != null) {
+				String siblingUuid;
+				for (Client client : siblings) {
+					if (!c.getBaseEntityId().equals(client.getBaseEntityId())) {
+						siblingUuid = patientService.getPatientUuidByIdentifier(client.getBaseEntityId());
+						if (siblingUuid != null) {
+							patientService.createPatientRelationShip(c.getIdentifier("OPENMRS_UUID"), siblingUuid,
+							    "8d91a01c-c2cc-11de-8d13-0010c6dffd0f");
 						}
-						
 					}
 					
 				}
+				
 			}
 			logger.info("RelationshipsCreated sibling1 ");
-			
+			return new Pushed(relation, relation != null);
+		}
+		catch (Exception ex1) {
+			logger.error("", ex1);
+			MetricsRegistry.getDefault().counter("openmrs.push.relationship.failed").increment();
+			errorTraceService.log("OPENMRS FAILED CLIENT RELATIONSHIP PUSH", Client.class.getName(),
+			    c.getBaseEntityId(), ExceptionUtils.getStackTrace(ex1), "");
+			return new Pushed(null, false);
 		}
-		returnJsonObject.put("patient", patientsJsonArray); // only for test code purpose
-		returnJsonObject.put("relation", relationshipsArray);// only for test code purpose
-		return returnJsonObject;
-		
 	}
 	
+	/**
+	 * Pushes the events updated after start to OpenMRS as encounters, several at a time. Encounters of the same
+	 * client are pushed one after the other, in serverVersion order. The token only moves over events whose push has
+	 * finished along with every event before them.
+	 * 
+	 * @param start
+	 * @return
+	 */
 	public JSONObject pushEvent(long start) {
-		List<Event> el = eventService.findByServerVersion(start);
-		logger.info("Event list size " + el.size() + " [start]" + start);
-		JSONObject encounter = null;
-		for (Event e : el) {
-			try {
-				String uuid = e.getIdentifier(EncounterService.OPENMRS_UUID_IDENTIFIER_TYPE);
-				if (uuid != null) {
-					encounter = encounterService.updateEncounter(e);
+		final JSONObject[] encounter = new JSONObject[1];// only for test code purpose
+		PushPipeline<Event> encounters = new PushPipeline<Event>() {
+			
+			@Override
+			protected void completed(Event e, Pushed pushed) {
+				if (pushed.synced) {
 					config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated,
 					    e.getServerVersion());
-				} else {
-					JSONObject eventJson = encounterService.createEncounter(e);
-					encounter = eventJson;// only for test code purpose
-					if (eventJson != null && eventJson.has("uuid")) {
-						e.addIdentifier(EncounterService.OPENMRS_UUID_IDENTIFIER_TYPE, eventJson.getString("uuid"));
-						eventService.updateEvent(e);
-						config.updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated,
-						    e.getServerVersion());
+				}
+				if (pushed.json != null) {
+					encounter[0] = pushed.json;
+				}
+			}
+		};
+		for (final Event e : eventService.iterateByServerVersion(start)) {
+			encounters.submit(e, e.getBaseEntityId(), new Callable<Pushed>() {
+				
+				@Override
+				public Pushed call() {
+					Probe probe = new Probe(Metric.OPENMRS_PUSH_EVENT_TIME);
+					try {
+						return pushEncounter(e);
+					}
+					finally {
+						probe.stop();
 					}
 				}
+			});
+		}
+		int processed = encounters.drain();
+		logger.info("Events processed " + processed + " [start]" + start);
+		return encounter[0];
+		
+	}
+	
+	private Pushed pushEncounter(Event e) {
+		try {
+			String uuid = e.getIdentifier(EncounterService.OPENMRS_UUID_IDENTIFIER_TYPE);
+			if (uuid != null) {
+				return new Pushed(encounterService.updateEncounter(e), true);
+			}
+			JSONObject eventJson = encounterService.createEncounter(e);
+			if (eventJson != null && eventJson.has("uuid")) {
+				e.addIdentifier(EncounterService.OPENMRS_UUID_IDENTIFIER_TYPE, eventJson.getString("uuid"));
+				eventService.updateEvent(e);
+				return new Pushed(eventJson, true);
+			}
+			return new Pushed(eventJson, false);
+		}
+		catch (Exception ex2) {
+			logger.error("", ex2);
+			MetricsRegistry.getDefault().counter("openmrs.push.event.failed").increment();
+			errorTraceService.log("OPENMRS FAILED EVENT PUSH", Event.class.getName(), e.getId(),
+			    ExceptionUtils.getStackTrace(ex2), "");
+			return new Pushed(null, false);
+		}
+	}
+	
+	/**
+	 * Outcome of pushing one record; synced is set when the record is in OpenMRS and the token may move past it
+	 */
+	private static class Pushed {
+		
+		private final JSONObject json;
+		
+		private final boolean synced;
+		
+		Pushed(JSONObject json, boolean synced) {
+			this.json = json;
+			this.synced = synced;
+		}
+	}
+	
+	/**
+	 * Runs pushes on the executor with at most {@link #pushWindow} of them in flight, and hands the outcomes to
+	 * {@link #completed(Object, Pushed)} in the order the records were submitted. A record is not started while an
+	 * earlier record of the same baseEntityId is still in flight.
+	 */
+	private abstract class PushPipeline<T> {
+		
+		private final Deque<T> records = new ArrayDeque<T>();
+		
+		private final Deque<String> keys = new ArrayDeque<String>();
+		
+		private final Deque<Future<Pushed>> inFlight = new ArrayDeque<Future<Pushed>>();
+		
+		private final Map<String, Integer> inFlightKeys = new HashMap<String, Integer>();
+		
+		private int completed;
+		
+		void submit(T record, String baseEntityId, Callable<Pushed> push) {
+			while (inFlight.size() >= pushWindow || baseEntityId != null && inFlightKeys.containsKey(baseEntityId)) {
+				completeOldest();
+			}
+			records.add(record);
+			keys.add(baseEntityId == null ? "" : baseEntityId);
+			if (baseEntityId != null) {
+				Integer count = inFlightKeys.get(baseEntityId);
+				inFlightKeys.put(baseEntityId, count == null ? 1 : count + 1);
 			}
-			catch (Exception ex2) {
-				logger.error("", ex2);
-				errorTraceService.log("OPENMRS FAILED EVENT PUSH", Event.class.getName(), e.getId(),
-				    ExceptionUtils.getStackTrace(ex2), "");
+			inFlight.add(executor.submit(push));
+		}
+		
+		/**
+		 * Waits for every push still in flight
+		 * 
+		 * @return number of records completed by this pipeline
+		 */
+		int drain() {
+			while (!inFlight.isEmpty()) {
+				completeOldest();
+			}
+			return completed;
+		}
+		
+		private void completeOldest() {
+			T record = records.poll();
+			String key = keys.poll();
+			Pushed pushed;
+			try {
+				pushed = inFlight.poll().get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while pushing to OpenMRS", e);
+			}
+			catch (ExecutionException e) {
+				logger.error("", e.getCause());
+				pushed = new Pushed(null, false);
+			}
+			Integer count = inFlightKeys.get(key);
+			if (count != null) {
+				if (count == 1) {
+					inFlightKeys.remove(key);
+				} else {
+					inFlightKeys.put(key, count - 1);
+				}
 			}
+			completed++;
+			completed(record, pushed);
 		}
-		return encounter;
 		
+		protected abstract void completed(T record, Pushed pushed);
 	}
 	
 }
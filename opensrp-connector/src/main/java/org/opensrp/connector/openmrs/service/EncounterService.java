@@ -29,6 +29,8 @@ public class EncounterService extends OpenmrsService{
 	private static final String ENCOUNTER__TYPE_URL = "ws/rest/v1/encountertype";
 	public static final String OPENMRS_UUID_IDENTIFIER_TYPE = "OPENMRS_UUID";
 
+	private final LookupCache<JSONObject> encounterTypes = lookupCache("encounter type by name");
+
 	private PatientService patientService;
 	private OpenmrsUserService userService;
 	private ClientService clientService;
@@ -78,6 +80,16 @@ public class EncounterService extends OpenmrsService{
     }
     
 	public JSONObject getEncounterType(String encounterType) throws JSONException {
+		return encounterTypes.get(encounterType, new LookupCache.Loader<JSONObject>() {
+
+			@Override
+			public JSONObject load(String encounterType) throws JSONException {
+				return fetchEncounterType(encounterType);
+			}
+		});
+	}
+
+	private JSONObject fetchEncounterType(String encounterType) throws JSONException {
     	// we have to use this ugly approach because identifier not found throws exception and 
     	// its hard to find whether it was network error or object not found or server error
     	JSONArray res = new JSONObject(HttpUtil.get(getURL()+"/"+ENCOUNTER__TYPE_URL, "v=full", 
@@ -92,6 +104,7 @@ public class EncounterService extends OpenmrsService{
 	
     public JSONObject createEncounterType(String name, String description) throws JSONException{
 		JSONObject o = convertEncounterToOpenmrsJson(name, description);
+		encounterTypes.invalidate(name);
 		return new JSONObject(HttpUtil.post(getURL()+"/"+ENCOUNTER__TYPE_URL, "", o.toString(), OPENMRS_USER, OPENMRS_PWD).body());
 	}
     
@@ -103,19 +116,25 @@ public class EncounterService extends OpenmrsService{
 	}
 	
 	public JSONObject createEncounter(Event e) throws JSONException{
-		JSONObject pt = patientService.getPatientByIdentifier(e.getBaseEntityId());
+		String patientUuid = patientService.getPatientUuidByIdentifier(e.getBaseEntityId());
 		JSONObject enc = new JSONObject();
 		
-		JSONObject pr = userService.getPersonByUser(e.getProviderId());
+		String providerUuid = userService.getPersonUuidByUser(e.getProviderId());
 		
-		enc.put("encounterDatetime", OPENMRS_DATE.format(e.getEventDate().toDate()));
-		// patient must be existing in OpenMRS before it submits an encounter. if it doesnot it would throw NPE
-		enc.put("patient", pt.getString("uuid"));
-		//TODO enc.put("patientUuid", pt.getString("uuid"));
+		// patient must be existing in OpenMRS before it submits an encounter
+		if (patientUuid == null) {
+			throw new IllegalStateException("No patient in OpenMRS for " + e.getBaseEntityId());
+		}
+		if (providerUuid == null) {
+			throw new IllegalStateException("No OpenMRS user for provider " + e.getProviderId());
+		}
+		enc.put("encounterDatetime", OPENMRS_DATE.get().format(e.getEventDate().toDate()));
+		enc.put("patient", patientUuid);
+		//TODO enc.put("patientUuid", patientUuid);
 		enc.put("encounterType", e.getEventType());
 		//TODO enc.put("encounterTypeUuid", e.getEventType());
 		enc.put("location", e.getLocationId());
-		enc.put("provider", pr.getString("uuid"));
+		enc.put("provider", providerUuid);
 
 		List<Obs> ol = e.getObs();
 		Map<String, JSONArray> p = new HashMap<>();
@@ -180,7 +199,7 @@ public class EncounterService extends OpenmrsService{
 		
 		JSONObject pr = userService.getPersonByUser(e.getProviderId());
 		
-		enc.put("encounterDatetime", OPENMRS_DATE.format(e.getEventDate().toDate()));
+		enc.put("encounterDatetime", OPENMRS_DATE.get().format(e.getEventDate().toDate()));
 		// patient must be existing in OpenMRS before it submits an encounter. if it doesnot it would throw NPE
 		enc.put("patient", pt.getString("uuid"));
 	//TODO	enc.put("patientUuid", pt.getString("uuid"));
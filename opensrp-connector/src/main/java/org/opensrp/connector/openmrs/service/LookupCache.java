@@ -0,0 +1,161 @@
+package org.opensrp.connector.openmrs.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+
+/**
+ * Size bounded cache for OpenMRS lookups (uuid by identifier, username, type name...). Entries expire after a while so
+ * changes made in OpenMRS directly are picked up eventually. Lookups that found nothing are remembered as well, for a
+ * shorter time, so a patient that is not in OpenMRS yet is not asked for again on every push. Once full the least
+ * recently used entry is dropped.
+ *
+ * @param <V> looked up value
+ */
+public class LookupCache<V> {
+
+	public static final int DEFAULT_SIZE = 10000;
+
+	public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+
+	public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 30 * 1000;
+
+	/**
+	 * Fetches a value from OpenMRS on a cache miss
+	 */
+	public interface Loader<V> {
+
+		/**
+		 * @param key
+		 * @return the value, or null if OpenMRS has none for the key
+		 * @throws JSONException
+		 */
+		V load(String key) throws JSONException;
+	}
+
+	private final String name;
+
+	private final long ttlMillis;
+
+	private final long negativeTtlMillis;
+
+	private final Map<String, Entry<V>> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	public LookupCache(String name) {
+		this(name, DEFAULT_SIZE, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS);
+	}
+
+	public LookupCache(String name, final int maxSize, long ttlMillis, long negativeTtlMillis) {
+		this.name = name;
+		this.ttlMillis = ttlMillis;
+		this.negativeTtlMillis = negativeTtlMillis;
+		this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached value for the key, or loads it if there is none or it has expired. The loader is called outside
+	 * the lock so a slow lookup does not hold up others; two threads missing on the same key may both load it.
+	 *
+	 * @param key
+	 * @param loader
+	 * @return
+	 * @throws JSONException
+	 */
+	public V get(String key, Loader<V> loader) throws JSONException {
+		long now = currentTimeMillis();
+		synchronized (entries) {
+			Entry<V> entry = entries.get(key);
+			if (entry != null) {
+				if (entry.expiresAt > now) {
+					hits.incrementAndGet();
+					return entry.value;
+				}
+				entries.remove(key);
+			}
+		}
+		misses.incrementAndGet();
+		V value = loader.load(key);
+		synchronized (entries) {
+			entries.put(key, new Entry<V>(value, now + (value == null ? negativeTtlMillis : ttlMillis)));
+		}
+		return value;
+	}
+
+	/**
+	 * Remember a value learned some other way, e.g. the uuid of a patient just created
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(String key, V value) {
+		long now = currentTimeMillis();
+		synchronized (entries) {
+			entries.put(key, new Entry<V>(value, now + (value == null ? negativeTtlMillis : ttlMillis)));
+		}
+	}
+
+	public void invalidate(String key) {
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public String toString() {
+		return "LookupCache [name=" + name + ", size=" + size() + ", hits=" + hits + ", misses=" + misses + "]";
+	}
+
+	private static class Entry<V> {
+
+		private final V value;
+
+		private final long expiresAt;
+
+		Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -1,5 +1,18 @@
 package org.opensrp.connector.openmrs.service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -7,27 +20,165 @@ import org.opensrp.api.domain.Location;
 import org.opensrp.api.util.LocationTree;
 import org.opensrp.common.util.HttpResponse;
 import org.opensrp.common.util.HttpUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.mysql.jdbc.StringUtils;
 
+/**
+ * Serves OpenMRS locations and location trees from an in-memory copy of the location hierarchy. The copy is loaded a
+ * page of locations per request and refreshed in the background every
+ * {@code openmrs.location.cache.refresh.minutes}; location trees are built from it without going back to OpenMRS. A
+ * location missing from the copy, e.g. one created since the last refresh, is fetched on its own and added.
+ */
 @Service
 public class OpenmrsLocationService extends OpenmrsService{
 	private static final String LOCATION_URL = "ws/rest/v1/location";
+	
+	private static final Logger logger = LoggerFactory.getLogger(OpenmrsLocationService.class.toString());
+	
+	static final int PAGE_SIZE = 100;
+	
+	static final long DEFAULT_REFRESH_MINUTES = 15;
+	
+	@Value("#{opensrp['openmrs.location.cache.refresh.minutes']}")
+	long refreshMinutes = DEFAULT_REFRESH_MINUTES;
+	
+	private volatile LocationHierarchy hierarchy;
+	
+	private ScheduledExecutorService refresher;
 
 	public OpenmrsLocationService() {	}
 
 	public OpenmrsLocationService(String openmrsUrl, String user, String password) {
     	super(openmrsUrl, user, password);
 	}
+	
+	/**
+	 * Loads the hierarchy in the background right away and again every refreshMinutes
+	 */
+	@PostConstruct
+	public void scheduleRefresh() {
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "openmrs-location-refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					refreshLocations();
+				}
+				catch (Exception e) {
+					logger.error("Could not refresh OpenMRS locations, keeping the previous ones", e);
+				}
+			}
+		}, 0, refreshInterval(), TimeUnit.MILLISECONDS);
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Load all locations from OpenMRS and replace the in-memory hierarchy with them
+	 * 
+	 * @throws JSONException
+	 */
+	public void refreshLocations() throws JSONException {
+		LocationHierarchy loaded = new LocationHierarchy(System.currentTimeMillis());
+		int startIndex = 0;
+		while (true) {
+			HttpResponse op = HttpUtil.get(getURL() + "/" + LOCATION_URL, "v=full&limit=" + PAGE_SIZE + "&startIndex="
+			        + startIndex, OPENMRS_USER, OPENMRS_PWD);
+			JSONObject page = new JSONObject(op.body());
+			JSONArray results = page.getJSONArray("results");
+			for (int i = 0; i < results.length(); i++) {
+				loaded.add(results.getJSONObject(i));
+			}
+			if (results.length() == 0 || !hasNextPage(page)) {
+				break;
+			}
+			startIndex += results.length();
+		}
+		hierarchy = loaded;
+		logger.info("Loaded " + loaded.locations.size() + " OpenMRS locations");
+	}
+	
+	private static boolean hasNextPage(JSONObject page) throws JSONException {
+		JSONArray links = page.optJSONArray("links");
+		if (links != null) {
+			for (int i = 0; i < links.length(); i++) {
+				if ("next".equals(links.getJSONObject(i).optString("rel"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	private long refreshInterval() {
+		return TimeUnit.MINUTES.toMillis(refreshMinutes > 0 ? refreshMinutes : DEFAULT_REFRESH_MINUTES);
+	}
+	
+	/**
+	 * @return the in-memory hierarchy, loading it first if the background refresh has not done so yet, or if there is
+	 *         no background refresh and it is out of date
+	 * @throws JSONException
+	 */
+	private LocationHierarchy getHierarchy() throws JSONException {
+		LocationHierarchy current = hierarchy;
+		if (current != null && (refresher != null || System.currentTimeMillis() - current.loadedAt < refreshInterval())) {
+			return current;
+		}
+		synchronized (this) {
+			if (hierarchy == current) {
+				refreshLocations();
+			}
+			return hierarchy;
+		}
+	}
+	
+	/**
+	 * @param locationIdOrName
+	 * @return the location from the in-memory hierarchy, fetched from OpenMRS if it is not there; null if OpenMRS
+	 *         returns nothing for it
+	 * @throws JSONException
+	 */
+	private Location findLocation(LocationHierarchy hierarchy, String locationIdOrName) throws JSONException {
+		Location location = hierarchy.get(locationIdOrName);
+		if (location != null) {
+			return location;
+		}
+		HttpResponse op = HttpUtil.get(getURL() + "/" + LOCATION_URL + "/" + (locationIdOrName.replaceAll(" ", "%20")),
+		    "v=full", OPENMRS_USER, OPENMRS_PWD);
+		if (StringUtils.isEmptyOrWhitespaceOnly(op.body())) {
+			return null;
+		}
+		return hierarchy.add(new JSONObject(op.body()));
+	}
+	
+	private Location requireLocation(LocationHierarchy hierarchy, String locationIdOrName) throws JSONException {
+		Location location = findLocation(hierarchy, locationIdOrName);
+		if (location == null) {
+			throw new JSONException("No OpenMRS location " + locationIdOrName);
+		}
+		return location;
+	}
 
 	public Location getLocation(String locationIdOrName) throws JSONException {
-		HttpResponse op = HttpUtil.get(HttpUtil.removeEndingSlash(OPENMRS_BASE_URL)+"/"+LOCATION_URL+"/"+(locationIdOrName.replaceAll(" ", "%20")), "v=full", OPENMRS_USER, OPENMRS_PWD);
-		
-		if(!StringUtils.isEmptyOrWhitespaceOnly(op.body())){
-			return makeLocation(op.body());
-		}
-		return null;
+		return findLocation(getHierarchy(), locationIdOrName);
 	}
 	
 	public Location getParent(JSONObject locobj) throws JSONException {
@@ -39,8 +190,7 @@ public class OpenmrsLocationService extends OpenmrsService{
 		return null;
 	}
 	
-	private Location makeLocation(String locationJson) throws JSONException{
-		JSONObject obj = new JSONObject(locationJson);
+	private Location makeLocation(JSONObject obj) throws JSONException{
 		Location p = getParent(obj);
 		Location l = new Location(obj.getString("uuid"), obj.getString("name"), 
 				null, null, p , null, null);
@@ -60,75 +210,103 @@ public class OpenmrsLocationService extends OpenmrsService{
 		return l;
 	}
 	
-	private Location makeLocation(JSONObject location) throws JSONException{
-		return makeLocation(location.toString());
-	}
-	
 	public LocationTree getLocationTree() throws JSONException {
 		LocationTree ltr = new LocationTree();
-		HttpResponse op = HttpUtil.get(HttpUtil.removeEndingSlash(OPENMRS_BASE_URL)+"/"+LOCATION_URL, "v=full", OPENMRS_USER, OPENMRS_PWD);
-		
-		JSONArray res = new JSONObject(op.body()).getJSONArray("results");
-		if(res.length() == 0){
-			return ltr;
-		}
-		
-		for (int i = 0; i < res.length(); i++) {
-			ltr.addLocation(makeLocation(res.getJSONObject(i)));
+		for (Location location : getHierarchy().locations.values()) {
+			ltr.addLocation(location);
 		}
 		return ltr;
 	}
 	
 	public LocationTree getLocationTreeOf(String locationIdOrName) throws JSONException {
+		LocationHierarchy hierarchy = getHierarchy();
 		LocationTree ltr = new LocationTree();
 		
-		fillTreeWithHierarchy(ltr, locationIdOrName);
-		fillTreeWithUpperHierarchy(ltr, locationIdOrName);
+		fillTreeWithHierarchy(hierarchy, ltr, locationIdOrName);
+		fillTreeWithUpperHierarchy(hierarchy, ltr, locationIdOrName);
 		
 		return ltr;
 	}
 	
 	public LocationTree getLocationTreeOf(String[] locationIdsOrNames) throws JSONException {
+		LocationHierarchy hierarchy = getHierarchy();
 		LocationTree ltr = new LocationTree();
 		
 		for (String loc : locationIdsOrNames) {
-			String locTreeId = fillTreeWithHierarchy(ltr, loc);
+			String locTreeId = fillTreeWithHierarchy(hierarchy, ltr, loc);
 			Location lp = ltr.findLocation(locTreeId).getParentLocation();
 			if(lp != null){
-				fillTreeWithUpperHierarchy(ltr, lp.getLocationId());
+				fillTreeWithUpperHierarchy(hierarchy, ltr, lp.getLocationId());
 			}
 		}		
 		
 		return ltr;
 	}
 	
-	private String fillTreeWithHierarchy(LocationTree ltr, String locationIdOrName) throws JSONException{
-		HttpResponse op = HttpUtil.get(HttpUtil.removeEndingSlash(OPENMRS_BASE_URL)+"/"+LOCATION_URL+"/"+(locationIdOrName.replaceAll(" ", "%20")), "v=full", OPENMRS_USER, OPENMRS_PWD);
-
-		JSONObject lo = new JSONObject(op.body());
-		Location l = makeLocation(op.body());
+	private String fillTreeWithHierarchy(LocationHierarchy hierarchy, LocationTree ltr, String locationIdOrName) throws JSONException{
+		Location l = requireLocation(hierarchy, locationIdOrName);
 		ltr.addLocation(l);
 		
-		if(lo.has("childLocations")){
-			JSONArray lch = lo.getJSONArray("childLocations");
-	
-			for (int i = 0; i < lch.length(); i++) {
-	
-				JSONObject cj = lch.getJSONObject(i);
-				fillTreeWithHierarchy(ltr, cj.getString("uuid"));
-			}
+		for (String childId : hierarchy.childrenOf(l.getLocationId())) {
+			fillTreeWithHierarchy(hierarchy, ltr, childId);
 		}
 		return l.getLocationId();
 	}
 
-	private void fillTreeWithUpperHierarchy(LocationTree ltr, String locationId) throws JSONException{
-		HttpResponse op = HttpUtil.get(HttpUtil.removeEndingSlash(OPENMRS_BASE_URL)+"/"+LOCATION_URL+"/"+(locationId.replaceAll(" ", "%20")), "v=full", OPENMRS_USER, OPENMRS_PWD);
-
-		Location l = makeLocation(op.body());
+	private void fillTreeWithUpperHierarchy(LocationHierarchy hierarchy, LocationTree ltr, String locationId) throws JSONException{
+		Location l = requireLocation(hierarchy, locationId);
 		ltr.addLocation(l);
 		
 		if(l.getParentLocation() != null){
-			fillTreeWithUpperHierarchy(ltr, l.getParentLocation().getLocationId());
+			fillTreeWithUpperHierarchy(hierarchy, ltr, l.getParentLocation().getLocationId());
+		}
+	}
+	
+	/**
+	 * Locations by uuid and name, and the uuids of the children of each. Maps are concurrent because locations
+	 * fetched on a miss are added while the hierarchy is being read.
+	 */
+	private class LocationHierarchy {
+		
+		final long loadedAt;
+		
+		final Map<String, Location> locations = new ConcurrentHashMap<String, Location>();
+		
+		final Map<String, String> uuidsByName = new ConcurrentHashMap<String, String>();
+		
+		final Map<String, List<String>> children = new ConcurrentHashMap<String, List<String>>();
+		
+		LocationHierarchy(long loadedAt) {
+			this.loadedAt = loadedAt;
+		}
+		
+		Location add(JSONObject obj) throws JSONException {
+			Location location = makeLocation(obj);
+			List<String> childIds = new ArrayList<String>();
+			JSONArray childLocations = obj.optJSONArray("childLocations");
+			if (childLocations != null) {
+				for (int i = 0; i < childLocations.length(); i++) {
+					childIds.add(childLocations.getJSONObject(i).getString("uuid"));
+				}
+			}
+			children.put(location.getLocationId(), childIds);
+			uuidsByName.put(location.getName(), location.getLocationId());
+			locations.put(location.getLocationId(), location);
+			return location;
+		}
+		
+		Location get(String locationIdOrName) {
+			Location location = locations.get(locationIdOrName);
+			if (location == null) {
+				String uuid = uuidsByName.get(locationIdOrName);
+				location = uuid == null ? null : locations.get(uuid);
+			}
+			return location;
+		}
+		
+		List<String> childrenOf(String locationId) {
+			List<String> childIds = children.get(locationId);
+			return childIds == null ? Collections.<String> emptyList() : childIds;
 		}
 	}
 }
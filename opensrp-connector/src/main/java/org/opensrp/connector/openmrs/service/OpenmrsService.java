@@ -1,8 +1,13 @@
 package org.opensrp.connector.openmrs.service;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
+import org.opensrp.common.monitor.Gauge;
+import org.opensrp.common.monitor.MetricsRegistry;
 import org.opensrp.common.util.HttpUtil;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -18,7 +23,19 @@ public abstract class OpenmrsService {
 	@Value("#{opensrp['openmrs.password']}")
 	protected String OPENMRS_PWD;
 	
-	public static final SimpleDateFormat OPENMRS_DATE = new SimpleDateFormat("yyyy-MM-dd");
+	/**
+	 * SimpleDateFormat is not thread safe and the services are called from concurrent pushes, so each thread gets its own
+	 */
+	public static final ThreadLocal<SimpleDateFormat> OPENMRS_DATE = new ThreadLocal<SimpleDateFormat>() {
+		
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd");
+		}
+	};
+	
+	private final List<LookupCache<?>> lookupCaches = new ArrayList<LookupCache<?>>();
+	
 	public OpenmrsService() {	}
 	
 	public OpenmrsService(String openmrsUrl, String user, String password) {
@@ -38,9 +55,53 @@ public abstract class OpenmrsService {
 	void setURL(String url) {
 		OPENMRS_BASE_URL = url;
 	}
+	
+	/**
+	 * Creates a {@link LookupCache} with the default size and expiry and registers it with this service, and its hit and
+	 * miss counts as gauges with the metrics registry
+	 * 
+	 * @param name
+	 * @return
+	 */
+	protected <V> LookupCache<V> lookupCache(String name) {
+		final LookupCache<V> cache = new LookupCache<V>(name);
+		lookupCaches.add(cache);
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		metrics.gauge("openmrs.lookup." + name + ".hits", new Gauge() {
+			
+			@Override
+			public long value() {
+				return cache.getHits();
+			}
+		});
+		metrics.gauge("openmrs.lookup." + name + ".misses", new Gauge() {
+			
+			@Override
+			public long value() {
+				return cache.getMisses();
+			}
+		});
+		return cache;
+	}
+	
+	/**
+	 * @return the lookup caches of this service, for hit / miss statistics
+	 */
+	public List<LookupCache<?>> getLookupCaches() {
+		return Collections.unmodifiableList(lookupCaches);
+	}
+	
+	/**
+	 * Forget every cached lookup, e.g. after data has been changed in OpenMRS directly
+	 */
+	public void clearLookupCaches() {
+		for (LookupCache<?> cache : lookupCaches) {
+			cache.clear();
+		}
+	}
 
 public static void main(String[] args) {
-	System.out.println(OPENMRS_DATE.format(new Date()));
+	System.out.println(OPENMRS_DATE.get().format(new Date()));
 }
 	
 }
\ No newline at end of file
@@ -19,6 +19,8 @@ public class OpenmrsUserService extends OpenmrsService{
 	private static final String TEAM_MEMBER_URL = "ws/rest/v1/teammodule/member";
 	private static Logger logger = LoggerFactory.getLogger(OpenmrsUserService.class.toString());
 
+	private final LookupCache<String> personUuids = lookupCache("person uuid by username");
+
     public OpenmrsUserService() { }
 
     public OpenmrsUserService(String openmrsUrl, String user, String password) {
@@ -93,6 +95,23 @@ public class OpenmrsUserService extends OpenmrsService{
 		return p;
 	}
 	
+	/**
+	 * Cached lookup of the uuid of the person of the user with the given username
+	 * @param username
+	 * @return the uuid, or null if there is no such user
+	 * @throws JSONException
+	 */
+	public String getPersonUuidByUser(String username) throws JSONException {
+		return personUuids.get(username, new LookupCache.Loader<String>() {
+
+			@Override
+			public String load(String username) throws JSONException {
+				JSONObject person = getPersonByUser(username);
+				return person == null ? null : person.getString("uuid");
+			}
+		});
+	}
+	
 	public JSONObject getTeamMember(String uuid) throws JSONException{
 		HttpResponse op = HttpUtil.get(HttpUtil.removeEndingSlash(OPENMRS_BASE_URL)+"/"+TEAM_MEMBER_URL+"/"+uuid, "v=full", OPENMRS_USER, OPENMRS_PWD);
 		return new JSONObject(op.body());
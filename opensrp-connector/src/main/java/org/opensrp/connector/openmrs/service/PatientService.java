@@ -50,6 +50,12 @@ public class PatientService extends OpenmrsService {
 	
 	public static final String OPENMRS_UUID_IDENTIFIER_TYPE = "OPENMRS_UUID";
 	
+	private final LookupCache<String> patientUuids = lookupCache("patient uuid by identifier");
+	
+	private final LookupCache<JSONObject> identifierTypes = lookupCache("patient identifier type by name");
+	
+	private final LookupCache<JSONObject> personAttributeTypes = lookupCache("person attribute type by name");
+	
 	public PatientService() {
 	}
 	
@@ -63,12 +69,41 @@ public class PatientService extends OpenmrsService {
 		return p.length() > 0 ? p.getJSONObject(0) : null;
 	}
 	
+	/**
+	 * Cached lookup of the uuid of the patient with the given identifier. The patient uuid is also the uuid of its
+	 * person.
+	 * 
+	 * @param identifier
+	 * @return the uuid, or null if no patient has the identifier
+	 * @throws JSONException
+	 */
+	public String getPatientUuidByIdentifier(String identifier) throws JSONException {
+		return patientUuids.get(identifier, new LookupCache.Loader<String>() {
+			
+			@Override
+			public String load(String identifier) throws JSONException {
+				JSONObject patient = getPatientByIdentifier(identifier);
+				return patient == null ? null : patient.getString("uuid");
+			}
+		});
+	}
+	
 	public JSONObject getPatientByUuid(String uuid, boolean noRepresentationTag) throws JSONException {
 		return new JSONObject(HttpUtil.get(getURL() + "/" + PATIENT_URL + "/" + uuid, noRepresentationTag ? "" : "v=full",
 		    OPENMRS_USER, OPENMRS_PWD).body());
 	}
 	
 	public JSONObject getIdentifierType(String identifierType) throws JSONException {
+		return identifierTypes.get(identifierType, new LookupCache.Loader<JSONObject>() {
+			
+			@Override
+			public JSONObject load(String identifierType) throws JSONException {
+				return fetchIdentifierType(identifierType);
+			}
+		});
+	}
+	
+	private JSONObject fetchIdentifierType(String identifierType) throws JSONException {
 		// we have to use this ugly approach because identifier not found throws exception and 
 		// its hard to find whether it was network error or object not found or server error
 		JSONArray res = new JSONObject(HttpUtil.get(getURL() + "/" + PATIENT_IDENTIFIER_TYPE_URL, "v=full", OPENMRS_USER,
@@ -83,6 +118,7 @@ public class PatientService extends OpenmrsService {
 	
 	public JSONObject createIdentifierType(String name, String description) throws JSONException {
 		JSONObject o = convertIdentifierToOpenmrsJson(name, description);
+		identifierTypes.invalidate(name);
 		return new JSONObject(HttpUtil.post(getURL() + "/" + PATIENT_IDENTIFIER_TYPE_URL, "", o.toString(), OPENMRS_USER,
 		    OPENMRS_PWD).body());
 	}
@@ -111,6 +147,16 @@ public class PatientService extends OpenmrsService {
 	}
 	
 	public JSONObject getPersonAttributeType(String attributeName) throws JSONException {
+		return personAttributeTypes.get(attributeName, new LookupCache.Loader<JSONObject>() {
+			
+			@Override
+			public JSONObject load(String attributeName) throws JSONException {
+				return fetchPersonAttributeType(attributeName);
+			}
+		});
+	}
+	
+	private JSONObject fetchPersonAttributeType(String attributeName) throws JSONException {
 		JSONArray p = new JSONObject(HttpUtil.get(getURL() + "/" + PERSON_ATTRIBUTE_TYPE_URL, "v=full&q=" + attributeName,
 		    OPENMRS_USER, OPENMRS_PWD).body()).getJSONArray("results");
 		return p.length() > 0 ? p.getJSONObject(0) : null;
@@ -125,10 +171,10 @@ public class PatientService extends OpenmrsService {
 	public JSONObject convertBaseEntityToOpenmrsJson(Client be) throws JSONException {
 		JSONObject per = new JSONObject();
 		per.put("gender", be.getGender());
-		per.put("birthdate", OPENMRS_DATE.format(be.getBirthdate().toDate()));
+		per.put("birthdate", OPENMRS_DATE.get().format(be.getBirthdate().toDate()));
 		per.put("birthdateEstimated", be.getBirthdateApprox());
 		if (be.getDeathdate() != null) {
-			per.put("deathDate", OPENMRS_DATE.format(be.getDeathdate().toDate()));
+			per.put("deathDate", OPENMRS_DATE.get().format(be.getDeathdate().toDate()));
 		}
 		
 		String fn = be.getFirstName() == null || be.getFirstName().isEmpty() ? "-" : be.getFirstName();
@@ -212,10 +258,10 @@ public class PatientService extends OpenmrsService {
 			jao.put("latitude", ad.getLatitude());
 			jao.put("longitude", ad.getLongitude());
 			if (ad.getStartDate() != null) {
-				jao.put("startDate", OPENMRS_DATE.format(ad.getStartDate().toDate()));
+				jao.put("startDate", OPENMRS_DATE.get().format(ad.getStartDate().toDate()));
 			}
 			if (ad.getEndDate() != null) {
-				jao.put("endDate", OPENMRS_DATE.format(ad.getEndDate().toDate()));
+				jao.put("endDate", OPENMRS_DATE.get().format(ad.getEndDate().toDate()));
 			}
 			
 			jaar.put(jao);
@@ -260,7 +306,17 @@ public class PatientService extends OpenmrsService {
 		
 		p.put("identifiers", ids);
 		String response = HttpUtil.post(getURL() + "/" + PATIENT_URL, "", p.toString(), OPENMRS_USER, OPENMRS_PWD).body();
-		return new JSONObject(response);
+		JSONObject patient = new JSONObject(response);
+		if (patient.has("uuid")) {
+			// replaces the negative entries left by the lookups done before creating the patient
+			patientUuids.put(c.getBaseEntityId(), patient.getString("uuid"));
+			if (c.getIdentifiers() != null) {
+				for (String identifier : c.getIdentifiers().values()) {
+					patientUuids.put(identifier, patient.getString("uuid"));
+				}
+			}
+		}
+		return patient;
 	}
 	
 	public JSONObject updatePatient(Client c, String uuid) throws JSONException {
@@ -1,7 +1,7 @@
 package org.opensrp.connector.dhis2;
 
 import static org.junit.Assert.assertEquals;
-import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -182,7 +182,7 @@ public class DHIS2DatasetPushTest extends TestResourceLoader {
 		
 		// Customized mock api responses setup
 		when(dhis2HttpUtils.post(anyString(), anyString(), anyString())).thenReturn(apiResponse);
-		when(mockReportService.findByServerVersion(anyInt())).thenReturn(reports);
+		when(mockReportService.iterateByServerVersion(anyLong())).thenReturn(reports);
 		
 		dhis2DatasetPush.dhis2HttpUtils = dhis2HttpUtils;
 		dhis2DatasetPush.openmrsLocationService = this.mockOpenmrsLocationService;
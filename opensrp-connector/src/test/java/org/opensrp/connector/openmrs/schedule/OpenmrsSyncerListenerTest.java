@@ -0,0 +1,124 @@
+package org.opensrp.connector.openmrs.schedule;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opensrp.connector.openmrs.constants.OpenmrsConstants.SchedulerConfig;
+import org.opensrp.connector.openmrs.service.EncounterService;
+import org.opensrp.connector.openmrs.service.PatientService;
+import org.opensrp.domain.Event;
+import org.opensrp.scheduler.service.ActionService;
+import org.opensrp.scheduler.service.ScheduleService;
+import org.opensrp.service.ClientService;
+import org.opensrp.service.ConfigService;
+import org.opensrp.service.ErrorTraceService;
+import org.opensrp.service.EventService;
+
+public class OpenmrsSyncerListenerTest {
+
+	@Mock
+	private ScheduleService scheduleService;
+
+	@Mock
+	private ActionService actionService;
+
+	@Mock
+	private ConfigService config;
+
+	@Mock
+	private ErrorTraceService errorTraceService;
+
+	@Mock
+	private PatientService patientService;
+
+	@Mock
+	private EncounterService encounterService;
+
+	@Mock
+	private ClientService clientService;
+
+	@Mock
+	private EventService eventService;
+
+	private OpenmrsSyncerListener openmrsSyncerListener;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		openmrsSyncerListener = new OpenmrsSyncerListener(scheduleService, actionService, config, errorTraceService,
+		        patientService, encounterService, clientService, eventService, 4);
+	}
+
+	@After
+	public void tearDown() {
+		openmrsSyncerListener.shutdown();
+	}
+
+	private Event event(String baseEntityId, long serverVersion) {
+		Event event = new Event().withBaseEntityId(baseEntityId).withEventType("Vaccination")
+		        .withFormSubmissionId("fs" + serverVersion);
+		event.setServerVersion(serverVersion);
+		return event;
+	}
+
+	@Test
+	public void shouldMoveTokenOverPushedEventsInServerVersionOrder() throws Exception {
+		Event first = event("c1", 1l);
+		Event failing = event("c2", 2l);
+		Event last = event("c3", 3l);
+		when(eventService.iterateByServerVersion(0l)).thenReturn(asList(first, failing, last));
+		when(encounterService.createEncounter(first)).thenReturn(new JSONObject("{\"uuid\":\"e1\"}"));
+		when(encounterService.createEncounter(failing)).thenThrow(new RuntimeException("OpenMRS unreachable"));
+		when(encounterService.createEncounter(last)).thenReturn(new JSONObject("{\"uuid\":\"e3\"}"));
+
+		JSONObject encounter = openmrsSyncerListener.pushEvent(0l);
+
+		assertEquals("e3", encounter.getString("uuid"));
+		InOrder inOrder = inOrder(config);
+		inOrder.verify(config).updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated, 1l);
+		inOrder.verify(config).updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated, 3l);
+		verify(config, never()).updateAppStateToken(SchedulerConfig.openmrs_syncer_sync_event_by_date_updated, 2l);
+		verify(errorTraceService).log(eq("OPENMRS FAILED EVENT PUSH"), eq(Event.class.getName()), anyString(), anyString(),
+		    eq(""));
+	}
+
+	@Test
+	public void shouldPushEncountersOfTheSameClientOneAfterTheOther() throws Exception {
+		Event registration = event("c1", 1l);
+		Event vaccination = event("c1", 2l);
+		Event other = event("c2", 3l);
+		when(eventService.iterateByServerVersion(0l)).thenReturn(asList(registration, other, vaccination));
+		when(encounterService.createEncounter(registration)).thenAnswer(new Answer<JSONObject>() {
+
+			@Override
+			public JSONObject answer(InvocationOnMock invocation) throws Throwable {
+				// give the next encounter of c1 a chance to overtake this one if it were not held back
+				Thread.sleep(100);
+				return new JSONObject("{\"uuid\":\"e1\"}");
+			}
+		});
+		when(encounterService.createEncounter(vaccination)).thenReturn(new JSONObject("{\"uuid\":\"e2\"}"));
+		when(encounterService.createEncounter(other)).thenReturn(new JSONObject("{\"uuid\":\"e3\"}"));
+
+		openmrsSyncerListener.pushEvent(0l);
+
+		InOrder inOrder = inOrder(eventService);
+		inOrder.verify(eventService).updateEvent(registration);
+		inOrder.verify(eventService).updateEvent(vaccination);
+	}
+}
@@ -0,0 +1,96 @@
+package org.opensrp.connector.openmrs.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LookupCacheTest {
+
+	private long now;
+
+	private LookupCache<String> cache;
+
+	private CountingLoader loader;
+
+	private static class CountingLoader implements LookupCache.Loader<String> {
+
+		int calls;
+
+		String value = "uuid";
+
+		@Override
+		public String load(String key) throws JSONException {
+			calls++;
+			return value;
+		}
+	}
+
+	@Before
+	public void setUp() {
+		now = 1000;
+		loader = new CountingLoader();
+		cache = new LookupCache<String>("test", 2, 100, 10) {
+
+			@Override
+			long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+	@Test
+	public void shouldLoadOnceUntilEntryExpires() throws Exception {
+		assertEquals("uuid", cache.get("id1", loader));
+		assertEquals("uuid", cache.get("id1", loader));
+		assertEquals(1, loader.calls);
+
+		now += 100;
+		cache.get("id1", loader);
+
+		assertEquals(2, loader.calls);
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void shouldRememberMissingValuesForTheNegativeTtl() throws Exception {
+		loader.value = null;
+		assertNull(cache.get("id1", loader));
+		now += 9;
+		assertNull(cache.get("id1", loader));
+		assertEquals(1, loader.calls);
+
+		now += 1;
+		loader.value = "uuid";
+		assertEquals("uuid", cache.get("id1", loader));
+		assertEquals(2, loader.calls);
+	}
+
+	@Test
+	public void shouldServePutValueInsteadOfNegativeEntry() throws Exception {
+		loader.value = null;
+		cache.get("id1", loader);
+
+		cache.put("id1", "created");
+
+		assertEquals("created", cache.get("id1", loader));
+		assertEquals(1, loader.calls);
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedWhenFull() throws Exception {
+		cache.get("id1", loader);
+		cache.get("id2", loader);
+		cache.get("id1", loader);
+		cache.get("id3", loader);
+
+		assertEquals(2, cache.size());
+		cache.get("id1", loader);
+		assertEquals(3, loader.calls);
+		cache.get("id2", loader);
+		assertEquals(4, loader.calls);
+	}
+}
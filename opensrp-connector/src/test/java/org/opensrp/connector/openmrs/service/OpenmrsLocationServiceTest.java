@@ -0,0 +1,150 @@
+package org.opensrp.connector.openmrs.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.BDDMockito;
+import org.opensrp.api.util.LocationTree;
+import org.opensrp.common.util.HttpResponse;
+import org.opensrp.common.util.HttpUtil;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({HttpUtil.class})
+@PowerMockIgnore({"org.apache.http.conn.ssl.*", "javax.net.ssl.*"})
+public class OpenmrsLocationServiceTest {
+
+	private static final String FIRST_PAGE = "v=full&limit=" + OpenmrsLocationService.PAGE_SIZE + "&startIndex=0";
+
+	private static final String SECOND_PAGE = "v=full&limit=" + OpenmrsLocationService.PAGE_SIZE + "&startIndex=2";
+
+	private OpenmrsLocationService ls;
+
+	@Before
+	public void setup() throws JSONException {
+		PowerMockito.mockStatic(HttpUtil.class);
+		ls = new OpenmrsLocationService("http://localhost/openmrs", "user", "password");
+
+		// country > province > district, and a second province, over two pages
+		JSONObject country = location("c", "Country", null, "p", "q");
+		JSONObject province = location("p", "Province", country, "d");
+		JSONObject district = location("d", "District", province);
+		JSONObject otherProvince = location("q", "Other Province", country);
+		givenGet(FIRST_PAGE, page(true, country, province));
+		givenGet(SECOND_PAGE, page(false, district, otherProvince));
+	}
+
+	@Test
+	public void shouldLoadAllPagesFollowingTheNextLink() throws JSONException {
+		ls.refreshLocations();
+
+		assertEquals("District", ls.getLocation("d").getName());
+		assertEquals("Other Province", ls.getLocation("q").getName());
+		verifyGet(times(1), FIRST_PAGE);
+		verifyGet(times(1), SECOND_PAGE);
+	}
+
+	@Test
+	public void shouldFindLocationByNameInMemory() throws JSONException {
+		ls.refreshLocations();
+
+		assertEquals("p", ls.getLocation("Province").getLocationId());
+		verifyGet(never(), "v=full");
+	}
+
+	@Test
+	public void shouldFetchMissingLocationOnceAndKeepIt() throws JSONException {
+		ls.refreshLocations();
+		JSONObject district = location("d", "District", location("p", "Province", null));
+		BDDMockito.given(HttpUtil.get(endsWith("/location/n"), eq("v=full"), any(String.class), any(String.class)))
+		        .willReturn(new HttpResponse(true, location("n", "New Village", district).toString()));
+
+		assertEquals("New Village", ls.getLocation("n").getName());
+		assertEquals("d", ls.getLocation("n").getParentLocation().getLocationId());
+		verifyGet(times(1), "v=full");
+	}
+
+	@Test
+	public void shouldBuildSubtreeAndUpperHierarchyFromMemory() throws JSONException {
+		ls.refreshLocations();
+
+		LocationTree tree = ls.getLocationTreeOf("Province");
+
+		assertTrue(tree.hasLocation("p"));
+		assertTrue(tree.hasLocation("d"));
+		assertTrue(tree.hasLocation("c"));
+		assertFalse(tree.hasLocation("q"));
+		assertTrue(tree.hasChildLocation("c", "p"));
+		assertTrue(tree.hasChildLocation("p", "d"));
+		verifyGet(never(), "v=full");
+	}
+
+	@Test
+	public void shouldBuildWholeTreeFromMemory() throws JSONException {
+		ls.refreshLocations();
+
+		LocationTree tree = ls.getLocationTree();
+
+		assertEquals(1, tree.getLocationsHierarchy().size());
+		assertTrue(tree.hasChildLocation("c", "q"));
+		assertTrue(tree.hasChildLocation("p", "d"));
+	}
+
+	private static void givenGet(String payload, JSONObject response) {
+		BDDMockito.given(HttpUtil.get(any(String.class), eq(payload), any(String.class), any(String.class))).willReturn(
+		    new HttpResponse(true, response.toString()));
+	}
+
+	private static void verifyGet(org.mockito.verification.VerificationMode mode, String payload) {
+		PowerMockito.verifyStatic(mode);
+		HttpUtil.get(any(String.class), eq(payload), any(String.class), any(String.class));
+	}
+
+	private static JSONObject page(boolean hasNext, JSONObject... locations) throws JSONException {
+		JSONObject page = new JSONObject();
+		page.put("results", new JSONArray());
+		for (JSONObject location : locations) {
+			page.getJSONArray("results").put(location);
+		}
+		JSONArray links = new JSONArray();
+		if (hasNext) {
+			links.put(new JSONObject().put("rel", "next").put("uri", "http://localhost/openmrs/ws/rest/v1/location"));
+		}
+		page.put("links", links);
+		return page;
+	}
+
+	private static JSONObject location(String uuid, String name, JSONObject parent, String... childUuids)
+	        throws JSONException {
+		JSONObject location = new JSONObject();
+		location.put("uuid", uuid);
+		location.put("name", name);
+		location.put("display", name);
+		location.put("tags", new JSONArray());
+		location.put("attributes", new JSONArray());
+		if (parent != null) {
+			location.put("parentLocation", parent);
+		}
+		JSONArray children = new JSONArray();
+		for (String childUuid : childUuids) {
+			children.put(new JSONObject().put("uuid", childUuid));
+		}
+		location.put("childLocations", children);
+		return location;
+	}
+}
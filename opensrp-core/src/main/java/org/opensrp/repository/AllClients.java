@@ -1,10 +1,14 @@
 package org.opensrp.repository;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.ViewQuery;
 import org.ektorp.support.GenerateView;
 import org.ektorp.support.View;
 import org.ektorp.util.Assert;
@@ -12,6 +16,7 @@ import org.ektorp.util.Documents;
 import org.joda.time.DateTime;
 import org.motechproject.dao.MotechBaseRepository;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.util.ServerVersionPager;
 import org.opensrp.domain.Client;
 import org.opensrp.repository.lucene.LuceneClientRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -176,7 +181,82 @@ public class AllClients extends MotechBaseRepository<Client> {
 		    Client.class);
 	}
 	
+	/**
+	 * Lazily iterate over all clients with a greater serverVersion, in serverVersion order, holding one page of clients
+	 * in memory at a time.
+	 * 
+	 * @param serverVersion
+	 * @param pageSize
+	 * @return
+	 */
+	public ServerVersionPager<Client> iterateByServerVersion(long serverVersion, int pageSize) {
+		return new ServerVersionPager<Client>(serverVersion, pageSize) {
+			
+			@Override
+			protected List<Client> fetch(long startVersion, String startDocId, int limit) {
+				ViewQuery query = createQuery("clients_by__server_version").startKey(ComplexKey.of(startVersion))
+				        .endKey(ComplexKey.of(Long.MAX_VALUE)).limit(limit).includeDocs(true);
+				if (startDocId != null) {
+					query.startDocId(startDocId);
+				}
+				return db.queryView(query, Client.class);
+			}
+			
+			@Override
+			protected long serverVersionOf(Client client) {
+				return client.getServerVersion();
+			}
+			
+			@Override
+			protected String idOf(Client client) {
+				return client.getId();
+			}
+		};
+	}
+	
 	public List<Client> findByFieldValue(String field, List<String> ids) {
 		return lcr.getByFieldValue(field, ids);
 	}
+	
+	/**
+	 * Open the raw by_baseEntityId view response, with docs included, for the given baseEntityIds. The caller is
+	 * responsible for closing the stream.
+	 * 
+	 * @param baseEntityIds
+	 * @return the CouchDB response body
+	 */
+	public InputStream streamByBaseEntityIds(Collection<String> baseEntityIds) {
+		return db.queryForStream(createQuery("by_baseEntityId").includeDocs(true).keys(baseEntityIds));
+	}
+	
+	/**
+	 * Multi-key lookup on the by_baseEntityId view
+	 * 
+	 * @param baseEntityIds
+	 * @return all clients with any of the given baseEntityIds
+	 */
+	public List<Client> findByBaseEntityIds(Collection<String> baseEntityIds) {
+		return db.queryView(createQuery("by_baseEntityId").includeDocs(true).keys(baseEntityIds), Client.class);
+	}
+	
+	/**
+	 * Multi-key lookup on the all_clients_by_identifier view. A client matching more than one of the identifiers is
+	 * returned once per match.
+	 * 
+	 * @param identifiers
+	 * @return clients having any of the given identifier values
+	 */
+	public List<Client> findAllByIdentifiers(Collection<String> identifiers) {
+		return db.queryView(createQuery("all_clients_by_identifier").includeDocs(true).keys(identifiers), Client.class);
+	}
+	
+	/**
+	 * Create or update all the given clients with a single _bulk_docs request
+	 * 
+	 * @param clients
+	 * @return the failed operations only
+	 */
+	public List<DocumentOperationResult> saveAll(Collection<Client> clients) {
+		return db.executeBulk(clients);
+	}
 }
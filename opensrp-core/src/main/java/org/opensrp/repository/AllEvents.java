@@ -1,11 +1,22 @@
 package org.opensrp.repository;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
 
 import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
 import org.ektorp.UpdateConflictException;
+import org.ektorp.ViewQuery;
 import org.ektorp.support.GenerateView;
 import org.ektorp.support.View;
 import org.ektorp.util.Assert;
@@ -13,6 +24,7 @@ import org.ektorp.util.Documents;
 import org.joda.time.DateTime;
 import org.motechproject.dao.MotechBaseRepository;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.util.ServerVersionPager;
 import org.opensrp.domain.Event;
 import org.opensrp.repository.lucene.LuceneEventRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +34,8 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class AllEvents extends MotechBaseRepository<Event> {
 	
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	
 	private LuceneEventRepository ler;
 	
 	@Autowired
@@ -107,6 +121,55 @@ public class AllEvents extends MotechBaseRepository<Event> {
 		    Event.class);
 	}
 	
+	/**
+	 * Lazily iterate over all events with a greater serverVersion, in serverVersion order, holding one page of events
+	 * in memory at a time.
+	 * 
+	 * @param serverVersion
+	 * @param pageSize
+	 * @return
+	 */
+	public ServerVersionPager<Event> iterateByServerVersion(long serverVersion, int pageSize) {
+		return new ServerVersionPager<Event>(serverVersion, pageSize) {
+			
+			@Override
+			protected List<Event> fetch(long startVersion, String startDocId, int limit) {
+				ViewQuery query = createQuery("events_by_version").startKey(ComplexKey.of(startVersion))
+				        .endKey(ComplexKey.of(Long.MAX_VALUE)).limit(limit).includeDocs(true);
+				if (startDocId != null) {
+					query.startDocId(startDocId);
+				}
+				return db.queryView(query, Event.class);
+			}
+			
+			@Override
+			protected long serverVersionOf(Event event) {
+				return event.getServerVersion();
+			}
+			
+			@Override
+			protected String idOf(Event event) {
+				return event.getId();
+			}
+		};
+	}
+	
+	/**
+	 * Page through events in serverVersion order. Pass the serverVersion of the last event of a page to fetch the
+	 * next one.
+	 * 
+	 * @param serverVersion only events with a greater serverVersion are returned
+	 * @param limit maximum number of events to return
+	 * @return
+	 */
+	public List<Event> findByServerVersion(long serverVersion, int limit) {
+		ComplexKey startKey = ComplexKey.of(serverVersion + 1);
+		ComplexKey endKey = ComplexKey.of(Long.MAX_VALUE);
+		return db.queryView(
+		    createQuery("events_by_version").startKey(startKey).endKey(endKey).limit(limit).includeDocs(true),
+		    Event.class);
+	}
+	
 	/**
 	 * Find an event based on a concept and between a range of date created dates
 	 * 
@@ -146,6 +209,21 @@ public class AllEvents extends MotechBaseRepository<Event> {
 		return events;
 	}
 	
+	/**
+	 * Same as {@link #findByConceptAndValue(String, String)} but reads one page of events
+	 * 
+	 * @param concept
+	 * @param conceptValue
+	 * @param skip events to pass over
+	 * @param limit most events to return
+	 * @return
+	 */
+	public List<Event> findByConceptAndValue(String concept, String conceptValue, int skip, int limit) {
+		return db.queryView(
+		    createQuery("event_by_concept_and_value").key(ComplexKey.of(concept, conceptValue)).includeDocs(true)
+		            .skip(skip).limit(limit), Event.class);
+	}
+	
 
 	@View(name = "events_by_empty_server_version", map = "function(doc) { if (doc.type == 'Event' && !doc.serverVersion) { emit(doc._id, doc); } }")
 	public List<Event> findByEmptyServerVersion() {
@@ -161,6 +239,62 @@ public class AllEvents extends MotechBaseRepository<Event> {
 		return ler.getByCriteria(team,providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder,limit);
 	}
 	
+	public List<String> findEventIds(String team, String providerId, String locationId, String baseEntityId,
+	                                 Long serverVersion, String sortBy, String sortOrder, int limit) {
+		return ler.getIdsByCriteria(team, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder, limit);
+	}
+	
+	/**
+	 * Open the raw _all_docs response for the given event ids. Rows come back in the same order as the ids and the
+	 * caller is responsible for closing the stream.
+	 * 
+	 * @param ids event document ids
+	 * @return the CouchDB response body
+	 */
+	public InputStream streamByIds(Collection<String> ids) {
+		return db.queryForStream(new ViewQuery().allDocs().includeDocs(true).keys(ids));
+	}
+	
+	/**
+	 * Resolve the current revision of each of the given event ids with one multi-key _all_docs request. Ids that do
+	 * not exist or have been deleted are left out of the result.
+	 * 
+	 * @param ids event document ids
+	 * @return document id to revision
+	 */
+	public Map<String, String> findRevisions(Collection<String> ids) {
+		Map<String, String> revisions = new HashMap<String, String>();
+		InputStream in = db.queryForStream(new ViewQuery().allDocs().keys(ids));
+		try {
+			JsonNode rows = OBJECT_MAPPER.readTree(in).get("rows");
+			if (rows != null) {
+				for (JsonNode row : rows) {
+					JsonNode value = row.get("value");
+					if (row.has("id") && value != null && value.has("rev") && !value.has("deleted")) {
+						revisions.put(row.get("id").getTextValue(), value.get("rev").getTextValue());
+					}
+				}
+			}
+			return revisions;
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Create or update all the given events with a single _bulk_docs request
+	 * 
+	 * @param events
+	 * @return the failed operations only
+	 */
+	public List<DocumentOperationResult> saveAll(Collection<Event> events) {
+		return db.executeBulk(events);
+	}
+	
 	
 	@View(name = "all_events_by_event_type_and_version", map = "function(doc) { if (doc.type === 'Event'){  emit([doc.eventType, doc.version], null); } }")
 	public List<Event> findEventByEventTypeBetweenTwoDates(String eventType) {
@@ -4,11 +4,13 @@ import java.util.List;
 
 import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
 import org.ektorp.support.GenerateView;
 import org.ektorp.support.View;
 import org.joda.time.DateTime;
 import org.motechproject.dao.MotechBaseRepository;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.util.ServerVersionPager;
 import org.opensrp.domain.Report;
 import org.opensrp.repository.lucene.LuceneReportRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -67,6 +69,39 @@ public class AllReports extends MotechBaseRepository<Report> {
 		    Report.class);
 	}
 	
+	/**
+	 * Lazily iterate over all reports with a greater serverVersion, in serverVersion order, holding one page of reports
+	 * in memory at a time.
+	 * 
+	 * @param serverVersion
+	 * @param pageSize
+	 * @return
+	 */
+	public ServerVersionPager<Report> iterateByServerVersion(long serverVersion, int pageSize) {
+		return new ServerVersionPager<Report>(serverVersion, pageSize) {
+			
+			@Override
+			protected List<Report> fetch(long startVersion, String startDocId, int limit) {
+				ViewQuery query = createQuery("reports_by_version").startKey(ComplexKey.of(startVersion))
+				        .endKey(ComplexKey.of(Long.MAX_VALUE)).limit(limit).includeDocs(true);
+				if (startDocId != null) {
+					query.startDocId(startDocId);
+				}
+				return db.queryView(query, Report.class);
+			}
+			
+			@Override
+			protected long serverVersionOf(Report report) {
+				return report.getServerVersion();
+			}
+			
+			@Override
+			protected String idOf(Report report) {
+				return report.getId();
+			}
+		};
+	}
+	
 	@View(name = "all_reports_by_base_entity_and_form_submission", map = "function(doc) { if (doc.type === 'Report'){  emit([doc.baseEntityId, doc.formSubmissionId], doc); } }")
 	public List<Report> findByBaseEntityAndFormSubmissionId(String baseEntityId, String formSubmissionId) {
 		return db.queryView(createQuery("all_reports_by_base_entity_and_form_submission")
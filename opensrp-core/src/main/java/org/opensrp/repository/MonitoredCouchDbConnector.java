@@ -0,0 +1,89 @@
+package org.opensrp.repository;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.ektorp.CouchDbInstance;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.impl.StdCouchDbConnector;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.Probe;
+
+/**
+ * CouchDB connector that records how long document reads, writes and view queries take. Used in place of
+ * {@link StdCouchDbConnector} for the opensrp databases, so all repositories are measured without touching them.
+ */
+public class MonitoredCouchDbConnector extends StdCouchDbConnector {
+
+	public MonitoredCouchDbConnector(String databaseName, CouchDbInstance dbInstance) {
+		super(databaseName, dbInstance);
+	}
+
+	@Override
+	public <T> T get(Class<T> c, String id) {
+		Probe probe = new Probe(Metric.COUCHDB_GET_TIME);
+		try {
+			return super.get(c, id);
+		}
+		finally {
+			probe.stop();
+		}
+	}
+
+	@Override
+	public void create(Object o) {
+		Probe probe = new Probe(Metric.COUCHDB_WRITE_TIME);
+		try {
+			super.create(o);
+		}
+		finally {
+			probe.stop();
+		}
+	}
+
+	@Override
+	public void update(Object o) {
+		Probe probe = new Probe(Metric.COUCHDB_WRITE_TIME);
+		try {
+			super.update(o);
+		}
+		finally {
+			probe.stop();
+		}
+	}
+
+	@Override
+	public List<DocumentOperationResult> executeBulk(Collection<?> objects) {
+		Probe probe = new Probe(Metric.COUCHDB_WRITE_TIME);
+		try {
+			return super.executeBulk(objects);
+		}
+		finally {
+			probe.stop();
+		}
+	}
+
+	@Override
+	public <T> List<T> queryView(ViewQuery query, Class<T> type) {
+		Probe probe = new Probe(Metric.COUCHDB_VIEW_QUERY_TIME);
+		try {
+			return super.queryView(query, type);
+		}
+		finally {
+			probe.stop();
+		}
+	}
+
+	@Override
+	public ViewResult queryView(ViewQuery query) {
+		Probe probe = new Probe(Metric.COUCHDB_VIEW_QUERY_TIME);
+		try {
+			return super.queryView(query);
+		}
+		finally {
+			probe.stop();
+		}
+	}
+}
@@ -2,41 +2,72 @@ package org.opensrp.repository.lucene;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.ektorp.CouchDbConnector;
 import org.ektorp.impl.StdCouchDbInstance;
-import org.json.JSONObject;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.Probe;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import com.github.ldriscoll.ektorplucene.LuceneAwareCouchDbConnector;
+import com.github.ldriscoll.ektorplucene.LuceneQuery;
 import com.github.ldriscoll.ektorplucene.LuceneResult;
 import com.github.ldriscoll.ektorplucene.LuceneResult.Row;
 
 @Component
 class LuceneDbConnector extends LuceneAwareCouchDbConnector{
 
+	/**
+	 * Shared by all lucene repositories. ObjectMapper is thread safe once configured, and creating one per row
+	 * throws away its serializer/deserializer caches every time.
+	 */
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
 	@Autowired
 	public LuceneDbConnector(@Qualifier(AllConstants.OPENSRP_DATABASE_CONNECTOR) CouchDbConnector db, StdCouchDbInstance dbinst) throws IOException {
 		super(db.getDatabaseName(), dbinst);
 	}
 	
+	/**
+	 * Every lucene repository queries through here, so this is where lucene query time is recorded.
+	 */
+	@Override
+	public LuceneResult queryLucene(LuceneQuery query) {
+		Probe probe = new Probe(Metric.LUCENE_QUERY_TIME);
+		try {
+			return super.queryLucene(query);
+		}
+		finally {
+			probe.stop();
+		}
+	}
+	
 	public <T> List<T> asList(LuceneResult result, Class<T> type) throws JsonProcessingException, IOException {
-		List<T> ol = new ArrayList<>();
+		List<T> ol = new ArrayList<>(result.getRows().size());
 		for (Row r : result.getRows()) {
-			HashMap<String, Object> doc = r.getDoc();
-			
-			T ro = new ObjectMapper().readValue(new JSONObject(doc).toString(), type);
-			ol.add(ro);
+			ol.add(asObject(r.getDoc(), type));
 		}
 		return ol;
 	}
 	
+	/**
+	 * Bind an already parsed lucene row doc to the given type. The map is walked directly by the mapper, so there is
+	 * no intermediate JSON string or JSONObject per row.
+	 */
+	static <T> T asObject(Map<String, Object> doc, Class<T> type) throws IOException {
+		try {
+			return OBJECT_MAPPER.convertValue(doc, type);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(e);
+		}
+	}
 
 }
@@ -22,6 +22,7 @@ import org.springframework.stereotype.Component;
 import com.github.ldriscoll.ektorplucene.CouchDbRepositorySupportWithLucene;
 import com.github.ldriscoll.ektorplucene.LuceneQuery;
 import com.github.ldriscoll.ektorplucene.LuceneResult;
+import com.github.ldriscoll.ektorplucene.LuceneResult.Row;
 import com.github.ldriscoll.ektorplucene.designdocument.annotation.FullText;
 import com.github.ldriscoll.ektorplucene.designdocument.annotation.Index;
 import com.mysql.jdbc.StringUtils;
@@ -101,6 +102,46 @@ public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Ev
 	 */
 	public List<Event> getByCriteria(String team, String providerId, String locationId, String baseEntityId,
 	                                 Long serverVersion, String sortBy, String sortOrder, int limit) {
+		LuceneQuery query = createSyncQuery(team, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder,
+		    limit);
+		query.setIncludeDocs(true);
+
+		try {
+			LuceneResult result = db.queryLucene(query);
+			return ldb.asList(result, Event.class);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Same criteria as {@link #getByCriteria(String, String, String, String, Long, String, String, int)} but only
+	 * the document ids are fetched, in sort order, so that the documents themselves can be streamed from CouchDB.
+	 * 
+	 * @return ids of the matching event documents
+	 */
+	public List<String> getIdsByCriteria(String team, String providerId, String locationId, String baseEntityId,
+	                                     Long serverVersion, String sortBy, String sortOrder, int limit) {
+		LuceneQuery query = createSyncQuery(team, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder,
+		    limit);
+		query.setIncludeDocs(false);
+
+		try {
+			LuceneResult result = db.queryLucene(query);
+			List<String> ids = new ArrayList<String>();
+			for (Row r : result.getRows()) {
+				ids.add(r.getId());
+			}
+			return ids;
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private LuceneQuery createSyncQuery(String team, String providerId, String locationId, String baseEntityId,
+	                                    Long serverVersion, String sortBy, String sortOrder, int limit) {
 		// create a simple query against the view/search function that we've created
 		LuceneQuery query = new LuceneQuery("Event", "by_all_criteria_v2");
 
@@ -146,17 +187,9 @@ public class LuceneEventRepository extends CouchDbRepositorySupportWithLucene<Ev
 		query.setQuery(qf.query());
 		// stale must not be ok, as we've only just loaded the docs
 		query.setStaleOk(false);
-		query.setIncludeDocs(true);
 		query.setLimit(limit);
 		query.setSort((sortOrder.toLowerCase().contains("desc") ? "\\" : "/") + sortBy);
-
-		try {
-			LuceneResult result = db.queryLucene(query);
-			return ldb.asList(result, Event.class);
-		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		return query;
 	}
 
 	public List<Event> getByCriteria(String query) {
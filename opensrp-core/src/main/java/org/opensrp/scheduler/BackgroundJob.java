@@ -0,0 +1,193 @@
+package org.opensrp.scheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.motechproject.scheduler.domain.MotechEvent;
+import org.opensrp.common.monitor.Counter;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.MetricsRegistry;
+import org.opensrp.common.monitor.Probe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a scheduled listener's work on a thread of its own, so a slow run of one job holds up neither the thread that
+ * delivered the schedule event nor any other job. Only one run of a job is ever in flight; what happens to a trigger
+ * that arrives during a run is up to its {@link Overlap}.
+ * <p>
+ * Every run records how long it waited after its trigger in the lag metric and how long it took in the run metric.
+ * Skipped and coalesced triggers and failed runs are counted under "jobs.&lt;name&gt;.*".
+ */
+public class BackgroundJob {
+
+	private static Logger logger = LoggerFactory.getLogger(BackgroundJob.class.toString());
+
+	public enum Overlap {
+		/**
+		 * Drop the trigger, the next scheduled one picks the work up
+		 */
+		SKIP,
+		/**
+		 * Run once more when the current run finishes, however many triggers arrived meanwhile
+		 */
+		COALESCE
+	}
+
+	/**
+	 * The work of a job, handed the schedule event of the trigger it runs for
+	 */
+	public interface Task {
+
+		void run(MotechEvent event);
+	}
+
+	private final String name;
+
+	private final Overlap overlap;
+
+	private final Metric lagMetric;
+
+	private final Metric runMetric;
+
+	private final Task task;
+
+	private final Counter skipped;
+
+	private final Counter coalesced;
+
+	private final Counter failed;
+
+	private ExecutorService executor;
+
+	private boolean running;
+
+	private boolean pending;
+
+	private MotechEvent pendingEvent;
+
+	private long pendingSince;
+
+	public BackgroundJob(String name, Overlap overlap, Metric lagMetric, Metric runMetric, Task task) {
+		this.name = name;
+		this.overlap = overlap;
+		this.lagMetric = lagMetric;
+		this.runMetric = runMetric;
+		this.task = task;
+		MetricsRegistry registry = MetricsRegistry.getDefault();
+		this.skipped = registry.counter("jobs." + name + ".skipped");
+		this.coalesced = registry.counter("jobs." + name + ".coalesced");
+		this.failed = registry.counter("jobs." + name + ".failed");
+	}
+
+	/**
+	 * Start a run for the event, or deal with it as the job's {@link Overlap} says if a run is in flight
+	 *
+	 * @param event
+	 * @return false if the trigger was dropped
+	 */
+	public boolean trigger(MotechEvent event) {
+		long now = System.nanoTime();
+		synchronized (this) {
+			if (running) {
+				if (overlap == Overlap.SKIP) {
+					skipped.increment();
+					logger.info("Skipping " + name + ", the previous run is still in progress");
+					return false;
+				}
+				if (pending) {
+					coalesced.increment();
+				} else {
+					pending = true;
+					pendingSince = now;
+				}
+				pendingEvent = event;
+				return true;
+			}
+			try {
+				executor().execute(new Run(event, now));
+			}
+			catch (RejectedExecutionException e) {
+				logger.warn("Not running " + name + ", the job has been shut down");
+				return false;
+			}
+			running = true;
+		}
+		return true;
+	}
+
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	private ExecutorService executor() {
+		if (executor == null) {
+			// the running flag lets no more than one run wait for the thread, the queue bound only makes that explicit
+			executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(1),
+			        new ThreadFactory() {
+
+				        @Override
+				        public Thread newThread(Runnable runnable) {
+					        Thread thread = new Thread(runnable, "job-" + name);
+					        thread.setDaemon(true);
+					        return thread;
+				        }
+			        });
+		}
+		return executor;
+	}
+
+	private class Run implements Runnable {
+
+		private MotechEvent event;
+
+		private long triggeredAt;
+
+		Run(MotechEvent event, long triggeredAt) {
+			this.event = event;
+			this.triggeredAt = triggeredAt;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				MetricsRegistry.getDefault().record(lagMetric, System.nanoTime() - triggeredAt);
+				Probe probe = new Probe(runMetric);
+				try {
+					task.run(event);
+				}
+				catch (Throwable e) {
+					failed.increment();
+					logger.error("Run of " + name + " failed", e);
+				}
+				finally {
+					probe.stop();
+				}
+				synchronized (BackgroundJob.this) {
+					if (!pending) {
+						running = false;
+						return;
+					}
+					event = pendingEvent;
+					triggeredAt = pendingSince;
+					pending = false;
+					pendingEvent = null;
+				}
+			}
+		}
+	}
+}
@@ -3,6 +3,8 @@ package org.opensrp.scheduler.repository;
 import org.ektorp.BulkDeleteDocument;
 import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
+import org.ektorp.DocumentOperationResult;
 import org.ektorp.support.GenerateView;
 import org.ektorp.support.View;
 import org.joda.time.DateTime;
@@ -10,6 +12,7 @@ import org.motechproject.dao.MotechBaseRepository;
 import org.opensrp.common.AllConstants;
 import org.opensrp.repository.lucene.LuceneActionRepository;
 import org.opensrp.scheduler.Action;
+import org.opensrp.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,11 +21,20 @@ import org.springframework.stereotype.Repository;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class AllActions extends MotechBaseRepository<Action> {
     private static Logger logger = LoggerFactory.getLogger(AllActions.class.toString());
+    /**
+     * alerts upserted per view query and _bulk_docs request
+     */
+    static final int ALERT_BATCH_SIZE = 500;
     LuceneActionRepository luceneActionRepo;
     @Autowired
     protected AllActions(@Qualifier(AllConstants.OPENSRP_DATABASE_CONNECTOR) CouchDbConnector db, LuceneActionRepository _luceneActionRepo) {
@@ -91,16 +103,127 @@ public class AllActions extends MotechBaseRepository<Action> {
         db.executeBulk(deleteDocuments);
     }
 
+    /**
+     * @throws DbAccessException when the alert could not be saved
+     */
     public void addOrUpdateAlert(Action alertAction) {
-        List<Action> existingAlerts = findAlertByANMIdEntityIdScheduleName(alertAction.providerId(), alertAction.baseEntityId(), alertAction.data().get("scheduleName"));
-        if (existingAlerts.size() > 1) {
-            logger.warn(MessageFormat.format("Found more than one alert for the combination of providerId: {0}, entityId: {1} and scheduleName : {2}. Alerts : {3}",
-                    alertAction.providerId(), alertAction.baseEntityId(), alertAction.data().get("scheduleName"), existingAlerts));
+        for (DocumentOperationResult failure : addOrUpdateAlerts(Collections.singletonList(alertAction))) {
+            if (failure.getId().equals(alertAction.getId())) {
+                throw new DbAccessException(describe(failure));
+            }
+            // the alert was saved but an older duplicate could not be removed, the next upsert tries again
+            logger.warn("Could not delete duplicate alert " + describe(failure));
         }
-        for (Action existingAlert : existingAlerts) {
-            safeRemove(existingAlert);
+    }
+
+    /**
+     * Save alerts, replacing the existing alert of the same provider, entity and schedule in place. Existing alerts
+     * are resolved with one multi-key query on the action_by_provider_entityId_scheduleName view and the alerts are
+     * written with one _bulk_docs request, per {@link #ALERT_BATCH_SIZE} alerts. Any further alerts found for the
+     * same combination are deleted in the same request. When the combination occurs more than once in the list the
+     * last occurrence is saved, as it would be when saving one at a time. Alerts rejected with an update conflict,
+     * because another writer changed them after the query, are resolved and written once more.
+     *
+     * @param alertActions
+     * @return the operations that still failed, for alerts or for the duplicates to delete
+     */
+    public List<DocumentOperationResult> addOrUpdateAlerts(List<Action> alertActions) {
+        List<DocumentOperationResult> failures = new ArrayList<>();
+        for (int from = 0; from < alertActions.size(); from += ALERT_BATCH_SIZE) {
+            List<Action> batch = alertActions.subList(from, Math.min(from + ALERT_BATCH_SIZE, alertActions.size()));
+            List<Action> conflicted = new ArrayList<>();
+            for (DocumentOperationResult failure : upsertAlerts(batch)) {
+                Action alertAction = savedAlert(batch, failure.getId());
+                if (alertAction != null && "conflict".equals(failure.getError())) {
+                    conflicted.add(alertAction);
+                } else {
+                    failures.add(failure);
+                }
+            }
+            if (!conflicted.isEmpty()) {
+                failures.addAll(upsertAlerts(conflicted));
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return the last alert in the batch with the given id, which is the one that was written
+     */
+    private static Action savedAlert(List<Action> batch, String id) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (id.equals(batch.get(i).getId())) {
+                return batch.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static String describe(DocumentOperationResult failure) {
+        return failure.getId() + ": " + failure.getError() + " (" + failure.getReason() + ")";
+    }
+
+    private List<DocumentOperationResult> upsertAlerts(List<Action> alertActions) {
+        List<Object> documents = new ArrayList<>();
+        Map<List<String>, Action> latest = new LinkedHashMap<>();
+        for (Action alertAction : alertActions) {
+            List<String> key = alertKey(alertAction);
+            if (key.contains(null)) {
+                // the view has no entry for such alerts so none would ever be found to replace
+                documents.add(withId(alertAction));
+            } else {
+                latest.remove(key);
+                latest.put(key, alertAction);
+            }
+        }
+
+        if (!latest.isEmpty()) {
+            List<ComplexKey> keys = new ArrayList<>();
+            for (List<String> key : latest.keySet()) {
+                keys.add(ComplexKey.of(key.toArray()));
+            }
+            Map<List<String>, List<Action>> existing = new HashMap<>();
+            for (Action existingAlert : db.queryView(createQuery("action_by_provider_entityId_scheduleName").keys(keys).includeDocs(true), Action.class)) {
+                List<String> key = alertKey(existingAlert);
+                if (!existing.containsKey(key)) {
+                    existing.put(key, new ArrayList<Action>());
+                }
+                existing.get(key).add(existingAlert);
+            }
+
+            for (Map.Entry<List<String>, Action> entry : latest.entrySet()) {
+                Action alertAction = entry.getValue();
+                List<Action> existingAlerts = existing.get(entry.getKey());
+                if (existingAlerts == null) {
+                    documents.add(withId(alertAction));
+                    continue;
+                }
+                if (existingAlerts.size() > 1) {
+                    logger.warn(MessageFormat.format("Found more than one alert for the combination of providerId: {0}, entityId: {1} and scheduleName : {2}. Alerts : {3}",
+                            alertAction.providerId(), alertAction.baseEntityId(), alertAction.data().get("scheduleName"), existingAlerts));
+                }
+                Action replaced = existingAlerts.get(0);
+                alertAction.setId(replaced.getId());
+                alertAction.setRevision(replaced.getRevision());
+                documents.add(alertAction);
+                for (Action duplicate : existingAlerts.subList(1, existingAlerts.size())) {
+                    documents.add(BulkDeleteDocument.of(duplicate));
+                }
+            }
+        }
+        return documents.isEmpty() ? Collections.<DocumentOperationResult> emptyList() : db.executeBulk(documents);
+    }
+
+    private static List<String> alertKey(Action alertAction) {
+        Map<String, String> data = alertAction.data();
+        return Arrays.asList(alertAction.providerId(), alertAction.baseEntityId(), data == null ? null : data.get("scheduleName"));
+    }
+
+    private static Action withId(Action alertAction) {
+        if (alertAction.getId() == null) {
+            alertAction.setId(Utils.generateDocumentId());
         }
-        add(alertAction);
+        return alertAction;
     }
 
     public void markAlertAsInactiveFor(String providerId, String baseEntityId, String scheduleName) {
@@ -1,5 +1,7 @@
 package org.opensrp.scheduler.service;
 
+import org.ektorp.DbAccessException;
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.opensrp.dto.ActionData;
 import org.opensrp.dto.AlertStatus;
@@ -59,6 +61,20 @@ public class ActionService {
     	allActions.addOrUpdateAlert(action);
     }
 
+    /**
+     * @throws DbAccessException listing the alerts and duplicates that could not be written
+     */
+    public void alertForBeneficiaries(List<Action> actions) {
+        List<DocumentOperationResult> failures = allActions.addOrUpdateAlerts(actions);
+        if (!failures.isEmpty()) {
+            StringBuilder message = new StringBuilder("Could not save alerts:");
+            for (DocumentOperationResult failure : failures) {
+                message.append(' ').append(failure.getId()).append(": ").append(failure.getError());
+            }
+            throw new DbAccessException(message.toString());
+        }
+    }
+
     public void markAllAlertsAsInactive(String entityId) {
         allActions.markAllAsInActiveFor(entityId);
         allAlerts.markAllAsClosedFor(entityId, "unenrolled from schedule");
@@ -1,29 +1,179 @@
 package org.opensrp.scheduler.service;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.ektorp.CouchDbConnector;
 import org.ektorp.support.View;
+import org.motechproject.scheduletracking.api.domain.Schedule;
 import org.motechproject.scheduletracking.api.domain.ScheduleFactory;
 import org.motechproject.scheduletracking.api.domain.json.ScheduleRecord;
 import org.motechproject.scheduletracking.api.repository.AllSchedules;
 import org.motechproject.scheduletracking.api.repository.TrackedSchedulesJsonReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+/**
+ * Serves schedule records from memory. All schedule records are loaded at startup and again every
+ * {@code schedule.definitions.refresh.minutes}; a record missing from memory, e.g. one added since the last refresh, is
+ * fetched on its own and added. Records saved or removed through this repository drop the loaded records so the next
+ * lookup reloads them, and a refresh that was already running when they were dropped is discarded.
+ * <p>
+ * Only the records are shared. Each {@link #getByName(String)} builds its own {@link Schedule}, as motech's schedules
+ * and milestones are not meant to be shared between threads.
+ */
 @Repository
 public class AllScheduleWrapper extends AllSchedules{
+	private static final Logger logger = LoggerFactory.getLogger(AllScheduleWrapper.class.toString());
+
+	static final long DEFAULT_REFRESH_MINUTES = 60;
+
+	@Value("#{opensrp['schedule.definitions.refresh.minutes']}")
+	long refreshMinutes = DEFAULT_REFRESH_MINUTES;
+
+	private final ScheduleFactory scheduleFactory;
+
+	private volatile Map<String, ScheduleRecord> records;
+
+	/**
+	 * Moved on by every write, so that a refresh can tell the records it loaded have been outdated since it started
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private ScheduledExecutorService refresher;
+
 	@Autowired
 	public AllScheduleWrapper(@Qualifier("scheduleTrackingDbConnector") CouchDbConnector db, TrackedSchedulesJsonReader trackedSchedulesJsonReader, ScheduleFactory scheduleFactory) {
 		super(db, trackedSchedulesJsonReader, scheduleFactory);
+		this.scheduleFactory = scheduleFactory;
+	}
+
+	/**
+	 * Loads the definitions in the background right away and again every refreshMinutes
+	 */
+	@PostConstruct
+	public void scheduleRefresh() {
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "schedule-definitions-refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		refresher.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					refreshDefinitions();
+				}
+				catch (Exception e) {
+					logger.error("Could not refresh schedule definitions, keeping the previous ones", e);
+				}
+			}
+		}, 0, TimeUnit.MINUTES.toMillis(refreshMinutes > 0 ? refreshMinutes : DEFAULT_REFRESH_MINUTES),
+		    TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+		}
+	}
+
+	/**
+	 * Load all schedule records and replace the records in memory with them, unless a record was written meanwhile
+	 *
+	 * @return the records loaded
+	 */
+	public Map<String, ScheduleRecord> refreshDefinitions() {
+		long started = generation.get();
+		Map<String, ScheduleRecord> loaded = new ConcurrentHashMap<>();
+		for (ScheduleRecord record : db.queryView(createQuery("by_schedule_name").includeDocs(true), ScheduleRecord.class)) {
+			loaded.put(record.name(), record);
+		}
+		synchronized (generation) {
+			if (generation.get() == started) {
+				records = loaded;
+				logger.info("Loaded " + loaded.size() + " schedule definitions");
+			}
+		}
+		return loaded;
 	}
 
-    @View(name = "by_schedule_name", map = "function(doc) { if(doc.type === 'ScheduleRecord') emit(doc.name); }")
+	@Override
+	public Schedule getByName(String name) {
+		ScheduleRecord record = getRecordByName(name);
+		return record == null ? null : scheduleFactory.build(record, Locale.getDefault());
+	}
+
+	/**
+	 * @param name
+	 * @return the record from memory, fetched from the database if it is not there; null if there is no schedule by
+	 *         the name
+	 */
+	@View(name = "by_schedule_name", map = "function(doc) { if(doc.type === 'ScheduleRecord') emit(doc.name); }")
 	public ScheduleRecord getRecordByName(String name) {
-		List<ScheduleRecord> records = queryView("by_schedule_name", name);
-        if (records.isEmpty())
-            return null;
-        return records.get(0);
+		Map<String, ScheduleRecord> current = records;
+		if (current == null) {
+			synchronized (this) {
+				current = records;
+				if (current == null) {
+					current = refreshDefinitions();
+				}
+			}
+		}
+		ScheduleRecord record = current.get(name);
+		if (record == null) {
+			List<ScheduleRecord> found = queryView("by_schedule_name", name);
+			if (found.isEmpty()) {
+				return null;
+			}
+			record = found.get(0);
+			current.put(name, record);
+		}
+		return record;
+	}
+
+	@Override
+	public void add(ScheduleRecord record) {
+		super.add(record);
+		invalidate();
+	}
+
+	@Override
+	public void update(ScheduleRecord record) {
+		super.update(record);
+		invalidate();
+	}
+
+	@Override
+	public void remove(ScheduleRecord record) {
+		super.remove(record);
+		invalidate();
+	}
+
+	private void invalidate() {
+		synchronized (generation) {
+			generation.incrementAndGet();
+			records = null;
+		}
 	}
 }
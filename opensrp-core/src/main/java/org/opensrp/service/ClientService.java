@@ -1,17 +1,29 @@
 package org.opensrp.service;
 
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.opensrp.common.util.ServerVersionPager;
 import org.opensrp.domain.Address;
 import org.opensrp.domain.Client;
 import org.opensrp.repository.AllClients;
 import org.opensrp.util.DateTimeTypeConverter;
+import org.opensrp.util.Utils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -23,9 +35,12 @@ public class ClientService {
 
 	private final AllClients allClients;
 
+	private final ServerVersionAllocator serverVersionAllocator;
+
 	@Autowired
-	public ClientService(AllClients allClients) {
+	public ClientService(AllClients allClients, ServerVersionAllocator serverVersionAllocator) {
 		this.allClients = allClients;
+		this.serverVersionAllocator = serverVersionAllocator;
 	}
 
 	public Client getByBaseEntityId(String baseEntityId) {
@@ -268,6 +283,13 @@ public class ClientService {
 		return allClients.findByServerVersion(serverVersion);
 	}
 
+	/**
+	 * Lazily iterate over all clients with a greater serverVersion, a page at a time
+	 */
+	public Iterable<Client> iterateByServerVersion(long serverVersion) {
+		return allClients.iterateByServerVersion(serverVersion, ServerVersionPager.DEFAULT_PAGE_SIZE);
+	}
+
 	public List<Client> findByFieldValue(String field, List<String> ids) {
 		return allClients.findByFieldValue(field, ids);
 	}
@@ -276,6 +298,10 @@ public class ClientService {
 		return allClients.findByRelationShip(id);
 	}
 
+	public InputStream streamByBaseEntityIds(Collection<String> baseEntityIds) {
+		return allClients.streamByBaseEntityIds(baseEntityIds);
+	}
+
 	public Client addorUpdate(Client client) {
 		return addorUpdate(client, true);
 	}
@@ -290,7 +316,7 @@ public class ClientService {
 			client.setId(c.getId());
 			client.setDateEdited(DateTime.now());
 			if (resetServerVersion) {
-				client.setServerVersion(System.currentTimeMillis());
+				client.setServerVersion(serverVersionAllocator.next());
 			}
 			allClients.update(client);
 
@@ -301,4 +327,126 @@ public class ClientService {
 		}
 		return client;
 	}
+
+	/**
+	 * Batch version of {@link #addorUpdate(Client)}. Existing clients are resolved with multi-key view lookups, first
+	 * by baseEntityId and then by identifiers, and the whole batch is written with a single _bulk_docs request. When
+	 * the same baseEntityId occurs more than once the last occurrence is saved, as it would be when saving one at a
+	 * time.
+	 *
+	 * @param clients
+	 * @return one status per client, in the order given
+	 */
+	public List<RecordStatus> addorUpdate(List<Client> clients) {
+		RecordStatus[] statuses = new RecordStatus[clients.size()];
+		Map<String, Integer> latest = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < clients.size(); i++) {
+			Client client = clients.get(i);
+			if (client.getBaseEntityId() == null) {
+				statuses[i] = RecordStatus.failed(null, client.getId(), "No baseEntityId");
+			} else {
+				latest.put(client.getBaseEntityId(), i);
+			}
+		}
+		if (latest.isEmpty()) {
+			return Arrays.asList(statuses);
+		}
+
+		Map<String, Client> existing = new HashMap<String, Client>();
+		for (Client c : allClients.findByBaseEntityIds(latest.keySet())) {
+			if (!existing.containsKey(c.getBaseEntityId())) {
+				existing.put(c.getBaseEntityId(), c);
+			}
+		}
+
+		Set<String> identifiers = new HashSet<String>();
+		for (Entry<String, Integer> e : latest.entrySet()) {
+			if (!existing.containsKey(e.getKey())) {
+				identifiers.addAll(clients.get(e.getValue()).getIdentifiers().values());
+			}
+		}
+		Map<String, Map<String, Client>> byIdentifier = new HashMap<String, Map<String, Client>>();
+		if (!identifiers.isEmpty()) {
+			for (Client c : allClients.findAllByIdentifiers(identifiers)) {
+				for (String identifier : c.getIdentifiers().values()) {
+					if (identifiers.contains(identifier)) {
+						if (!byIdentifier.containsKey(identifier)) {
+							byIdentifier.put(identifier, new LinkedHashMap<String, Client>());
+						}
+						byIdentifier.get(identifier).put(c.getId(), c);
+					}
+				}
+			}
+		}
+
+		List<Client> toSave = new ArrayList<Client>();
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		Map<Integer, RecordStatus.Status> outcomes = new HashMap<Integer, RecordStatus.Status>();
+		for (Entry<String, Integer> e : latest.entrySet()) {
+			int i = e.getValue();
+			Client client = clients.get(i);
+			Client c = existing.get(e.getKey());
+			if (c == null) {
+				try {
+					c = findClientByIdentifiers(client, byIdentifier);
+				}
+				catch (IllegalArgumentException ex) {
+					statuses[i] = RecordStatus.failed(client.getBaseEntityId(), client.getId(), ex.getMessage());
+					continue;
+				}
+			}
+			if (c != null) {
+				client.setRevision(c.getRevision());
+				client.setId(c.getId());
+				client.setDateEdited(DateTime.now());
+				client.setServerVersion(serverVersionAllocator.next());
+				outcomes.put(i, RecordStatus.Status.UPDATED);
+			} else {
+				client.setDateCreated(DateTime.now());
+				if (client.getId() == null) {
+					client.setId(Utils.generateDocumentId());
+				}
+				outcomes.put(i, RecordStatus.Status.CREATED);
+			}
+			positions.put(client.getId(), i);
+			toSave.add(client);
+		}
+
+		if (!toSave.isEmpty()) {
+			for (DocumentOperationResult failure : allClients.saveAll(toSave)) {
+				Integer i = positions.get(failure.getId());
+				if (i != null) {
+					outcomes.remove(i);
+					statuses[i] = RecordStatus.failed(clients.get(i).getBaseEntityId(), failure.getId(),
+					    failure.getError() + ": " + failure.getReason());
+				}
+			}
+		}
+		for (Entry<Integer, RecordStatus.Status> o : outcomes.entrySet()) {
+			Client client = clients.get(o.getKey());
+			statuses[o.getKey()] = new RecordStatus(client.getBaseEntityId(), client.getId(), o.getValue(), null);
+		}
+		// earlier duplicates share the outcome of the occurrence that was saved
+		for (int i = 0; i < statuses.length; i++) {
+			if (statuses[i] == null) {
+				statuses[i] = statuses[latest.get(clients.get(i).getBaseEntityId())];
+			}
+		}
+		return Arrays.asList(statuses);
+	}
+
+	private Client findClientByIdentifiers(Client client, Map<String, Map<String, Client>> byIdentifier) {
+		for (String idt : client.getIdentifiers().keySet()) {
+			Map<String, Client> cl = byIdentifier.get(client.getIdentifier(idt));
+			if (cl == null || cl.isEmpty()) {
+				continue;
+			}
+			if (cl.size() > 1) {
+				throw new IllegalArgumentException(
+						"Multiple clients with identifier type " + idt + " and ID " + client.getIdentifier(idt) + " exist.");
+			}
+			return cl.values().iterator().next();
+		}
+		return null;
+	}
 }
@@ -1,33 +1,105 @@
 package org.opensrp.service;
 
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.UpdateConflictException;
 import org.opensrp.domain.AppStateToken;
 import org.opensrp.repository.AllAppStateTokens;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.mysql.jdbc.StringUtils;
 
+/**
+ * Keeps the AppStateTokens of the default database in memory. Reads are served from the cache and updates are
+ * written behind: a changed token is saved once flushUpdates updates have piled up, every flushIntervalMillis, on
+ * {@link #flushAppStateTokens()} and on shutdown. Updates that must not be lost, e.g. reservations, are saved at once
+ * with {@link #updateAppStateToken(Enum, Object, boolean)}. Tokens of other databases are not cached.
+ */
 @Service
 public class ConfigService {
 
+	private static Logger logger = LoggerFactory.getLogger(ConfigService.class.toString());
+
 	private final AllAppStateTokens allAppStateTokens;
 
-	@Autowired
+	private final int flushUpdates;
+
+	private final Map<String, AppStateToken> tokens = new HashMap<String, AppStateToken>();
+
+	private final Set<String> dirty = new LinkedHashSet<String>();
+
+	private int pendingUpdates;
+
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * Write-through configuration: every update is saved at once.
+	 */
 	public ConfigService(AllAppStateTokens allAppStateTokens) {
+		this(allAppStateTokens, 1, 0);
+	}
+
+	@Autowired
+	public ConfigService(AllAppStateTokens allAppStateTokens,
+	    @Value("#{opensrp['app.state.token.flush.updates']}") int flushUpdates,
+	    @Value("#{opensrp['app.state.token.flush.interval.millis']}") long flushIntervalMillis) {
 		this.allAppStateTokens = allAppStateTokens;
+		this.flushUpdates = flushUpdates > 0 ? flushUpdates : 1;
+		if (flushIntervalMillis > 0) {
+			flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "app-state-token-flusher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			flusher.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						flushAppStateTokens();
+					}
+					catch (Exception e) {
+						logger.error("Failed to flush app state tokens", e);
+					}
+				}
+			}, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	/**
 	 * @param tokenName
 	 * @return AppStateToken with given name. Since model is supposed to keep track of system`s state at any given time it throws IllegalStateException incase multiple Tokens found with same name.
 	 */
-	public AppStateToken getAppStateTokenByName(Enum<?> tokenName) {
-		List<AppStateToken> ol = allAppStateTokens.findByName(tokenName.name());
-		return getUniqueAppStateTokeFromTokenList(ol, tokenName);
+	public synchronized AppStateToken getAppStateTokenByName(Enum<?> tokenName) {
+		AppStateToken token = tokens.get(tokenName.name());
+		if (token == null) {
+			List<AppStateToken> ol = allAppStateTokens.findByName(tokenName.name());
+			token = getUniqueAppStateTokeFromTokenList(ol, tokenName);
+			if (token != null) {
+				tokens.put(tokenName.name(), token);
+			}
+		}
+		return token;
 	}
 
 	/**
@@ -42,10 +114,113 @@ public class ConfigService {
 		return getUniqueAppStateTokeFromTokenList(ol, tokenName);
 	}
 
+	/**
+	 * Update the token in memory; it is saved with the next flush.
+	 */
 	public void updateAppStateToken(Enum<?> tokenName, Object value) {
-		List<AppStateToken> ol = allAppStateTokens.findByName(tokenName.name());
-		AppStateToken ast = updateUniqueAppStateToken(ol, tokenName, value);
-		allAppStateTokens.update(ast);
+		updateAppStateToken(tokenName, value, false);
+	}
+
+	/**
+	 * @param tokenName
+	 * @param value
+	 * @param flush save the token before returning instead of leaving it to the next flush
+	 */
+	public synchronized void updateAppStateToken(Enum<?> tokenName, Object value, boolean flush) {
+		AppStateToken ast = tokens.get(tokenName.name());
+		if (ast == null) {
+			List<AppStateToken> ol = allAppStateTokens.findByName(tokenName.name());
+			ast = updateUniqueAppStateToken(ol, tokenName, value);
+			tokens.put(tokenName.name(), ast);
+		} else {
+			ast.setValue(value);
+			ast.setLastEditDate(System.currentTimeMillis());
+		}
+		dirty.add(tokenName.name());
+		pendingUpdates++;
+		if (flush) {
+			save(ast);
+		}
+		if (pendingUpdates >= flushUpdates) {
+			flushAppStateTokens();
+		}
+	}
+
+	/**
+	 * Save every token updated since the last flush.
+	 */
+	public synchronized void flushAppStateTokens() {
+		for (String name : dirty.toArray(new String[dirty.size()])) {
+			save(tokens.get(name));
+		}
+		pendingUpdates = 0;
+	}
+
+	/**
+	 * Flush pending updates and drop the cached tokens so that the next read goes to the database.
+	 */
+	public synchronized void clearAppStateTokenCache() {
+		flushAppStateTokens();
+		tokens.clear();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (flusher != null) {
+			flusher.shutdown();
+		}
+		flushAppStateTokens();
+	}
+
+	private void save(AppStateToken token) {
+		try {
+			allAppStateTokens.update(token);
+		}
+		catch (UpdateConflictException e) {
+			// someone else saved the token meanwhile; keep whichever value is further along
+			List<AppStateToken> ol = allAppStateTokens.findByName(token.getName());
+			if (ol.isEmpty()) {
+				throw e;
+			}
+			AppStateToken stored = ol.get(0);
+			if (isAhead(stored, token)) {
+				logger.warn("App state token " + token.getName() + " was moved to " + stored.getValue()
+				        + " meanwhile, dropping the cached value " + token.getValue());
+				token.setValue(stored.getValue());
+				token.setLastEditDate(stored.getLastEditDate());
+				token.setRevision(stored.getRevision());
+			} else {
+				// a second conflict is thrown to the caller
+				token.setRevision(stored.getRevision());
+				allAppStateTokens.update(token);
+			}
+		}
+		dirty.remove(token.getName());
+	}
+
+	/**
+	 * Numeric tokens, e.g. the last processed server version, only move forward, so the larger value is ahead. Other
+	 * tokens are compared by the time they were last edited.
+	 */
+	private static boolean isAhead(AppStateToken stored, AppStateToken cached) {
+		Long storedNumber = numberOf(stored);
+		Long cachedNumber = numberOf(cached);
+		if (storedNumber != null && cachedNumber != null) {
+			return storedNumber > cachedNumber;
+		}
+		return stored.getLastEditDate() > cached.getLastEditDate();
+	}
+
+	private static Long numberOf(AppStateToken token) {
+		if (token.getValue() == null) {
+			return null;
+		}
+		try {
+			return token.longValue();
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
 	}
 
 	public void updateAppStateToken(CouchDbConnector db, Enum<?> tokenName, Object value) {
@@ -65,21 +240,27 @@ public class ConfigService {
 	 * @param suppressExceptionIfExists
 	 * @return The newly registered token.
 	 */
-	public AppStateToken registerAppStateToken(Enum<?> tokenName, Object defaultValue, String description,
-	                                           boolean suppressExceptionIfExists) {
+	public synchronized AppStateToken registerAppStateToken(Enum<?> tokenName, Object defaultValue,
+	                                                        String description, boolean suppressExceptionIfExists) {
 
 		checkIfNameAndDescriptionExist(tokenName, description);
 
+		if (suppressExceptionIfExists && tokens.containsKey(tokenName.name())) {
+			return tokens.get(tokenName.name());
+		}
+
 		List<AppStateToken> atl = allAppStateTokens.findByName(tokenName.name());
 
 		AppStateToken existingAppStateToken = checkIfTokenAlreadyExist(atl, tokenName, suppressExceptionIfExists);
 
 		if (existingAppStateToken != null) {
+			tokens.put(tokenName.name(), existingAppStateToken);
 			return existingAppStateToken;
 		}
 
 		AppStateToken token = new AppStateToken(tokenName.name(), defaultValue, 0L, description);
 		allAppStateTokens.add(token);
+		tokens.put(tokenName.name(), token);
 		return token;
 	}
 
@@ -1,20 +1,31 @@
 package org.opensrp.service;
 
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.opensrp.common.AllConstants.Client;
+import org.opensrp.common.util.ServerVersionPager;
+import org.opensrp.common.util.StripedLock;
 import org.opensrp.domain.Event;
 import org.opensrp.domain.Obs;
 import org.opensrp.repository.AllEvents;
 import org.opensrp.util.DateTimeTypeConverter;
+import org.opensrp.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,8 +37,17 @@ import com.google.gson.GsonBuilder;
 @Service
 public class EventService {
 
+	private static final int LOCK_STRIPES = 1024;
+
+	/**
+	 * Batches are locked and saved this many events at a time so that a large sync does not hold most of the stripes
+	 */
+	static final int LOCK_BATCH_SIZE = 50;
+
 	private final AllEvents allEvents;
 
+	private final StripedLock eventLocks = new StripedLock(LOCK_STRIPES);
+
 	private ClientService clientService;
 
 	@Autowired
@@ -133,22 +153,28 @@ public class EventService {
 		return null;
 	}
 
-	public synchronized Event addEvent(Event event) {
-		Event e = find(event);
-		if (e != null) {
-			throw new IllegalArgumentException(
-					"An event already exists with given list of identifiers. Consider updating data.[" + e + "]");
-		}
+	public Event addEvent(Event event) {
+		List<ReentrantLock> locks = lock(event);
+		try {
+			Event e = find(event);
+			if (e != null) {
+				throw new IllegalArgumentException(
+						"An event already exists with given list of identifiers. Consider updating data.[" + e + "]");
+			}
 
-		if (event.getFormSubmissionId() != null
-				&& getByBaseEntityAndFormSubmissionId(event.getBaseEntityId(), event.getFormSubmissionId()) != null) {
-			throw new IllegalArgumentException(
-					"An event already exists with given baseEntity and formSubmission combination. Consider updating");
-		}
+			if (event.getFormSubmissionId() != null
+					&& getByBaseEntityAndFormSubmissionId(event.getBaseEntityId(), event.getFormSubmissionId()) != null) {
+				throw new IllegalArgumentException(
+						"An event already exists with given baseEntity and formSubmission combination. Consider updating");
+			}
 
-		event.setDateCreated(DateTime.now());
-		allEvents.add(event);
-		return event;
+			event.setDateCreated(DateTime.now());
+			allEvents.add(event);
+			return event;
+		}
+		finally {
+			eventLocks.unlockAll(locks);
+		}
 	}
 
 	/**
@@ -160,7 +186,7 @@ public class EventService {
 	 * @param event
 	 * @return
 	 */
-	public synchronized Event processOutOfArea(Event event) {
+	public Event processOutOfArea(Event event) {
 		if (event.getBaseEntityId() == null || event.getBaseEntityId().isEmpty()) {
 
 			//get events identifiers;
@@ -193,39 +219,128 @@ public class EventService {
 		return event;
 	}
 
-	public synchronized Event addEvent(CouchDbConnector targetDb, Event event) {
+	public Event addEvent(CouchDbConnector targetDb, Event event) {
 		//		Event e = find(targetDb,event);
 		//		if(e != null){
 		//			throw new IllegalArgumentException("An event already exists with given list of identifiers. Consider updating data.["+e+"]");
 		//		}
-		if (event.getFormSubmissionId() != null
-				&& getByBaseEntityAndFormSubmissionId(targetDb, event.getBaseEntityId(), event.getFormSubmissionId())
-				!= null) {
-			throw new IllegalArgumentException(
-					"An event already exists with given baseEntity and formSubmission combination. Consider updating");
+		List<ReentrantLock> locks = lock(event);
+		try {
+			if (event.getFormSubmissionId() != null
+					&& getByBaseEntityAndFormSubmissionId(targetDb, event.getBaseEntityId(), event.getFormSubmissionId())
+					!= null) {
+				throw new IllegalArgumentException(
+						"An event already exists with given baseEntity and formSubmission combination. Consider updating");
+			}
+
+			event.setDateCreated(new DateTime());
+
+			allEvents.add(targetDb, event);
+			return event;
+		}
+		finally {
+			eventLocks.unlockAll(locks);
 		}
+	}
+
+	public Event addorUpdateEvent(Event event) {
+		List<ReentrantLock> locks = lock(event);
+		try {
+			Event existingEvent = findById(event.getId());
+			if (existingEvent != null) {
+				event.setDateEdited(DateTime.now());
+				event.setServerVersion(null);
+				event.setRevision(existingEvent.getRevision());
+				allEvents.update(event);
 
-		event.setDateCreated(new DateTime());
+			} else {
+				event.setDateCreated(DateTime.now());
+				allEvents.add(event);
 
-		allEvents.add(targetDb, event);
-		return event;
+			}
+
+			return event;
+		}
+		finally {
+			eventLocks.unlockAll(locks);
+		}
 	}
 
-	public synchronized Event addorUpdateEvent(Event event) {
-		Event existingEvent = findById(event.getId());
-		if (existingEvent != null) {
-			event.setDateEdited(DateTime.now());
-			event.setServerVersion(null);
-			event.setRevision(existingEvent.getRevision());
-			allEvents.update(event);
+	/**
+	 * Batch version of {@link #addorUpdateEvent(Event)}. Existing events are resolved by id with one multi-key
+	 * _all_docs request and the whole batch is written with a single _bulk_docs request. When the same id occurs more
+	 * than once the last occurrence is saved, as it would be when saving one at a time. Large batches are locked and
+	 * written {@value #LOCK_BATCH_SIZE} events at a time.
+	 *
+	 * @param events
+	 * @return one status per event, in the order given
+	 */
+	public List<RecordStatus> addorUpdateEvents(List<Event> events) {
+		List<RecordStatus> statuses = new ArrayList<RecordStatus>(events.size());
+		for (int from = 0; from < events.size(); from += LOCK_BATCH_SIZE) {
+			List<Event> batch = events.subList(from, Math.min(from + LOCK_BATCH_SIZE, events.size()));
+			List<ReentrantLock> locks = eventLocks.lockAll(lockKeys(batch));
+			try {
+				statuses.addAll(doAddorUpdateEvents(batch));
+			}
+			finally {
+				eventLocks.unlockAll(locks);
+			}
+		}
+		return statuses;
+	}
 
-		} else {
-			event.setDateCreated(DateTime.now());
-			allEvents.add(event);
+	private List<RecordStatus> doAddorUpdateEvents(List<Event> events) {
+		RecordStatus[] statuses = new RecordStatus[events.size()];
+		Map<String, Integer> latest = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < events.size(); i++) {
+			Event event = events.get(i);
+			if (event.getId() == null || event.getId().isEmpty()) {
+				event.setId(Utils.generateDocumentId());
+			}
+			latest.put(event.getId(), i);
+		}
+		if (latest.isEmpty()) {
+			return Arrays.asList(statuses);
+		}
 
+		Map<String, String> revisions = allEvents.findRevisions(latest.keySet());
+		List<Event> toSave = new ArrayList<Event>();
+		Map<Integer, RecordStatus.Status> outcomes = new HashMap<Integer, RecordStatus.Status>();
+		for (Entry<String, Integer> e : latest.entrySet()) {
+			Event event = events.get(e.getValue());
+			String revision = revisions.get(e.getKey());
+			if (revision != null) {
+				event.setDateEdited(DateTime.now());
+				event.setServerVersion(null);
+				event.setRevision(revision);
+				outcomes.put(e.getValue(), RecordStatus.Status.UPDATED);
+			} else {
+				event.setDateCreated(DateTime.now());
+				outcomes.put(e.getValue(), RecordStatus.Status.CREATED);
+			}
+			toSave.add(event);
 		}
 
-		return event;
+		for (DocumentOperationResult failure : allEvents.saveAll(toSave)) {
+			Integer i = latest.get(failure.getId());
+			if (i != null) {
+				outcomes.remove(i);
+				statuses[i] = RecordStatus.failed(events.get(i).getBaseEntityId(), failure.getId(),
+				    failure.getError() + ": " + failure.getReason());
+			}
+		}
+		for (Entry<Integer, RecordStatus.Status> o : outcomes.entrySet()) {
+			Event event = events.get(o.getKey());
+			statuses[o.getKey()] = new RecordStatus(event.getBaseEntityId(), event.getId(), o.getValue(), null);
+		}
+		// earlier duplicates share the outcome of the occurrence that was saved
+		for (int i = 0; i < statuses.length; i++) {
+			if (statuses[i] == null) {
+				statuses[i] = statuses[latest.get(events.get(i).getId())];
+			}
+		}
+		return Arrays.asList(statuses);
 	}
 
 	public void updateEvent(Event updatedEvent) {
@@ -296,6 +411,13 @@ public class EventService {
 		return allEvents.findByServerVersion(serverVersion);
 	}
 
+	/**
+	 * Lazily iterate over all events with a greater serverVersion, a page at a time
+	 */
+	public Iterable<Event> iterateByServerVersion(long serverVersion) {
+		return allEvents.iterateByServerVersion(serverVersion, ServerVersionPager.DEFAULT_PAGE_SIZE);
+	}
+
 	public List<Event> getAll() {
 		return allEvents.getAll();
 	}
@@ -310,16 +432,56 @@ public class EventService {
 		return allEvents.findEvents(team, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder, limit);
 	}
 
+	public List<String> findEventIds(String team, String providerId, String locationId, String baseEntityId,
+	                                 Long serverVersion, String sortBy, String sortOrder, int limit) {
+		return allEvents.findEventIds(team, providerId, locationId, baseEntityId, serverVersion, sortBy, sortOrder, limit);
+	}
+
+	public InputStream streamEventsByIds(Collection<String> ids) {
+		return allEvents.streamByIds(ids);
+	}
+
 	public List<Event> findEventsByConceptAndValue(String concept, String conceptValue) {
 		return allEvents.findByConceptAndValue(concept, conceptValue);
 
 	}
 
+	public List<Event> findEventsByConceptAndValue(String concept, String conceptValue, int skip, int limit) {
+		return allEvents.findByConceptAndValue(concept, conceptValue, skip, limit);
+	}
+
 	public List<Event> findByBaseEntityAndType(String baseEntityId, String eventType) {
 		return allEvents.findByBaseEntityAndType(baseEntityId, eventType);
 
 	}
 
+	/**
+	 * Writes are serialized per baseEntityId, formSubmissionId and identifier rather than on the whole service, which
+	 * keeps the duplicate checks above race free while unrelated entities are saved in parallel. The locks only cover
+	 * this JVM; across servers CouchDB still rejects stale revisions with an update conflict.
+	 */
+	private List<ReentrantLock> lock(Event event) {
+		return eventLocks.lockAll(lockKeys(Collections.singletonList(event)));
+	}
+
+	private List<String> lockKeys(List<Event> events) {
+		List<String> keys = new ArrayList<String>();
+		for (Event event : events) {
+			if (event.getBaseEntityId() != null) {
+				keys.add(event.getBaseEntityId());
+			}
+			if (event.getFormSubmissionId() != null) {
+				keys.add(event.getFormSubmissionId());
+			}
+			// find(Event) looks duplicates up by identifier, so two events sharing one must not be checked together
+			keys.addAll(event.getIdentifiers().values());
+			if (event.getBaseEntityId() == null && event.getFormSubmissionId() == null && event.getId() != null) {
+				keys.add(event.getId());
+			}
+		}
+		return keys;
+	}
+
 	private Event getUniqueEventFromEventList(List<Event> events) throws IllegalArgumentException {
 		if (events.size() > 1) {
 			throw new IllegalArgumentException();
@@ -3,11 +3,11 @@ package org.opensrp.service;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.opensrp.common.util.HttpUtil;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.UniqueId;
 import org.opensrp.repository.UniqueIdRepository;
@@ -60,7 +60,7 @@ public class OpenmrsIDService {
     }
 	
 	public OpenmrsIDService() {
-		this.client = HttpClientBuilder.create().build();
+		this.client = HttpUtil.getVerifiedHttpClient();
 	}
 	
 	public List<String> downloadOpenmrsIds(int size) {
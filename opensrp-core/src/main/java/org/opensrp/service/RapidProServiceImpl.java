@@ -12,10 +12,10 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.opensrp.common.util.HttpUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -31,7 +31,7 @@ public class RapidProServiceImpl implements RapidProService {
 
 	private static Logger logger = LoggerFactory.getLogger(RapidProServiceImpl.class.toString());
 
-	HttpClient client = HttpClientBuilder.create().build();
+	HttpClient client = HttpUtil.getVerifiedHttpClient();
 
 	/**
 	 * urns - JSON array of URNs to send the message to (array of strings,
@@ -215,6 +215,8 @@ public class RapidProServiceImpl implements RapidProService {
 			String uri = rapidproUrl + "/api/v1/contacts.json?uuid=" + uuid;
 			delete = setDeleteAuthHeader(uri, delete);
 			HttpResponse response = client.execute(delete);
+			// the client is shared, the connection only goes back to the pool once the body is read
+			EntityUtils.consume(response.getEntity());
 			int status = response.getStatusLine().getStatusCode();
 			return status;
 
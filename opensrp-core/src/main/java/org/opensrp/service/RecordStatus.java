@@ -0,0 +1,56 @@
+package org.opensrp.service;
+
+/**
+ * Outcome of saving a single client or event as part of a batch.
+ */
+public class RecordStatus {
+
+	public enum Status {
+		CREATED, UPDATED, FAILED
+	}
+
+	private String baseEntityId;
+
+	private String id;
+
+	private Status status;
+
+	private String error;
+
+	public RecordStatus(String baseEntityId, String id, Status status, String error) {
+		this.baseEntityId = baseEntityId;
+		this.id = id;
+		this.status = status;
+		this.error = error;
+	}
+
+	public static RecordStatus failed(String baseEntityId, String id, String error) {
+		return new RecordStatus(baseEntityId, id, Status.FAILED, error);
+	}
+
+	public String getBaseEntityId() {
+		return baseEntityId;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public boolean isFailed() {
+		return status == Status.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		return "RecordStatus [baseEntityId=" + baseEntityId + ", id=" + id + ", status=" + status + ", error=" + error
+		        + "]";
+	}
+}
@@ -2,6 +2,7 @@ package org.opensrp.service;
 
 import java.util.List;
 import org.joda.time.DateTime;
+import org.opensrp.common.util.ServerVersionPager;
 import org.opensrp.domain.Report;
 import org.opensrp.repository.AllReports;
 import org.slf4j.Logger;
@@ -28,6 +29,13 @@ public class ReportService {
 	public List<Report> findByServerVersion(long serverVersion) {
 		return allReports.findByServerVersion(serverVersion);
 	}
+	
+	/**
+	 * Lazily iterate over all reports with a greater serverVersion, a page at a time
+	 */
+	public Iterable<Report> iterateByServerVersion(long serverVersion) {
+		return allReports.iterateByServerVersion(serverVersion, ServerVersionPager.DEFAULT_PAGE_SIZE);
+	}
 
 	public Report getById(String id) {
 		return allReports.findById(id);
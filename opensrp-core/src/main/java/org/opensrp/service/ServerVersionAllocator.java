@@ -0,0 +1,80 @@
+package org.opensrp.service;
+
+import org.opensrp.common.AllConstants;
+import org.opensrp.domain.AppStateToken;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Hands out strictly increasing serverVersions without waiting for the clock to tick. Each version is the current
+ * time in milliseconds, or one more than the last version handed out if the clock has not moved on (a hybrid
+ * logical clock), so versions stay comparable with the timestamps already stored while never repeating.
+ * <p>
+ * To survive restarts and clock corrections the allocator persists a reservation in
+ * {@link AllConstants.Config#SERVER_VERSION_RESERVED_UNTIL} and starts above it on the next boot. The token is only
+ * written once the reservation is used up, not on every allocation.
+ */
+@Service
+public class ServerVersionAllocator {
+
+	/**
+	 * How far ahead of the last handed out version each reservation reaches
+	 */
+	static final long RESERVATION = 60000;
+
+	private final ConfigService configService;
+
+	private boolean loaded;
+
+	private long last;
+
+	private long reservedUntil;
+
+	@Autowired
+	public ServerVersionAllocator(ConfigService configService) {
+		this.configService = configService;
+		this.configService.registerAppStateToken(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL, 0,
+		    "Highest serverVersion that may have been handed out. Versions allocated after a restart start above it", true);
+	}
+
+	/**
+	 * @return a serverVersion greater than any handed out before
+	 */
+	public long next() {
+		return nextBlock(1);
+	}
+
+	/**
+	 * Reserve a block of consecutive serverVersions, e.g. to stamp a batch of documents in one go.
+	 *
+	 * @param count number of versions needed
+	 * @return the first version of the block; the block runs up to first + count - 1
+	 */
+	public synchronized long nextBlock(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("At least one serverVersion must be requested");
+		}
+		if (!loaded) {
+			AppStateToken token = configService
+			        .getAppStateTokenByName(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL);
+			reservedUntil = token == null ? 0L : token.longValue();
+			last = reservedUntil;
+			loaded = true;
+		}
+
+		long first = Math.max(currentTimeMillis(), last + 1);
+		long end = first + count - 1;
+		if (end > reservedUntil) {
+			// persist before handing anything out so a restart can never reissue these versions
+			long reservation = end + RESERVATION;
+			configService.updateAppStateToken(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL, reservation, true);
+			reservedUntil = reservation;
+		}
+		last = end;
+		return first;
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+}
@@ -5,14 +5,23 @@ import static java.util.Collections.sort;
 import static org.apache.commons.lang.exception.ExceptionUtils.getFullStackTrace;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.annotation.PreDestroy;
+
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.monitor.Metric;
 import org.opensrp.domain.AppStateToken;
 import org.opensrp.domain.Client;
 import org.opensrp.domain.ErrorTrace;
@@ -20,21 +29,51 @@ import org.opensrp.domain.Event;
 import org.opensrp.form.domain.FormSubmission;
 import org.opensrp.repository.AllClients;
 import org.opensrp.repository.AllEvents;
+import org.opensrp.scheduler.BackgroundJob;
+import org.opensrp.scheduler.BackgroundJob.Overlap;
 import org.opensrp.service.ConfigService;
 import org.opensrp.service.ErrorTraceService;
 import org.opensrp.service.EventService;
+import org.opensrp.service.ServerVersionAllocator;
 import org.opensrp.service.formSubmission.handler.EventsRouter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+/**
+ * Routes new events to the schedule handlers. Events are read a page at a time in serverVersion order and split into
+ * partitions by baseEntityId; the partitions are routed concurrently while the events within a partition, and so all
+ * events of one client, are routed one after the other. The
+ * {@link AllConstants.Config#EVENTS_PARSER_LAST_PROCESSED_EVENT} token is moved once per page, to the highest
+ * serverVersion below which every event has been routed.
+ */
 @Component
 public class EventsListener {
 	
 	private static Logger logger = LoggerFactory.getLogger(EventsListener.class.toString());
 	
-	private static final ReentrantLock lock = new ReentrantLock();
+	/**
+	 * Runs {@link #processEvent(MotechEvent)} off the schedule thread; events added during a run are picked up by one
+	 * more run right after it
+	 */
+	private final BackgroundJob job = new BackgroundJob("events-listener", Overlap.COALESCE,
+	        Metric.EVENTS_SCHEDULE_JOB_LAG, Metric.EVENTS_LISTENER_BATCH_TIME, new BackgroundJob.Task() {
+		        
+		        @Override
+		        public void run(MotechEvent event) {
+			        processEvent(event);
+		        }
+	        });
+	
+	static final int DEFAULT_PAGE_SIZE = 1000;
+	
+	private int pageSize;
+	
+	private int partitions;
+	
+	private ExecutorService executor;
 	
 	private ConfigService configService;
 	
@@ -44,6 +83,8 @@ public class EventsListener {
 	private AllClients allClients;
 	@Autowired
 	EventService eventService;
+	@Autowired
+	private ServerVersionAllocator serverVersionAllocator;
 	
 	private EventsRouter eventsRouter;
 	
@@ -51,7 +92,9 @@ public class EventsListener {
 	
 	@Autowired
 	public EventsListener(EventsRouter eventsRouter, ConfigService configService, AllEvents allEvents,
-	    ErrorTraceService errorTraceService) {
+	    ErrorTraceService errorTraceService, @Value("#{opensrp['events.listener.threads']}") int threads,
+	    @Value("#{opensrp['events.listener.page.size']}") int pageSize) {
+		initWorkers(threads, pageSize);
 		this.configService = configService;
 		this.errorTraceService = errorTraceService;
 		this.eventsRouter = eventsRouter;
@@ -62,8 +105,10 @@ public class EventsListener {
 
 
 	public EventsListener(EventsRouter eventsRouter, ConfigService configService, AllEvents allEvents, EventService eventService,
-						  ErrorTraceService errorTraceService, AllClients allClients) {
+						  ErrorTraceService errorTraceService, AllClients allClients, ServerVersionAllocator serverVersionAllocator) {
+		initWorkers(Runtime.getRuntime().availableProcessors(), DEFAULT_PAGE_SIZE);
 		this.configService = configService;
+		this.serverVersionAllocator = serverVersionAllocator;
 		this.errorTraceService = errorTraceService;
 		this.eventsRouter = eventsRouter;
 		this.allEvents = allEvents;
@@ -73,41 +118,60 @@ public class EventsListener {
 				"Token to keep track of events processed for client n event parsing and schedule handling", true);
 	}
 	
+	private void initWorkers(int threads, int pageSize) {
+		this.partitions = threads > 0 ? threads : 1;
+		this.pageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+		this.executor = Executors.newFixedThreadPool(partitions);
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		job.shutdown();
+		executor.shutdown();
+	}
+	
 	@MotechListener(subjects = AllConstants.EVENTS_SCHEDULE_SUBJECT)
+	public void scheduleEventProcessing(MotechEvent motechEvent) {
+		job.trigger(motechEvent);
+	}
+	
+	/**
+	 * Stamp new clients and events with a serverVersion, then route the events up to the last one to the schedule
+	 * handlers. Scheduled runs go through the events-listener {@link BackgroundJob}, which never starts one while
+	 * another is in progress.
+	 * 
+	 * @param motechEvent
+	 */
 	public void processEvent(MotechEvent motechEvent) {
-		if (!lock.tryLock()) {
-			logger.warn("Not fetching events from Message Queue. It is already in progress.");
-			return;
-		}
 		try {
 			//update server version first
 			addServerVersion();
 			logger.info("Fetching Events");
 			long version = getVersion();
 			
-			List<Event> events = allEvents.findByServerVersion(version);
-			
-			if (events.isEmpty()) {
-				logger.info("No new events found. Export token: " + version);
-				return;
-			}
-			
-			logger.info(format("Fetched {0} new events found. Export token: {1}", events.size(), version));
-			
-			sort(events, serverVersionComparator());
-			
-			for (Event event : events) {
-				try {
-					event=eventService.processOutOfArea(event);
-					eventsRouter.route(event);
-					configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT,
-					    event.getServerVersion());
+			while (true) {
+				List<Event> events = allEvents.findByServerVersion(version, pageSize);
+				
+				if (events.isEmpty()) {
+					logger.info("No new events found. Export token: " + version);
+					return;
+				}
+				
+				logger.info(format("Fetched {0} new events found. Export token: {1}", events.size(), version));
+				
+				long pageEnd = lastServerVersion(events);
+				long watermark = routePage(events, pageEnd);
+				if (watermark > version) {
+					configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, watermark);
+					version = watermark;
+				}
+				
+				if (watermark < pageEnd) {
+					logger.warn(format("Routing stopped before the end of the page. Export token: {0}", version));
+					return;
 				}
-				catch (Exception e) {
-					e.printStackTrace();
-					errorTraceService
-					        .addError(new ErrorTrace(new DateTime(), "FormSubmissionProcessor", this.getClass().getName(),
-					                e.getStackTrace().toString(), "unsolved", FormSubmission.class.getName()));
+				if (events.size() < pageSize) {
+					return;
 				}
 			}
 		}
@@ -115,45 +179,132 @@ public class EventsListener {
 			logger.error(MessageFormat.format("{0} occurred while trying to fetch forms. Message: {1} with stack trace {2}",
 			    e.toString(), e.getMessage(), getFullStackTrace(e)));
 		}
-		finally {
-			lock.unlock();
+	}
+	
+	/**
+	 * Route one page of events, a partition per worker, and wait for all of them.
+	 * 
+	 * @param events
+	 * @param pageEnd highest serverVersion in the page
+	 * @return the serverVersion up to which every event of the page has been routed
+	 */
+	private long routePage(List<Event> events, long pageEnd) throws InterruptedException {
+		sort(events, serverVersionComparator());
+		
+		List<List<Event>> partitioned = new ArrayList<>(partitions);
+		for (int i = 0; i < partitions; i++) {
+			partitioned.add(new ArrayList<Event>());
+		}
+		for (Event event : events) {
+			partitioned.get(partitionFor(event)).add(event);
+		}
+		
+		List<PartitionTask> tasks = new ArrayList<>(partitions);
+		for (List<Event> partition : partitioned) {
+			if (!partition.isEmpty()) {
+				tasks.add(new PartitionTask(partition));
+			}
+		}
+		
+		List<Future<Void>> results = executor.invokeAll(tasks);
+		
+		long watermark = pageEnd;
+		for (int i = 0; i < tasks.size(); i++) {
+			try {
+				results.get(i).get();
+			}
+			catch (ExecutionException e) {
+				logger.error("Routing of a partition failed", e.getCause());
+			}
+			PartitionTask task = tasks.get(i);
+			for (int j = task.completed; j < task.events.size(); j++) {
+				watermark = Math.min(watermark, task.events.get(j).getServerVersion() - 1);
+			}
+		}
+		return watermark;
+	}
+	
+	private int partitionFor(Event event) {
+		String baseEntityId = event.getBaseEntityId();
+		return baseEntityId == null ? 0 : (baseEntityId.hashCode() & Integer.MAX_VALUE) % partitions;
+	}
+	
+	private long lastServerVersion(List<Event> events) {
+		long last = 0;
+		for (Event event : events) {
+			last = Math.max(last, event.getServerVersion());
+		}
+		return last;
+	}
+	
+	private void route(Event event) {
+		try {
+			event = eventService.processOutOfArea(event);
+			eventsRouter.route(event);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			errorTraceService.addError(new ErrorTrace(new DateTime(), "FormSubmissionProcessor", this.getClass().getName(),
+			        e.getStackTrace().toString(), "unsolved", FormSubmission.class.getName()));
 		}
 	}
 	
+	/**
+	 * Routes the events of one partition in order and counts how many are done, so that the watermark can be worked
+	 * out if the partition does not get to the end.
+	 */
+	private class PartitionTask implements Callable<Void> {
+		
+		private final List<Event> events;
+		
+		private int completed;
+		
+		PartitionTask(List<Event> events) {
+			this.events = events;
+		}
+		
+		@Override
+		public Void call() {
+			for (Event event : events) {
+				route(event);
+				completed++;
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Stamp clients and events that have no serverVersion yet, a page at a time. Each page takes one block of
+	 * consecutive versions from the {@link ServerVersionAllocator} and is written back with a single _bulk_docs
+	 * request. If any document in a page fails to save the pass stops, so that the page is not fetched again in a
+	 * loop; the leftovers are picked up on the next run.
+	 */
 	private void addServerVersion() {
 		try {
 			List<Client> clients = allClients.findByEmptyServerVersion();
 			while (clients != null && !clients.isEmpty()) {
+				long serverVersion = serverVersionAllocator.nextBlock(clients.size());
 				for (Client client : clients) {
-					try {
-						Thread.sleep(1);
-						client.setServerVersion(getCurrentMilliseconds());
-						allClients.update(client);
-						logger.debug("Add server_version: found new client " + client.getBaseEntityId());
-					}
-					catch (InterruptedException e) {
-						logger.error("", e);
-					}
+					client.setServerVersion(serverVersion++);
+					logger.debug("Add server_version: found new client " + client.getBaseEntityId());
+				}
+				if (!savedAll(allClients.saveAll(clients), "client")) {
+					break;
 				}
 				clients = allClients.findByEmptyServerVersion();
 			}
 			
 			List<Event> events = allEvents.findByEmptyServerVersion();
 			while (events != null && !events.isEmpty()) {
+				long serverVersion = serverVersionAllocator.nextBlock(events.size());
 				for (Event event : events) {
-					try {
-						Thread.sleep(1);
-						event=eventService.processOutOfArea(event);
-						event.setServerVersion(getCurrentMilliseconds());
-						allEvents.update(event);
-						
-						logger.debug("Add server_version: found new event " + event.getBaseEntityId());
-					}
-					catch (InterruptedException e) {
-						logger.error("", e);
-					}
+					event = eventService.processOutOfArea(event);
+					event.setServerVersion(serverVersion++);
+					logger.debug("Add server_version: found new event " + event.getBaseEntityId());
+				}
+				if (!savedAll(allEvents.saveAll(events), "event")) {
+					break;
 				}
-				
 				events = allEvents.findByEmptyServerVersion();
 			}
 		}
@@ -162,9 +313,13 @@ public class EventsListener {
 		}
 		
 	}
-
-	public long getCurrentMilliseconds() {
-		return System.currentTimeMillis();
+	
+	private boolean savedAll(List<DocumentOperationResult> failures, String type) {
+		for (DocumentOperationResult failure : failures) {
+			logger.error(format("Add server_version: failed to save {0} {1}: {2} {3}", type, failure.getId(),
+			    failure.getError(), failure.getReason()));
+		}
+		return failures.isEmpty();
 	}
 
 	private long getVersion() {
@@ -1,24 +1,27 @@
 package org.opensrp.service.formSubmission;
 
 import static java.text.MessageFormat.format;
-import static java.util.Collections.sort;
 import static org.apache.commons.lang.exception.ExceptionUtils.getFullStackTrace;
 
 import java.text.MessageFormat;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PreDestroy;
 
 import org.joda.time.DateTime;
 import org.motechproject.scheduler.domain.MotechEvent;
 import org.motechproject.server.event.annotations.MotechListener;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.Probe;
 import org.opensrp.domain.AppStateToken;
 import org.opensrp.domain.ErrorTrace;
 import org.opensrp.dto.form.FormSubmissionDTO;
 import org.opensrp.form.domain.FormSubmission;
 import org.opensrp.form.service.FormSubmissionService;
+import org.opensrp.scheduler.BackgroundJob;
+import org.opensrp.scheduler.BackgroundJob.Overlap;
 import org.opensrp.service.ConfigService;
 import org.opensrp.service.ErrorTraceService;
 import org.slf4j.Logger;
@@ -32,11 +35,18 @@ import com.google.gson.reflect.TypeToken;
 @Component
 public class FormSubmissionListener {
     private static Logger logger = LoggerFactory.getLogger(FormSubmissionListener.class.toString());
-    private static final ReentrantLock lock = new ReentrantLock();
     private FormSubmissionService formSubmissionService;
     private ConfigService configService;
     private FormSubmissionProcessor fsp;
     private ErrorTraceService errorTraceService;
+    private final BackgroundJob job = new BackgroundJob("form-submission-listener", Overlap.COALESCE,
+            Metric.FORM_SCHEDULE_JOB_LAG, Metric.FORM_SUBMISSION_LISTENER_BATCH_TIME, new BackgroundJob.Task() {
+
+                @Override
+                public void run(MotechEvent event) {
+                    parseForms(event);
+                }
+            });
 
     @Autowired
     public FormSubmissionListener(FormSubmissionService formSubmissionService, FormSubmissionProcessor fsp,
@@ -56,32 +66,41 @@ public class FormSubmissionListener {
         formSubmissionService.submit(formSubmissions);
     }
 
+    @PreDestroy
+    public void shutdown() {
+        job.shutdown();
+    }
+
     @MotechListener(subjects = AllConstants.FORM_SCHEDULE_SUBJECT)
+    public void scheduleFormParsing(MotechEvent event) {
+        job.trigger(event);
+    }
+
+    /**
+     * Process the form submissions received since the last run. Scheduled runs go through the
+     * form-submission-listener {@link BackgroundJob}, which never starts one while another is in progress.
+     *
+     * @param event
+     */
     public void parseForms(MotechEvent event) {
-        if (!lock.tryLock()) {
-            logger.warn("Not fetching forms from Message Queue. It is already in progress.");
-            return;
-        }
         try {
             logger.info("Fetching Forms");
             long version = getVersion();
 
-            List<FormSubmission> formSubmissions = formSubmissionService.getAllSubmissions(version, null);
-            if (formSubmissions.isEmpty()) {
-                logger.info("No new forms found. Export token: " + version);
-                return;
-            }
-
-            logger.info(format("Fetched {0} new forms found. Export token: {1}", formSubmissions.size(), version));
-            
-            sort(formSubmissions, serverVersionComparator());
-
-            for (FormSubmission submission : formSubmissions) {
+            // the view returns submissions in serverVersion order, a page at a time
+            int processed = 0;
+            for (FormSubmission submission : formSubmissionService.iterateByServerVersion(version)) {
+                processed++;
             	try{
 	            	logger.info(format("Invoking save for form with instance Id: {0} and for entity Id: {1}", submission.instanceId(), submission.entityId()));
 	
 	            	if(submission.getField("no_client_event") == null || submission.getField("no_client_event").contains("false")){
-		            	fsp.processFormSubmission(submission);
+	            		Probe probe = new Probe(Metric.FORM_SUBMISSION_PROCESS_TIME);
+		            	try {
+		            		fsp.processFormSubmission(submission);
+		            	} finally {
+		            		probe.stop();
+		            	}
 	            	}
 	            	
 	            	configService.updateAppStateToken(AllConstants.Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION, submission.serverVersion());
@@ -91,11 +110,14 @@ public class FormSubmissionListener {
             		errorTraceService.addError(new ErrorTrace(DateTime.now(), "FormSubmissionProcessor", this.getClass().getName(), e.getStackTrace().toString(), "unsolved", FormSubmission.class.getName()));
             	}
             }
+            if (processed == 0) {
+                logger.info("No new forms found. Export token: " + version);
+            } else {
+                logger.info(format("Processed {0} new forms. Export token was: {1}", processed, version));
+            }
         } catch (Exception e) {
             logger.error(MessageFormat.format("{0} occurred while trying to fetch forms. Message: {1} with stack trace {2}",
                     e.toString(), e.getMessage(), getFullStackTrace(e)));
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -103,14 +125,4 @@ public class FormSubmissionListener {
         AppStateToken token = configService.getAppStateTokenByName(AllConstants.Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION);
         return token==null?0L:token.longValue();
     }
-    
-    private Comparator<FormSubmission> serverVersionComparator() {
-        return new Comparator<FormSubmission>() {
-            public int compare(FormSubmission firstSubmission, FormSubmission secondSubmission) {
-                long firstTimestamp = firstSubmission.serverVersion();
-                long secondTimestamp = secondSubmission.serverVersion();
-                return firstTimestamp == secondTimestamp ? 0 : firstTimestamp < secondTimestamp ? -1 : 1;
-            }
-        };
-    }
 }
@@ -3,7 +3,13 @@ package org.opensrp.service.formSubmission.handler;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.json.JSONArray;
@@ -22,6 +28,11 @@ import org.springframework.stereotype.Component;
 public class EventsRouter {
 	
 	private static Logger logger = LoggerFactory.getLogger(EventsRouter.class.toString());
+
+	/**
+	 * How often the schedule-configs folder is looked at for changed files
+	 */
+	static final long RELOAD_CHECK_INTERVAL_MILLIS = 5000;
 	
 	@Autowired
 	private IHandlerMapper handlerMapper;
@@ -43,8 +54,12 @@ public class EventsRouter {
 	ResourceLoader loader = new DefaultResourceLoader();
 	
 	File scheduleConfigsFolder = null;
-	
-	Event event;
+
+	long reloadCheckIntervalMillis = RELOAD_CHECK_INTERVAL_MILLIS;
+
+	private volatile RoutingTable routingTable;
+
+	private volatile long lastReloadCheck;
 
 	@Autowired
 	public EventsRouter(IHandlerMapper handlerMapper, @Value("#{opensrp['schedules.config.files.dir']}") String scheduleConfigFilesPath) {
@@ -53,79 +68,131 @@ public class EventsRouter {
 	}
 
 	/**
+	 * Route the event to the schedule handlers configured for its type. Keeps no per-event state so it can be called
+	 * from several threads at once.
+	 * 
 	 * @param event
 	 */
-	public void route(Event _event) {
+	public void route(Event event) {
 		try {
-			event = _event;
 			if (scheduleConfigFilesPath != null && !scheduleConfigFilesPath.isEmpty()) {
-				
-				String schedulesStr = getScheduleConfigs();
-				
-				JSONArray schedulesJsonObject = new JSONArray("[" + schedulesStr + "]");
-				//iterate through concatenated schedule-configs files to retrieve the events and compare with the current event from the db
-				for (int i = 0; i < schedulesJsonObject.length(); i++) {
-					JSONObject scheduleJsonObject = schedulesJsonObject.getJSONObject(i);
-					String handler = scheduleJsonObject.has(JSON_KEY_HANDLER)?scheduleJsonObject.getString(JSON_KEY_HANDLER):"VaccinesScheduleHandler";
-					JSONArray eventsJsonArray = scheduleJsonObject.getJSONArray(JSON_KEY_EVENTS);
-					String scheduleName = scheduleJsonObject.getString(JSON_KEY_SCHEDULE_NAME);
-					processScheduleConfigEvents(eventsJsonArray, handler,scheduleName);
-					
+				for (Route route : getRoutingTable().routesFor(event.getEventType())) {
+					EventsHandler handler = handlerMapper.handlerMap().get(route.handler);
+					if (handler != null) {
+						handler.handle(event, route.scheduleConfigEvent, route.scheduleName);
+					}
 				}
-				
 			}
 		}
-		catch (IOException | JSONException e) {
+		catch (IOException e) {
 			logger.error("", e);
 		}
 		
 	}
 	
 	/**
-	 * This method iterates through 'events' defined in the schedule-configs to see if they match
-	 * the current event, if so get the handler and process the event
+	 * Returns the routing table compiled from the schedule-configs folder, recompiling it when a file in the folder has
+	 * been added, removed or changed since it was built. The folder is looked at no more than once every
+	 * {@link #reloadCheckIntervalMillis}.
 	 * 
-	 * @param eventsJsonArray
-	 * @param handler
-	 * @throws JSONException
+	 * @return
+	 * @throws IOException
 	 */
-	private void processScheduleConfigEvents(JSONArray eventsJsonArray, String handler,String scheduleName) throws JSONException {
-		//iterate through the events in the scheduleconfigs to see if the current event (the one passed to this route method) has a schedule handler
-		for (int j = 0; j < eventsJsonArray.length(); j++) {
-			JSONObject scheduleConfigEvent = eventsJsonArray.getJSONObject(j);
-			JSONArray eventTypesJsonArray = scheduleConfigEvent.getJSONArray(JSON_KEY_TYPES);
-			List<String> eventsList = jsonArrayToList(eventTypesJsonArray);
-			
-			if (eventsList.contains(event.getEventType())) {
-				if (handlerMapper.handlerMap().get(handler) != null) {
-					handlerMapper.handlerMap().get(handler).handle(event, scheduleConfigEvent,scheduleName);
+	private RoutingTable getRoutingTable() throws IOException {
+		RoutingTable table = routingTable;
+		long now = System.currentTimeMillis();
+		if (table != null && now - lastReloadCheck < reloadCheckIntervalMillis) {
+			return table;
+		}
+		synchronized (this) {
+			table = routingTable;
+			if (table != null && now - lastReloadCheck < reloadCheckIntervalMillis) {
+				return table;
+			}
+			File[] scheduleFiles = getScheduleConfigFiles();
+			String fingerprint = fingerprint(scheduleFiles);
+			if (table == null || !table.fingerprint.equals(fingerprint)) {
+				try {
+					table = compile(scheduleFiles, fingerprint);
+					routingTable = table;
+					logger.info("Compiled event routes from " + scheduleFiles.length + " schedule-configs files");
+				}
+				catch (JSONException e) {
+					// keep routing with the last good table until the files are fixed
+					logger.error("Could not compile schedule-configs in " + scheduleConfigFilesPath, e);
+					if (table == null) {
+						table = new RoutingTable(fingerprint, new HashMap<String, List<Route>>());
+					}
 				}
-				
 			}
-			
+			lastReloadCheck = now;
+			return table;
 		}
 	}
 	
 	/**
-	 * This method merges all the files in the schedule-configs folder to create one
-	 * jsonobject/array
+	 * This method reads all the files in the schedule-configs folder once and indexes the 'events' defined in them by
+	 * event type. Routes for a type keep the order of files, schedules and events in the configs.
 	 * 
+	 * @param scheduleFiles
+	 * @param fingerprint
 	 * @return
 	 * @throws IOException
+	 * @throws JSONException
 	 */
-	private String getScheduleConfigs() throws IOException {
-		if (scheduleConfigsFolder == null && loader.getResource(scheduleConfigFilesPath).exists())
-			scheduleConfigFilesPath = loader.getResource(scheduleConfigFilesPath).getURI().getPath();
-		scheduleConfigsFolder = new File(scheduleConfigFilesPath);
-		String scheduleConfigMapping = "";
-		File[] scheduleFiles = scheduleConfigsFolder.listFiles();
-		for (int i = 0; i < scheduleFiles.length; i++) {
-			final File fileEntry = scheduleFiles[i];
-			String scheduleConfig = FileUtils.readFileToString(new File(fileEntry.getAbsolutePath()), "UTF-8");
-			scheduleConfigMapping += (i + 1 == scheduleFiles.length) ? scheduleConfig : scheduleConfig.concat(",");
-			
+	private RoutingTable compile(File[] scheduleFiles, String fingerprint) throws IOException, JSONException {
+		Map<String, List<Route>> routes = new HashMap<String, List<Route>>();
+		for (File scheduleFile : scheduleFiles) {
+			String scheduleConfig = FileUtils.readFileToString(scheduleFile, "UTF-8");
+			JSONArray schedulesJsonObject = new JSONArray("[" + scheduleConfig + "]");
+			for (int i = 0; i < schedulesJsonObject.length(); i++) {
+				JSONObject scheduleJsonObject = schedulesJsonObject.getJSONObject(i);
+				String handler = scheduleJsonObject.has(JSON_KEY_HANDLER)?scheduleJsonObject.getString(JSON_KEY_HANDLER):"VaccinesScheduleHandler";
+				JSONArray eventsJsonArray = scheduleJsonObject.getJSONArray(JSON_KEY_EVENTS);
+				String scheduleName = scheduleJsonObject.getString(JSON_KEY_SCHEDULE_NAME);
+				for (int j = 0; j < eventsJsonArray.length(); j++) {
+					JSONObject scheduleConfigEvent = eventsJsonArray.getJSONObject(j);
+					Set<String> eventTypes = new LinkedHashSet<String>(jsonArrayToList(scheduleConfigEvent
+					        .getJSONArray(JSON_KEY_TYPES)));
+					for (String eventType : eventTypes) {
+						List<Route> typeRoutes = routes.get(eventType);
+						if (typeRoutes == null) {
+							typeRoutes = new ArrayList<Route>();
+							routes.put(eventType, typeRoutes);
+						}
+						typeRoutes.add(new Route(handler, scheduleConfigEvent, scheduleName));
+					}
+				}
+			}
+		}
+		return new RoutingTable(fingerprint, routes);
+	}
+
+	private File[] getScheduleConfigFiles() throws IOException {
+		File[] scheduleFiles = getScheduleConfigsFolder().listFiles();
+		if (scheduleFiles == null) {
+			throw new IOException("Schedule-configs folder " + scheduleConfigFilesPath + " could not be read");
+		}
+		Arrays.sort(scheduleFiles);
+		return scheduleFiles;
+	}
+	
+	private static String fingerprint(File[] scheduleFiles) {
+		StringBuilder fingerprint = new StringBuilder();
+		for (File scheduleFile : scheduleFiles) {
+			fingerprint.append(scheduleFile.getName()).append(':').append(scheduleFile.lastModified()).append(':')
+			        .append(scheduleFile.length()).append(';');
+		}
+		return fingerprint.toString();
+	}
+	
+	private synchronized File getScheduleConfigsFolder() throws IOException {
+		if (scheduleConfigsFolder == null) {
+			if (loader.getResource(scheduleConfigFilesPath).exists())
+				scheduleConfigFilesPath = loader.getResource(scheduleConfigFilesPath).getURI().getPath();
+			scheduleConfigsFolder = new File(scheduleConfigFilesPath);
 		}
-		return scheduleConfigMapping;
+		return scheduleConfigsFolder;
 	}
 	
 	private List<String> jsonArrayToList(JSONArray jsonArray) throws JSONException {
@@ -140,5 +207,39 @@ public class EventsRouter {
 		return values;
 	}
 
+	/**
+	 * Event type to schedule-configs events index, never modified once built
+	 */
+	private static class RoutingTable {
+
+		final String fingerprint;
+
+		final Map<String, List<Route>> routes;
+
+		RoutingTable(String fingerprint, Map<String, List<Route>> routes) {
+			this.fingerprint = fingerprint;
+			this.routes = routes;
+		}
+
+		List<Route> routesFor(String eventType) {
+			List<Route> typeRoutes = routes.get(eventType);
+			return typeRoutes == null ? Collections.<Route> emptyList() : typeRoutes;
+		}
+	}
+
+	private static class Route {
+
+		final String handler;
+
+		final JSONObject scheduleConfigEvent;
+
+		final String scheduleName;
+
+		Route(String handler, JSONObject scheduleConfigEvent, String scheduleName) {
+			this.handler = handler;
+			this.scheduleConfigEvent = scheduleConfigEvent;
+			this.scheduleName = scheduleName;
+		}
+	}
 
 }
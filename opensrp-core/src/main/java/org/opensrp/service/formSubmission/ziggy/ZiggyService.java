@@ -3,17 +3,30 @@ package org.opensrp.service.formSubmission.ziggy;
 import static java.text.MessageFormat.format;
 import static javax.script.ScriptContext.ENGINE_SCOPE;
 
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.script.Bindings;
 import javax.script.Invocable;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
 
+import org.opensrp.common.monitor.Gauge;
+import org.opensrp.common.monitor.MetricsRegistry;
 import org.opensrp.service.formSubmission.handler.FormSubmissionRouter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/**
+ * Saves ziggy compliant form submissions through the ziggy form controller. An Invocable script engine is not thread
+ * safe, so the service keeps a pool of engines, each with the ziggy scripts loaded into its own global scope, and a
+ * {@link #saveForm(String, String)} call has one of them to itself until it returns.
+ */
 @Service
 public class ZiggyService {
     public static final String JAVA_SCRIPT = "JavaScript";
@@ -29,15 +42,23 @@ public class ZiggyService {
     private ZiggyFileLoader ziggyFileLoader;
     private ZiggyDataHandler ziggyDataHandler;
     private FormSubmissionRouter formSubmissionRouter;
-    private Object ziggyFormController;
-    private Invocable invocable;
+    private BlockingQueue<ZiggyEngine> engines;
+    private int poolSize;
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
 
-    @Autowired
     public ZiggyService(ZiggyFileLoader ziggyFileLoader,ZiggyDataHandler ziggyDataHandler,FormSubmissionRouter formSubmissionRouter) throws Exception {
+        this(ziggyFileLoader, ziggyDataHandler, formSubmissionRouter, 1);
+    }
+
+    @Autowired
+    public ZiggyService(ZiggyFileLoader ziggyFileLoader, ZiggyDataHandler ziggyDataHandler,
+                        FormSubmissionRouter formSubmissionRouter,
+                        @Value("#{opensrp['ziggy.engine.pool.size']}") int poolSize) throws Exception {
         this.ziggyFileLoader = ziggyFileLoader;
         this.ziggyDataHandler = ziggyDataHandler;
         this.formSubmissionRouter = formSubmissionRouter;
-        initRhino();
+        initRhino(poolSize > 0 ? poolSize : 1);
     }
 
     public boolean isZiggyCompliant(String entityType) {
@@ -45,30 +66,93 @@ public class ZiggyService {
 	}
 
 	public void saveForm(String params, String formInstance) {
+        ZiggyEngine engine = null;
         try {
-            invocable.invokeMethod(ziggyFormController, SAVE_METHOD_NAME, params, formInstance);
+            engine = borrow();
+            engine.invocable.invokeMethod(engine.controller, SAVE_METHOD_NAME, params, formInstance);
             logger.info(format("Saving form successful, with params: {0}.", params));
             logger.debug(format("Saving form successful, with params: {0}, with instance {1}.", params, formInstance));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error(format("Interrupted waiting for a script engine, form not saved, with params: {0}.", params));
         } catch (Exception e) {
         	e.printStackTrace();
             logger.error(format("Form save failed, with params: {0}, with instance {1}. Exception: {2}", params, formInstance, e));
+        } finally {
+            if (engine != null) {
+                engines.add(engine);
+            }
         }
     }
 
-    private void initRhino() throws Exception {
+    private ZiggyEngine borrow() throws InterruptedException {
+        long start = System.nanoTime();
+        ZiggyEngine engine = engines.take();
+        borrowWaitNanos.addAndGet(System.nanoTime() - start);
+        borrowCount.incrementAndGet();
+        return engine;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return engines not in use right now
+     */
+    public int getAvailableEngines() {
+        return engines.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return total time saveForm calls have spent waiting for a free engine, in milliseconds
+     */
+    public long getBorrowWaitMillis() {
+        return borrowWaitNanos.get() / 1000000;
+    }
+
+    private void initRhino(int poolSize) throws Exception {
+        String jsFiles = ziggyFileLoader.getJSFiles();
         ScriptEngineManager manager = new ScriptEngineManager();
+        this.poolSize = poolSize;
+        this.engines = new LinkedBlockingQueue<ZiggyEngine>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            engines.add(createEngine(manager, jsFiles));
+        }
+        logger.info(format("Started {0} ziggy script engines", poolSize));
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.gauge("ziggy.engines.available", new Gauge() {
+            @Override
+            public long value() {
+                return getAvailableEngines();
+            }
+        });
+        metrics.gauge("ziggy.engines.wait.millis", new Gauge() {
+            @Override
+            public long value() {
+                return getBorrowWaitMillis();
+            }
+        });
+    }
+
+    /**
+     * Each engine gets its own bindings, so scripts evaluated in one cannot see or change the globals of another
+     */
+    private ZiggyEngine createEngine(ScriptEngineManager manager, String jsFiles) throws ScriptException {
         ScriptEngine engine = manager.getEngineByName(JAVA_SCRIPT);
 
         Bindings bindings = getBindings(engine);
         engine.setBindings(bindings, ENGINE_SCOPE);
 
-        String jsFiles = ziggyFileLoader.getJSFiles();
-
         engine.eval(jsFiles);
         engine.eval(JS_INIT_SCRIPT);
 
-        ziggyFormController = engine.get("controller");
-        invocable = (Invocable) engine;
+        return new ZiggyEngine((Invocable) engine, engine.get("controller"));
     }
 
     private Bindings getBindings(ScriptEngine engine) {
@@ -78,4 +162,14 @@ public class ZiggyService {
         bindings.put(FORM_SUBMISSION_ROUTER, formSubmissionRouter);
         return bindings;
     }
+
+    private static class ZiggyEngine {
+        private final Invocable invocable;
+        private final Object controller;
+
+        ZiggyEngine(Invocable invocable, Object controller) {
+            this.invocable = invocable;
+            this.controller = controller;
+        }
+    }
 }
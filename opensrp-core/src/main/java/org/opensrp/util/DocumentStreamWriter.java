@@ -0,0 +1,131 @@
+package org.opensrp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.opensrp.common.AllConstants.BaseEntity;
+
+/**
+ * Copies the docs of a raw CouchDB view or _all_docs response (queried with include_docs=true) straight into a
+ * {@link JsonGenerator}, token by token, without binding them to domain objects. The couch specific _id and _rev
+ * fields are renamed to id and revision so that the output matches what Gson produces for the domain objects.
+ * While copying, the baseEntityIds and the highest serverVersion seen are collected for the caller.
+ */
+public class DocumentStreamWriter {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final JsonGenerator generator;
+
+	private int count;
+
+	private Long lastServerVersion;
+
+	private final Set<String> baseEntityIds = new LinkedHashSet<String>();
+
+	public DocumentStreamWriter(JsonGenerator generator) {
+		this.generator = generator;
+	}
+
+	/**
+	 * Write every non null doc in the given view response as an element of the array currently open on the
+	 * generator. The stream is closed once it has been read.
+	 *
+	 * @param viewResponse
+	 * @return number of docs written from this response
+	 * @throws IOException
+	 */
+	public int writeDocs(InputStream viewResponse) throws IOException {
+		int written = 0;
+		JsonParser parser = JSON_FACTORY.createJsonParser(viewResponse);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Expected a CouchDB view response object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("rows".equals(field) && token == JsonToken.START_ARRAY) {
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						written += writeRow(parser);
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+		finally {
+			parser.close();
+		}
+		count += written;
+		return written;
+	}
+
+	private int writeRow(JsonParser parser) throws IOException {
+		int written = 0;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("doc".equals(field) && token == JsonToken.START_OBJECT) {
+				writeDoc(parser);
+				written++;
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return written;
+	}
+
+	private void writeDoc(JsonParser parser) throws IOException {
+		generator.writeStartObject();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("_id".equals(field)) {
+				field = "id";
+			} else if ("_rev".equals(field)) {
+				field = "revision";
+			} else if (BaseEntity.BASE_ENTITY_ID.equals(field) && token == JsonToken.VALUE_STRING) {
+				String baseEntityId = parser.getText();
+				if (!baseEntityId.isEmpty()) {
+					baseEntityIds.add(baseEntityId);
+				}
+			} else if (BaseEntity.SERVER_VERSIOIN.equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+				long serverVersion = parser.getLongValue();
+				if (lastServerVersion == null || serverVersion > lastServerVersion) {
+					lastServerVersion = serverVersion;
+				}
+			}
+			generator.writeFieldName(field);
+			generator.copyCurrentStructure(parser);
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * @return total number of docs written by this writer
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the highest serverVersion among the docs written, or null if none had one
+	 */
+	public Long getLastServerVersion() {
+		return lastServerVersion;
+	}
+
+	/**
+	 * @return distinct baseEntityIds of the docs written, in the order they were first seen
+	 */
+	public Set<String> getBaseEntityIds() {
+		return baseEntityIds;
+	}
+}
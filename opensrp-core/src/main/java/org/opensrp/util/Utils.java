@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
@@ -50,6 +51,14 @@ public class Utils {
 		}.getType());
 	}
 
+	/**
+	 * A new document id in the same form as the uuids CouchDB assigns itself. Used when documents are written in bulk
+	 * and need to be matched back to the per document results.
+	 */
+	public static String generateDocumentId() {
+		return UUID.randomUUID().toString().replace("-", "");
+	}
+
 	public static List<String> getFieldsAsList(Class<?> cls) {
 		List<String> fieldList = new ArrayList<>();
 		Field[] fieldSet = cls.getDeclaredFields();
@@ -9,6 +9,7 @@ import static org.opensrp.dto.BeneficiaryType.mother;
 
 import java.util.List;
 
+import org.ektorp.DbAccessException;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -190,7 +191,7 @@ public class AllActionsIntegrationTest {
 	}
 
 	@Test
-	public void shouldRemoveExistingAlertBeforeAddingNewOne() throws Exception {
+	public void shouldReplaceExistingAlertInPlace() throws Exception {
 		Action existingAlert = new Action("entity id 1", "anm id 1", alert("schedule1", "milestone1"));
 		Action existingDifferentScheduleAlert = new Action("entity id 1", "anm id 1", alert("schedule2", "milestone3"));
 		allActions.add(existingAlert);
@@ -199,10 +200,37 @@ public class AllActionsIntegrationTest {
 		Action newAlert = new Action("entity id 1", "anm id 1", alert("schedule1", "milestone2"));
 		allActions.addOrUpdateAlert(newAlert);
 
-		assertFalse(allActions.contains(existingAlert.getId()));
+		assertEquals(existingAlert.getId(), newAlert.getId());
 		assertTrue(allActions.contains(existingDifferentScheduleAlert.getId()));
-		assertEquals(allActions.findAlertByANMIdEntityIdScheduleName("anm id 1", "entity id 1", "schedule1").get(0).getId(),
-				newAlert.getId());
+		assertEquals(asList(newAlert), allActions.findAlertByANMIdEntityIdScheduleName("anm id 1", "entity id 1", "schedule1"));
+	}
+
+	@Test
+	public void shouldUpsertAlertsInBulkKeepingTheLastOfEachCombination() throws Exception {
+		Action existingAlert = new Action("entity id 1", "anm id 1", alert("schedule1", "milestone1"));
+		Action duplicateAlert = new Action("entity id 1", "anm id 1", alert("schedule1", "milestone1"));
+		allActions.add(existingAlert);
+		allActions.add(duplicateAlert);
+
+		Action replacedInBatch = new Action("entity id 1", "anm id 1", alert("schedule1", "milestone2"));
+		Action updatedAlert = new Action("entity id 1", "anm id 1", alert("schedule1", "milestone3"));
+		Action newAlert = new Action("entity id 2", "anm id 1", alert("schedule1", "milestone1"));
+		assertTrue(allActions.addOrUpdateAlerts(asList(replacedInBatch, newAlert, updatedAlert)).isEmpty());
+
+		assertEquals(2, allActions.getAll().size());
+		assertEquals(asList(updatedAlert), allActions.findAlertByANMIdEntityIdScheduleName("anm id 1", "entity id 1", "schedule1"));
+		assertEquals(asList(newAlert), allActions.findAlertByANMIdEntityIdScheduleName("anm id 1", "entity id 2", "schedule1"));
+	}
+
+	@Test(expected = DbAccessException.class)
+	public void shouldFailWhenAlertCanNotBeSaved() throws Exception {
+		Action existing = new Action("entity id 1", "anm id 1", alert("schedule1", "milestone1"));
+		allActions.add(existing);
+
+		// no schedule name, so nothing is resolved and the stale copy is written as is
+		Action stale = new Action("entity id 1", "anm id 1", ActionData.markAlertAsClosed("ANC 1", "2012-01-01"));
+		stale.setId(existing.getId());
+		allActions.addOrUpdateAlert(stale);
 	}
 
 	@Test
@@ -47,6 +47,7 @@ public class ConfigServiceIntegrationTest {
 	@Before
     public void setUp() {
 		if(allAppTokens == null){
+			configService.clearAppStateTokenCache();
 			alltokens.removeAll();
 			allAppTokens = alltokens;
 
@@ -0,0 +1,53 @@
+package org.opensrp.repository.lucene;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.opensrp.domain.Event;
+import org.opensrp.domain.Obs;
+
+public class LuceneDbConnectorTest {
+
+	@Test
+	public void shouldBindParsedRowDocToType() throws Exception {
+		Map<String, Object> obs = new HashMap<String, Object>();
+		obs.put("fieldCode", "163137AAAAA");
+		obs.put("fieldType", "concept");
+		List<Object> values = new ArrayList<Object>();
+		values.add("2017-01-01");
+		obs.put("values", values);
+		List<Object> obsList = new ArrayList<Object>();
+		obsList.add(obs);
+
+		Map<String, Object> doc = new HashMap<String, Object>();
+		doc.put("_id", "3b1d7f14");
+		doc.put("_rev", "1-abc");
+		doc.put("type", "Event");
+		doc.put("baseEntityId", "c1");
+		doc.put("eventType", "Birth Registration");
+		doc.put("eventDate", "2017-01-01T00:00:00.000Z");
+		doc.put("serverVersion", 1500000000000l);
+		doc.put("duration", 0);
+		doc.put("someFutureField", "ignored");
+		doc.put("obs", obsList);
+
+		Event event = LuceneDbConnector.asObject(doc, Event.class);
+
+		assertEquals("3b1d7f14", event.getId());
+		assertEquals("1-abc", event.getRevision());
+		assertEquals("c1", event.getBaseEntityId());
+		assertEquals("Birth Registration", event.getEventType());
+		assertEquals(new DateTime("2017-01-01T00:00:00.000Z").getMillis(), event.getEventDate().getMillis());
+		assertEquals(Long.valueOf(1500000000000l), event.getServerVersion());
+		assertEquals(1, event.getObs().size());
+		Obs o = event.getObs().get(0);
+		assertEquals("163137AAAAA", o.getFieldCode());
+		assertEquals("2017-01-01", o.getValue());
+	}
+}
@@ -0,0 +1,85 @@
+package org.opensrp.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.motechproject.scheduler.domain.MotechEvent;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.scheduler.BackgroundJob.Overlap;
+
+public class BackgroundJobTest {
+
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final AtomicInteger runs = new AtomicInteger();
+
+	private BackgroundJob job;
+
+	private BackgroundJob job(Overlap overlap) {
+		job = new BackgroundJob("test-" + overlap, overlap, Metric.EVENTS_SCHEDULE_JOB_LAG,
+		        Metric.EVENTS_LISTENER_BATCH_TIME, new BackgroundJob.Task() {
+
+			        @Override
+			        public void run(MotechEvent event) {
+				        runs.incrementAndGet();
+				        started.countDown();
+				        try {
+					        release.await(5, TimeUnit.SECONDS);
+				        }
+				        catch (InterruptedException e) {
+					        Thread.currentThread().interrupt();
+				        }
+			        }
+		        });
+		return job;
+	}
+
+	@After
+	public void tearDown() {
+		job.shutdown();
+	}
+
+	private void awaitIdle() throws InterruptedException {
+		for (int i = 0; i < 500 && job.isRunning(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(job.isRunning());
+	}
+
+	@Test
+	public void shouldDropTriggersWhileRunningWhenSkipping() throws Exception {
+		job(Overlap.SKIP);
+
+		assertTrue(job.trigger(new MotechEvent("subject")));
+		started.await(5, TimeUnit.SECONDS);
+		assertFalse(job.trigger(new MotechEvent("subject")));
+		release.countDown();
+		awaitIdle();
+
+		assertEquals(1, runs.get());
+	}
+
+	@Test
+	public void shouldFoldTriggersWhileRunningIntoOneMoreRunWhenCoalescing() throws Exception {
+		job(Overlap.COALESCE);
+
+		job.trigger(new MotechEvent("subject"));
+		started.await(5, TimeUnit.SECONDS);
+		assertTrue(job.trigger(new MotechEvent("subject")));
+		assertTrue(job.trigger(new MotechEvent("subject")));
+		assertTrue(job.trigger(new MotechEvent("subject")));
+		release.countDown();
+		awaitIdle();
+
+		assertEquals(2, runs.get());
+	}
+}
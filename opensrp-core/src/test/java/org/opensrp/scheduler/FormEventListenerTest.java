@@ -68,7 +68,7 @@ public class FormEventListenerTest {
         fs2 = new FormSubmission("anm id 2", "instance id 2", "form name", "entity id 2", "1.0", 0L, new FormInstance(new FormData("test","def/bindpath", new ArrayList<FormField>(), null)));
         List<FormSubmission> formSubmissions = asList(fs1,fs2);
         when(configService.getAppStateTokenByName(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION)).thenReturn(new AppStateToken("token", 1L, 0));
-        when(formSubmissionService.getAllSubmissions(1L, null)).thenReturn(formSubmissions);
+        when(formSubmissionService.iterateByServerVersion(1L)).thenReturn(formSubmissions);
 
         listener.parseForms(new MotechEvent("SUBJECT", null));
 
@@ -81,7 +81,7 @@ public class FormEventListenerTest {
     @Test
     public void shouldNotDoAnythingIfFetchFromSubmissionServiceReturnsEmptyList() throws Exception {
         when(configService.getAppStateTokenByName(Config.FORM_ENTITY_PARSER_LAST_SYNCED_FORM_SUBMISSION)).thenReturn(new AppStateToken("token", 1L, 0));
-        when(formSubmissionService.getAllSubmissions(1L, null)).thenReturn(Collections.EMPTY_LIST);
+        when(formSubmissionService.iterateByServerVersion(1L)).thenReturn(Collections.<FormSubmission>emptyList());
 
         listener.parseForms(new MotechEvent("SUBJECT", null));
 
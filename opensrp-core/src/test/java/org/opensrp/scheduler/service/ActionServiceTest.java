@@ -1,6 +1,8 @@
 package org.opensrp.scheduler.service;
 
 import com.google.gson.Gson;
+import org.ektorp.DbAccessException;
+import org.ektorp.DocumentOperationResult;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.joda.time.format.DateTimeFormat;
@@ -64,6 +66,14 @@ public class ActionServiceTest {
         service = new ActionService(allActions, allAlerts);
     }
 
+    @Test(expected = DbAccessException.class)
+    public void shouldFailWhenAlertsCouldNotBeSaved() throws Exception {
+        List<Action> alerts = asList(new Action("Case X", "ANM ID M", ActionData.createAlert("mother", "Ante Natal Care - Normal", "ANC 1", normal, DATE_TIME, DATE_TIME)));
+        when(allActions.addOrUpdateAlerts(alerts)).thenReturn(asList(DocumentOperationResult.newInstance("id", "forbidden", "invalid doc")));
+
+        service.alertForBeneficiaries(alerts);
+    }
+
     @Test
     public void shouldSaveAlertActionForEntity() throws Exception {
         DateTime dueDate = DateTime.now().minusDays(1);
@@ -0,0 +1,135 @@
+package org.opensrp.scheduler.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.ViewQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.mockito.stubbing.OngoingStubbing;
+import org.motechproject.scheduletracking.api.domain.Schedule;
+import org.motechproject.scheduletracking.api.domain.ScheduleFactory;
+import org.motechproject.scheduletracking.api.domain.json.ScheduleRecord;
+import org.motechproject.scheduletracking.api.repository.TrackedSchedulesJsonReader;
+
+public class AllScheduleWrapperTest {
+
+	@Mock
+	private CouchDbConnector db;
+
+	@Mock
+	private TrackedSchedulesJsonReader trackedSchedulesJsonReader;
+
+	@Mock
+	private ScheduleFactory scheduleFactory;
+
+	private AllScheduleWrapper allSchedules;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		allSchedules = new AllScheduleWrapper(db, trackedSchedulesJsonReader, scheduleFactory);
+	}
+
+	@Test
+	public void shouldServeLoadedRecordsFromMemory() {
+		ScheduleRecord anc = record("ANC");
+		whenQueried().thenReturn(asList(anc));
+
+		allSchedules.refreshDefinitions();
+
+		assertSame(anc, allSchedules.getRecordByName("ANC"));
+		assertSame(anc, allSchedules.getRecordByName("ANC"));
+		verify(db, times(1)).queryView(any(ViewQuery.class), eq(ScheduleRecord.class));
+	}
+
+	@Test
+	public void shouldFetchRecordMissingFromMemoryOnceAndKeepIt() {
+		ScheduleRecord pnc = record("PNC");
+		whenQueried().thenReturn(new ArrayList<ScheduleRecord>(), asList(pnc));
+
+		assertSame(pnc, allSchedules.getRecordByName("PNC"));
+		assertSame(pnc, allSchedules.getRecordByName("PNC"));
+		verify(db, times(2)).queryView(any(ViewQuery.class), eq(ScheduleRecord.class));
+	}
+
+	@Test
+	public void shouldReturnNullForUnknownSchedule() {
+		whenQueried().thenReturn(new ArrayList<ScheduleRecord>());
+
+		assertNull(allSchedules.getByName("unknown"));
+	}
+
+	@Test
+	public void shouldBuildScheduleForEveryLookup() {
+		ScheduleRecord anc = record("ANC");
+		whenQueried().thenReturn(asList(anc));
+		when(scheduleFactory.build(anc, Locale.getDefault())).thenReturn(mock(Schedule.class), mock(Schedule.class));
+
+		assertNotSame(allSchedules.getByName("ANC"), allSchedules.getByName("ANC"));
+		verify(scheduleFactory, times(2)).build(anc, Locale.getDefault());
+	}
+
+	@Test
+	public void shouldReloadRecordsAfterWrite() {
+		ScheduleRecord anc = record("ANC");
+		ScheduleRecord updatedAnc = record("ANC");
+		whenQueried().thenReturn(asList(anc), asList(updatedAnc));
+		allSchedules.refreshDefinitions();
+
+		allSchedules.update(updatedAnc);
+
+		assertSame(updatedAnc, allSchedules.getRecordByName("ANC"));
+	}
+
+	@Test
+	public void shouldDiscardRefreshThatWasRunningWhenRecordsWereWritten() {
+		final ScheduleRecord anc = record("ANC");
+		final ScheduleRecord updatedAnc = record("ANC");
+		whenQueried().thenAnswer(new Answer<List<ScheduleRecord>>() {
+
+			private int calls;
+
+			@Override
+			public List<ScheduleRecord> answer(InvocationOnMock invocation) {
+				if (calls++ == 0) {
+					// the record is written after the refresh read the old one
+					allSchedules.update(updatedAnc);
+					return asList(anc);
+				}
+				return asList(updatedAnc);
+			}
+		});
+
+		allSchedules.refreshDefinitions();
+
+		assertSame(updatedAnc, allSchedules.getRecordByName("ANC"));
+	}
+
+	private OngoingStubbing<List<ScheduleRecord>> whenQueried() {
+		return when(db.queryView(any(ViewQuery.class), eq(ScheduleRecord.class)));
+	}
+
+	private static ScheduleRecord record(String name) {
+		ScheduleRecord record = mock(ScheduleRecord.class);
+		when(record.name()).thenReturn(name);
+		return record;
+	}
+}
@@ -0,0 +1,110 @@
+package org.opensrp.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.ektorp.DocumentOperationResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.opensrp.domain.Client;
+import org.opensrp.repository.AllClients;
+
+public class ClientServiceUsingMockTest {
+
+	@Mock
+	private AllClients allClients;
+
+	@Mock
+	private ServerVersionAllocator serverVersionAllocator;
+
+	private ClientService clientService;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		clientService = new ClientService(allClients, serverVersionAllocator);
+		when(serverVersionAllocator.next()).thenReturn(1500000000001l);
+		when(allClients.saveAll(anyCollectionOf(Client.class))).thenReturn(new ArrayList<DocumentOperationResult>());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldResolveExistingClientsAndSaveBatchInOneRequest() {
+		Client existing = new Client("c1");
+		existing.setId("doc-1");
+		existing.setRevision("3-abc");
+		Client byIdentifier = new Client("c-old");
+		byIdentifier.setId("doc-2");
+		byIdentifier.setRevision("1-def");
+		byIdentifier.addIdentifier("ZEIR_ID", "Z2");
+		when(allClients.findByBaseEntityIds(anyCollectionOf(String.class))).thenReturn(asList(existing));
+		when(allClients.findAllByIdentifiers(anyCollectionOf(String.class))).thenReturn(asList(byIdentifier));
+
+		Client update = new Client("c1");
+		Client matchedByIdentifier = new Client("c2");
+		matchedByIdentifier.addIdentifier("ZEIR_ID", "Z2");
+		Client created = new Client("c3");
+		Client noBaseEntityId = new Client(null);
+
+		List<RecordStatus> statuses = clientService.addorUpdate(asList(update, matchedByIdentifier, created, noBaseEntityId));
+
+		assertEquals(RecordStatus.Status.UPDATED, statuses.get(0).getStatus());
+		assertEquals("doc-1", update.getId());
+		assertEquals("3-abc", update.getRevision());
+		assertNotNull(update.getDateEdited());
+		assertEquals(Long.valueOf(1500000000001l), update.getServerVersion());
+		assertEquals(RecordStatus.Status.UPDATED, statuses.get(1).getStatus());
+		assertEquals("doc-2", matchedByIdentifier.getId());
+		assertEquals(RecordStatus.Status.CREATED, statuses.get(2).getStatus());
+		assertNotNull(created.getId());
+		assertNotNull(created.getDateCreated());
+		assertEquals(RecordStatus.Status.FAILED, statuses.get(3).getStatus());
+
+		ArgumentCaptor<Collection> saved = ArgumentCaptor.forClass(Collection.class);
+		verify(allClients).saveAll(saved.capture());
+		assertEquals(3, saved.getValue().size());
+	}
+
+	@Test
+	public void shouldReportBulkFailuresPerClient() {
+		when(allClients.findByBaseEntityIds(anyCollectionOf(String.class))).thenReturn(new ArrayList<Client>());
+		when(allClients.findAllByIdentifiers(anyCollectionOf(String.class))).thenReturn(new ArrayList<Client>());
+		Client first = new Client("c1");
+		first.setId("doc-1");
+		Client second = new Client("c2");
+		second.setId("doc-2");
+		when(allClients.saveAll(anyCollectionOf(Client.class))).thenReturn(
+		    asList(DocumentOperationResult.newInstance("doc-2", "conflict", "Document update conflict.")));
+
+		List<RecordStatus> statuses = clientService.addorUpdate(asList(first, second));
+
+		assertEquals(RecordStatus.Status.CREATED, statuses.get(0).getStatus());
+		assertEquals(RecordStatus.Status.FAILED, statuses.get(1).getStatus());
+		assertEquals("conflict: Document update conflict.", statuses.get(1).getError());
+	}
+
+	@Test
+	public void shouldSaveOnlyLastOccurrenceOfDuplicateClient() {
+		when(allClients.findByBaseEntityIds(anyCollectionOf(String.class))).thenReturn(new ArrayList<Client>());
+		when(allClients.findAllByIdentifiers(anyCollectionOf(String.class))).thenReturn(new ArrayList<Client>());
+		Client first = new Client("c1");
+		Client second = new Client("c1");
+
+		List<RecordStatus> statuses = clientService.addorUpdate(asList(first, second));
+
+		assertEquals(2, statuses.size());
+		assertEquals(statuses.get(1), statuses.get(0));
+		assertEquals(second.getId(), statuses.get(0).getId());
+	}
+}
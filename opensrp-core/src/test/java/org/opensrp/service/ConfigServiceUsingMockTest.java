@@ -0,0 +1,127 @@
+package org.opensrp.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import org.ektorp.UpdateConflictException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.opensrp.common.AllConstants;
+import org.opensrp.domain.AppStateToken;
+import org.opensrp.repository.AllAppStateTokens;
+
+public class ConfigServiceUsingMockTest {
+
+	@Mock
+	private AllAppStateTokens allAppStateTokens;
+
+	private ConfigService configService;
+
+	private AppStateToken token;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		configService = new ConfigService(allAppStateTokens, 3, 0);
+		token = new AppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT.name(), 1l, 0l);
+		when(allAppStateTokens.findByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT.name()))
+		        .thenReturn(asList(token));
+	}
+
+	@Test
+	public void shouldServeReadsFromCache() {
+		configService.getAppStateTokenByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT);
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 5l);
+
+		AppStateToken actual = configService.getAppStateTokenByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT);
+
+		assertEquals(5l, actual.longValue());
+		verify(allAppStateTokens, times(1)).findByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT.name());
+	}
+
+	@Test
+	public void shouldSaveOnceEveryFlushUpdates() {
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 2l);
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 3l);
+		verify(allAppStateTokens, never()).update(any(AppStateToken.class));
+
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 4l);
+		verify(allAppStateTokens, times(1)).update(token);
+		assertEquals(4l, token.longValue());
+	}
+
+	@Test
+	public void shouldSaveAtOnceWhenFlushIsRequested() {
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 2l, true);
+
+		verify(allAppStateTokens, times(1)).update(token);
+	}
+
+	@Test
+	public void shouldSavePendingUpdatesOnShutdown() {
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 2l);
+
+		configService.shutdown();
+		configService.shutdown();
+
+		verify(allAppStateTokens, times(1)).update(token);
+	}
+
+	@Test
+	public void shouldKeepStoredValueWhenItIsAheadOfConflictingUpdate() {
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 2l);
+		givenConcurrentSaveOf(7l);
+
+		configService.flushAppStateTokens();
+
+		verify(allAppStateTokens, times(1)).update(token);
+		assertEquals(7l, configService.getAppStateTokenByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT)
+		        .longValue());
+		assertEquals("rev-2", token.getRevision());
+	}
+
+	@Test
+	public void shouldOverwriteStoredValueWhenConflictingUpdateIsAheadOfIt() {
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 9l);
+		givenConcurrentSaveOf(7l);
+
+		configService.flushAppStateTokens();
+
+		verify(allAppStateTokens, times(2)).update(token);
+		assertEquals(9l, token.longValue());
+		assertEquals("rev-2", token.getRevision());
+	}
+
+	@Test(expected = UpdateConflictException.class)
+	public void shouldFailWhenConflictingUpdateConflictsAgain() {
+		configService.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 9l);
+		givenConcurrentSaveOf(7l);
+		doThrow(new UpdateConflictException()).when(allAppStateTokens).update(token);
+
+		configService.flushAppStateTokens();
+	}
+
+	@Test
+	public void shouldWriteThroughWithDefaultConstructor() {
+		ConfigService writeThrough = new ConfigService(allAppStateTokens);
+
+		writeThrough.updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 2l);
+
+		verify(allAppStateTokens, times(1)).update(token);
+	}
+
+	private void givenConcurrentSaveOf(long value) {
+		AppStateToken stored = new AppStateToken(token.getName(), value, System.currentTimeMillis());
+		stored.setRevision("rev-2");
+		when(allAppStateTokens.findByName(token.getName())).thenReturn(asList(stored));
+		doThrow(new UpdateConflictException()).doNothing().when(allAppStateTokens).update(token);
+	}
+}
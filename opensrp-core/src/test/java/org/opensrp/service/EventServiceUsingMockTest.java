@@ -0,0 +1,94 @@
+package org.opensrp.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.DocumentOperationResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.opensrp.domain.Event;
+import org.opensrp.repository.AllEvents;
+
+public class EventServiceUsingMockTest {
+
+	@Mock
+	private AllEvents allEvents;
+
+	@Mock
+	private ClientService clientService;
+
+	private EventService eventService;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		eventService = new EventService(allEvents, clientService);
+	}
+
+	@Test
+	public void shouldUpdateExistingAndCreateNewEventsInOneBatch() {
+		Map<String, String> revisions = new HashMap<String, String>();
+		revisions.put("e1", "2-abc");
+		when(allEvents.findRevisions(anyCollectionOf(String.class))).thenReturn(revisions);
+		when(allEvents.saveAll(anyCollectionOf(Event.class))).thenReturn(
+		    asList(DocumentOperationResult.newInstance("e3", "forbidden", "invalid doc")));
+
+		Event existing = new Event().withBaseEntityId("c1");
+		existing.setId("e1");
+		existing.setServerVersion(5l);
+		Event created = new Event().withBaseEntityId("c1");
+		Event rejected = new Event().withBaseEntityId("c2");
+		rejected.setId("e3");
+
+		List<RecordStatus> statuses = eventService.addorUpdateEvents(asList(existing, created, rejected));
+
+		assertEquals(RecordStatus.Status.UPDATED, statuses.get(0).getStatus());
+		assertEquals("2-abc", existing.getRevision());
+		assertNull(existing.getServerVersion());
+		assertNotNull(existing.getDateEdited());
+		assertEquals(RecordStatus.Status.CREATED, statuses.get(1).getStatus());
+		assertNotNull(created.getId());
+		assertNotNull(created.getDateCreated());
+		assertEquals(RecordStatus.Status.FAILED, statuses.get(2).getStatus());
+		assertEquals("c2", statuses.get(2).getBaseEntityId());
+	}
+
+	@Test
+	public void shouldSaveLargeBatchesInLockedSubBatches() {
+		when(allEvents.findRevisions(anyCollectionOf(String.class))).thenReturn(new HashMap<String, String>());
+		when(allEvents.saveAll(anyCollectionOf(Event.class))).thenReturn(new ArrayList<DocumentOperationResult>());
+		List<Event> events = new ArrayList<Event>();
+		for (int i = 0; i < EventService.LOCK_BATCH_SIZE * 2 + 1; i++) {
+			events.add(new Event().withBaseEntityId("c" + i));
+		}
+
+		List<RecordStatus> statuses = eventService.addorUpdateEvents(events);
+
+		assertEquals(events.size(), statuses.size());
+		for (int i = 0; i < events.size(); i++) {
+			assertEquals("c" + i, statuses.get(i).getBaseEntityId());
+			assertEquals(RecordStatus.Status.CREATED, statuses.get(i).getStatus());
+		}
+		verify(allEvents, times(3)).saveAll(anyCollectionOf(Event.class));
+	}
+
+	@Test
+	public void shouldReturnNoStatusesForEmptyBatch() {
+		when(allEvents.saveAll(anyCollectionOf(Event.class))).thenReturn(new ArrayList<DocumentOperationResult>());
+
+		assertEquals(0, eventService.addorUpdateEvents(new ArrayList<Event>()).size());
+	}
+}
@@ -0,0 +1,87 @@
+package org.opensrp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.opensrp.common.AllConstants;
+import org.opensrp.domain.AppStateToken;
+
+public class ServerVersionAllocatorTest {
+
+	@Mock
+	private ConfigService configService;
+
+	private ServerVersionAllocator allocator;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		when(configService.getAppStateTokenByName(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL))
+		        .thenReturn(new AppStateToken(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL.name(), 0l, 0l));
+		allocator = spy(new ServerVersionAllocator(configService));
+	}
+
+	@Test
+	public void shouldHandOutIncreasingVersionsWhenClockDoesNotMove() {
+		when(allocator.currentTimeMillis()).thenReturn(1000l);
+
+		assertEquals(1000l, allocator.next());
+		assertEquals(1001l, allocator.next());
+		assertEquals(1002l, allocator.nextBlock(5));
+		assertEquals(1007l, allocator.next());
+	}
+
+	@Test
+	public void shouldFollowClockWhenItMovesAhead() {
+		when(allocator.currentTimeMillis()).thenReturn(1000l, 5000l);
+
+		assertEquals(1000l, allocator.next());
+		assertEquals(5000l, allocator.next());
+	}
+
+	@Test
+	public void shouldNeverGoBackwardsWhenClockDoes() {
+		when(allocator.currentTimeMillis()).thenReturn(5000l, 1000l);
+
+		assertEquals(5000l, allocator.next());
+		assertEquals(5001l, allocator.next());
+	}
+
+	@Test
+	public void shouldStartAbovePersistedReservation() {
+		when(configService.getAppStateTokenByName(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL))
+		        .thenReturn(new AppStateToken(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL.name(), 9000l, 0l));
+		when(allocator.currentTimeMillis()).thenReturn(1000l);
+
+		assertTrue(allocator.next() > 9000l);
+	}
+
+	@Test
+	public void shouldPersistReservationOncePerReservedRange() {
+		when(allocator.currentTimeMillis()).thenReturn(1000l);
+
+		allocator.next();
+		allocator.nextBlock(100);
+		verify(configService, times(1)).updateAppStateToken(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL,
+		    1000l + ServerVersionAllocator.RESERVATION, true);
+
+		allocator.nextBlock((int) ServerVersionAllocator.RESERVATION);
+		verify(configService, times(2)).updateAppStateToken(eq(AllConstants.Config.SERVER_VERSION_RESERVED_UNTIL),
+		    anyObject(), eq(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectEmptyBlock() {
+		allocator.nextBlock(0);
+	}
+}
@@ -18,16 +18,20 @@ import org.opensrp.service.ClientService;
 import org.opensrp.service.ConfigService;
 import org.opensrp.service.ErrorTraceService;
 import org.opensrp.service.EventService;
+import org.opensrp.service.ServerVersionAllocator;
 import org.opensrp.service.formSubmission.handler.EventsHandler;
 import org.opensrp.service.formSubmission.handler.EventsRouter;
 import org.opensrp.service.formSubmission.handler.IHandlerMapper;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
@@ -46,6 +50,8 @@ public class EventListenerTest {
     private ErrorTraceService errorTraceService;
     @Mock
     private ClientService clientService;
+    @Mock
+    private ServerVersionAllocator serverVersionAllocator;
     IHandlerMapper handlerMapper;
 
     private EventService eventService;
@@ -58,6 +64,7 @@ public class EventListenerTest {
         allEvents = mock(AllEvents.class);
         clientService = mock(ClientService.class);
         allClients = mock(AllClients.class);
+        serverVersionAllocator = mock(ServerVersionAllocator.class);
         handlerMapper = mock(IHandlerMapper.class);
 
         when(configService.registerAppStateToken(any(AllConstants.Config.class), Matchers.anyObject(), anyString(), anyBoolean()))
@@ -65,7 +72,7 @@ public class EventListenerTest {
         eventsRouter = new EventsRouter(handlerMapper, "/schedules/schedule-configs");
         eventService = new EventService(allEvents, clientService);
         eventsListener = new EventsListener(eventsRouter, configService, allEvents, eventService,
-                errorTraceService, allClients);
+                errorTraceService, allClients, serverVersionAllocator);
     }
 
     @Test
@@ -85,27 +92,73 @@ public class EventListenerTest {
         when(configService.getAppStateTokenByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT))
                 .thenReturn(new AppStateToken("token", 1l, 0l));
         when(allEvents.findByEmptyServerVersion()).thenReturn(events, Collections.EMPTY_LIST);
-        when(allEvents.findByServerVersion(1l)).thenReturn(events);
+        when(allEvents.findByServerVersion(1l, EventsListener.DEFAULT_PAGE_SIZE)).thenReturn(events);
         when(clientService.findAllByIdentifier(AllConstants.Client.ZEIR_ID.toUpperCase(), "2"))
                 .thenReturn(clients);
         when(allEvents.findByBaseEntityAndType("222", "Birth Registration")).thenReturn(events);
 
         when(handlerMapper.handlerMap()).thenReturn(handlerMap);
+        when(serverVersionAllocator.nextBlock(1)).thenReturn(100l);
+        when(serverVersionAllocator.nextBlock(2)).thenReturn(101l);
 
-
-        EventsListener spyEventListener = spy(eventsListener);
-        when(spyEventListener.getCurrentMilliseconds()).thenReturn(0l);
-
-        spyEventListener.processEvent(new MotechEvent("motechEvent"));
+        eventsListener.processEvent(new MotechEvent("motechEvent"));
 
 
         InOrder inOrder = inOrder(allClients, allEvents, eventHandler);
-        clients.get(0).setServerVersion(System.currentTimeMillis());
-        events.get(0).setServerVersion(System.currentTimeMillis());
-        inOrder.verify(allClients).update(clients.get(0));
-        inOrder.verify(allEvents).update(events.get(0));
+        inOrder.verify(allClients).saveAll(clients);
+        inOrder.verify(allEvents).saveAll(events);
         inOrder.verify(eventHandler, atLeastOnce()).handle(eq(events.get(0)), any(JSONObject.class), eq("BCG"));
+        assertEquals(Long.valueOf(100l), clients.get(0).getServerVersion());
+        assertEquals(Long.valueOf(101l), events.get(0).getServerVersion());
+        assertEquals(Long.valueOf(102l), events.get(1).getServerVersion());
+        verify(configService).updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 102l);
+
+    }
+
+    @Test
+    public void shouldRouteEventsOfAClientInOrderAndCommitTokenOncePerPage() throws Exception {
+        final List<Event> routed = Collections.synchronizedList(new ArrayList<Event>());
+        EventsHandler eventHandler = new EventsHandler() {
+
+            @Override
+            public void handle(Event event, JSONObject scheduleConfigEvent, String scheduleName) {
+                routed.add(event);
+            }
+        };
+        Map<String, EventsHandler> handlerMap = new HashMap<>();
+        handlerMap.put("VaccinesScheduleHandler", eventHandler);
+
+        List<Event> events = new ArrayList<>();
+        long serverVersion = 10;
+        for (int i = 0; i < 5; i++) {
+            for (String baseEntityId : asList("c1", "c2", "c3")) {
+                Event event = new Event().withBaseEntityId(baseEntityId).withEventType("Vaccination");
+                event.setVersion(serverVersion);
+                event.setServerVersion(serverVersion++);
+                events.add(event);
+            }
+        }
+
+        when(allClients.findByEmptyServerVersion()).thenReturn(Collections.<Client>emptyList());
+        when(allEvents.findByEmptyServerVersion()).thenReturn(Collections.<Event>emptyList());
+        when(configService.getAppStateTokenByName(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT))
+                .thenReturn(new AppStateToken("token", 9l, 0l));
+        when(allEvents.findByServerVersion(9l, EventsListener.DEFAULT_PAGE_SIZE)).thenReturn(events);
+        when(handlerMapper.handlerMap()).thenReturn(handlerMap);
 
+        eventsListener.processEvent(new MotechEvent("motechEvent"));
+
+        Map<String, Long> lastSeen = new HashMap<>();
+        synchronized (routed) {
+            for (Event event : routed) {
+                Long previous = lastSeen.put(event.getBaseEntityId(), event.getServerVersion());
+                if (previous != null) {
+                    assertTrue(previous <= event.getServerVersion());
+                }
+            }
+        }
+        assertTrue(routed.containsAll(events));
+        verify(configService, times(1)).updateAppStateToken(AllConstants.Config.EVENTS_PARSER_LAST_PROCESSED_EVENT, 24l);
     }
 
     @Test
@@ -0,0 +1,101 @@
+package org.opensrp.service.formSubmission.handler;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.opensrp.domain.Event;
+
+public class EventsRouterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EventsHandler vaccinesHandler;
+
+	private EventsHandler ancHandler;
+
+	private EventsRouter eventsRouter;
+
+	@Before
+	public void setUp() throws Exception {
+		vaccinesHandler = mock(EventsHandler.class);
+		ancHandler = mock(EventsHandler.class);
+		Map<String, EventsHandler> handlers = new HashMap<String, EventsHandler>();
+		handlers.put("VaccinesScheduleHandler", vaccinesHandler);
+		handlers.put("ANCScheduleHandler", ancHandler);
+		IHandlerMapper handlerMapper = mock(IHandlerMapper.class);
+		when(handlerMapper.handlerMap()).thenReturn(handlers);
+
+		writeConfig("a-vaccines.json", "{\"name\": \"BCG\", \"events\": [{\"types\": [\"Birth Registration\"], \"action\": \"enroll\"},"
+		        + "{\"types\": [\"Vaccination\"], \"action\": \"fulfill\"}]}");
+		writeConfig("b-anc.json", "{\"name\": \"ANC\", \"handler\": \"ANCScheduleHandler\", \"events\": "
+		        + "[{\"types\": [\"Birth Registration\", \"ANC Visit\"], \"action\": \"enroll\"}]}");
+
+		eventsRouter = new EventsRouter(handlerMapper, folder.getRoot().getAbsolutePath());
+	}
+
+	private void writeConfig(String name, String config) throws Exception {
+		FileUtils.writeStringToFile(new File(folder.getRoot(), name), config, "UTF-8");
+	}
+
+	@Test
+	public void shouldRouteEventToEveryScheduleConfiguredForItsTypeInConfigOrder() {
+		Event event = new Event().withEventType("Birth Registration");
+
+		eventsRouter.route(event);
+
+		InOrder inOrder = inOrder(vaccinesHandler, ancHandler);
+		inOrder.verify(vaccinesHandler).handle(eq(event), any(JSONObject.class), eq("BCG"));
+		inOrder.verify(ancHandler).handle(eq(event), any(JSONObject.class), eq("ANC"));
+	}
+
+	@Test
+	public void shouldNotRouteEventWithUnknownType() {
+		eventsRouter.route(new Event().withEventType("Death"));
+
+		verify(vaccinesHandler, never()).handle(any(Event.class), any(JSONObject.class), any(String.class));
+		verify(ancHandler, never()).handle(any(Event.class), any(JSONObject.class), any(String.class));
+	}
+
+	@Test
+	public void shouldReloadRoutesWhenScheduleConfigsChange() throws Exception {
+		eventsRouter.reloadCheckIntervalMillis = 0;
+		Event event = new Event().withEventType("Death");
+		eventsRouter.route(event);
+
+		writeConfig("c-death.json", "{\"name\": \"Death\", \"handler\": \"ANCScheduleHandler\", \"events\": "
+		        + "[{\"types\": [\"Death\"], \"action\": \"unenroll\"}]}");
+		eventsRouter.route(event);
+
+		verify(ancHandler, times(1)).handle(eq(event), any(JSONObject.class), eq("Death"));
+	}
+
+	@Test
+	public void shouldNotReloadRoutesBeforeTheCheckInterval() throws Exception {
+		Event event = new Event().withEventType("Death");
+		eventsRouter.route(event);
+
+		writeConfig("c-death.json", "{\"name\": \"Death\", \"handler\": \"ANCScheduleHandler\", \"events\": "
+		        + "[{\"types\": [\"Death\"], \"action\": \"unenroll\"}]}");
+		eventsRouter.route(event);
+
+		verify(ancHandler, never()).handle(any(Event.class), any(JSONObject.class), any(String.class));
+	}
+}
@@ -0,0 +1,116 @@
+package org.opensrp.service.formSubmission.ziggy;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opensrp.service.formSubmission.handler.FormSubmissionRouter;
+
+public class ZiggyServicePoolTest {
+    /**
+     * Stands in for the ziggy scripts: each engine takes a name from the file loader when it is created and the
+     * controller saves the form under that name, so a test can tell the engines apart
+     */
+    private static final String ZIGGY_STUB = "var engineName = ziggyFileLoader.loadAppData('engine');\n" +
+            "var require = function (modules, callback) {\n" +
+            "    callback({ createOrUpdateEntity: function (params, formInstance) {\n" +
+            "        formDataRepositoryContext.saveEntity(engineName, params);\n" +
+            "    } });\n" +
+            "};";
+
+    @Mock
+    private ZiggyFileLoader ziggyFileLoader;
+    @Mock
+    private ZiggyDataHandler ziggyDataHandler;
+    @Mock
+    private FormSubmissionRouter formSubmissionRouter;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        when(ziggyFileLoader.getJSFiles()).thenReturn(ZIGGY_STUB);
+        when(ziggyFileLoader.loadAppData("engine")).thenReturn("engine 1", "engine 2");
+    }
+
+    @Test
+    public void shouldGiveConcurrentSavesAnEngineEach() throws Exception {
+        final ZiggyService service = new ZiggyService(ziggyFileLoader, ziggyDataHandler, formSubmissionRouter, 2);
+        final CountDownLatch saving = new CountDownLatch(2);
+        final Set<String> enginesUsed = new HashSet<String>();
+        when(ziggyDataHandler.saveEntity(anyString(), anyString())).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                synchronized (enginesUsed) {
+                    enginesUsed.add((String) invocation.getArguments()[0]);
+                }
+                // both saves have to be inside an engine at the same time to get past this
+                saving.countDown();
+                saving.await(5, TimeUnit.SECONDS);
+                return "entity";
+            }
+        });
+
+        List<Thread> savers = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++) {
+            final String params = "{\"instanceId\":\"" + i + "\"}";
+            savers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    service.saveForm(params, "{}");
+                }
+            }));
+        }
+        for (Thread saver : savers) {
+            saver.start();
+        }
+        for (Thread saver : savers) {
+            saver.join(10000);
+        }
+
+        assertEquals(0, saving.getCount());
+        assertEquals(2, enginesUsed.size());
+        assertEquals(2, service.getAvailableEngines());
+        assertEquals(2, service.getBorrowCount());
+    }
+
+    @Test
+    public void shouldReturnEngineToPoolWhenSaveFails() throws Exception {
+        ZiggyService service = new ZiggyService(ziggyFileLoader, ziggyDataHandler, formSubmissionRouter, 1);
+        when(ziggyDataHandler.saveEntity(anyString(), anyString())).thenThrow(new RuntimeException("save failed"));
+
+        service.saveForm("{}", "{}");
+        assertEquals(1, service.getAvailableEngines());
+
+        service.saveForm("{}", "{}");
+        assertEquals(1, service.getAvailableEngines());
+        verify(ziggyDataHandler, times(2)).saveEntity("engine 1", "{}");
+    }
+
+    @Test
+    public void shouldFallBackToOneEngineWhenPoolSizeIsNotPositive() throws Exception {
+        ZiggyService service = new ZiggyService(ziggyFileLoader, ziggyDataHandler, formSubmissionRouter, 0);
+
+        assertEquals(1, service.getPoolSize());
+        assertEquals(1, service.getAvailableEngines());
+
+        service = new ZiggyService(ziggyFileLoader, ziggyDataHandler, formSubmissionRouter, -3);
+
+        assertEquals(1, service.getPoolSize());
+        assertEquals(1, service.getAvailableEngines());
+    }
+}
@@ -33,11 +33,13 @@ public class ConfigServiceTest extends BaseIntegrationTest {
 
 	@Before
 	public void setUp() {
+		configService.clearAppStateTokenCache();
 		allAppStateTokens.removeAll();
 	}
 
 	@After
 	public void cleanUp() {
+		configService.clearAppStateTokenCache();
 		allAppStateTokens.removeAll();
 	}
 
@@ -89,6 +91,7 @@ public class ConfigServiceTest extends BaseIntegrationTest {
 		expectedAppStateToken.setValue(DIFFERENT_BASE_ENTITY_ID);
 
 		configService.updateAppStateToken(APP_STATE_TOKEN_NAME, DIFFERENT_BASE_ENTITY_ID);
+		configService.flushAppStateTokens();
 
 		List<AppStateToken> allTokens = allAppStateTokens.getAll();
 		assertEquals(1, allTokens.size());
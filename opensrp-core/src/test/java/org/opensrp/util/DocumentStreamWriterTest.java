@@ -0,0 +1,59 @@
+package org.opensrp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.junit.Test;
+
+public class DocumentStreamWriterTest {
+
+	private static final String VIEW_RESPONSE = "{\"total_rows\":3,\"offset\":0,\"rows\":["
+	        + "{\"id\":\"e1\",\"key\":\"e1\",\"value\":{\"rev\":\"1-a\"},\"doc\":{\"_id\":\"e1\",\"_rev\":\"1-a\",\"type\":\"Event\",\"baseEntityId\":\"c1\",\"serverVersion\":15,\"obs\":[{\"fieldCode\":\"x\",\"values\":[\"1\"]}]}},"
+	        + "{\"key\":\"missing\",\"error\":\"not_found\"},"
+	        + "{\"id\":\"e2\",\"key\":\"e2\",\"value\":{\"rev\":\"2-b\",\"deleted\":true},\"doc\":null},"
+	        + "{\"id\":\"e3\",\"key\":\"e3\",\"value\":{\"rev\":\"1-c\"},\"doc\":{\"_id\":\"e3\",\"_rev\":\"1-c\",\"type\":\"Event\",\"baseEntityId\":\"c1\",\"serverVersion\":17}}"
+	        + "]}";
+
+	@Test
+	public void shouldCopyDocsAndRenameCouchFields() throws Exception {
+		StringWriter out = new StringWriter();
+		JsonGenerator generator = new JsonFactory().createJsonGenerator(out);
+		DocumentStreamWriter writer = new DocumentStreamWriter(generator);
+
+		generator.writeStartArray();
+		int written = writer.writeDocs(new ByteArrayInputStream(VIEW_RESPONSE.getBytes("UTF-8")));
+		generator.writeEndArray();
+		generator.close();
+
+		assertEquals(2, written);
+		assertEquals(2, writer.getCount());
+		assertEquals(Long.valueOf(17), writer.getLastServerVersion());
+		assertEquals(Arrays.asList("c1"), Arrays.asList(writer.getBaseEntityIds().toArray()));
+		assertEquals("[{\"id\":\"e1\",\"revision\":\"1-a\",\"type\":\"Event\",\"baseEntityId\":\"c1\",\"serverVersion\":15,"
+		        + "\"obs\":[{\"fieldCode\":\"x\",\"values\":[\"1\"]}]},"
+		        + "{\"id\":\"e3\",\"revision\":\"1-c\",\"type\":\"Event\",\"baseEntityId\":\"c1\",\"serverVersion\":17}]",
+		    out.toString());
+	}
+
+	@Test
+	public void shouldWriteNothingForEmptyResponse() throws Exception {
+		StringWriter out = new StringWriter();
+		JsonGenerator generator = new JsonFactory().createJsonGenerator(out);
+		DocumentStreamWriter writer = new DocumentStreamWriter(generator);
+
+		generator.writeStartArray();
+		writer.writeDocs(new ByteArrayInputStream("{\"total_rows\":0,\"offset\":0,\"rows\":[]}".getBytes("UTF-8")));
+		generator.writeEndArray();
+		generator.close();
+
+		assertEquals(0, writer.getCount());
+		assertNull(writer.getLastServerVersion());
+		assertEquals("[]", out.toString());
+	}
+}
@@ -11,6 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
 import org.opensrp.common.AllConstants;
+import org.opensrp.common.util.ServerVersionPager;
 
 import java.util.List;
 
@@ -41,6 +42,37 @@ public class AllFormSubmissions extends MotechBaseRepository<FormSubmission> {
         return db.queryView(createQuery("formSubmission_by_server_version").startKey(startKey).endKey(endKey).includeDocs(true), FormSubmission.class);
     }
 
+    /**
+     * Lazily iterate over all submissions with a greater serverVersion, in serverVersion order, holding one page of
+     * submissions in memory at a time.
+     */
+    public ServerVersionPager<FormSubmission> iterateByServerVersion(long serverVersion, int pageSize) {
+        return new ServerVersionPager<FormSubmission>(serverVersion, pageSize) {
+            @Override
+            protected List<FormSubmission> fetch(long startVersion, String startDocId, int limit) {
+                ViewQuery query = createQuery("formSubmission_by_server_version")
+                        .startKey(ComplexKey.of(startVersion))
+                        .endKey(ComplexKey.of(Long.MAX_VALUE))
+                        .limit(limit)
+                        .includeDocs(true);
+                if (startDocId != null) {
+                    query.startDocId(startDocId);
+                }
+                return db.queryView(query, FormSubmission.class);
+            }
+
+            @Override
+            protected long serverVersionOf(FormSubmission submission) {
+                return submission.serverVersion();
+            }
+
+            @Override
+            protected String idOf(FormSubmission submission) {
+                return submission.getId();
+            }
+        };
+    }
+
     public List<FormSubmission> allFormSubmissions(long serverVersion, Integer batchSize) {
         ComplexKey startKey = ComplexKey.of(serverVersion + 1);
         ComplexKey endKey = ComplexKey.of(Long.MAX_VALUE);
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -33,7 +34,6 @@ import org.springframework.stereotype.Service;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import com.google.gson.JsonArray;
@@ -47,6 +47,10 @@ import com.mysql.jdbc.StringUtils;
 /**
  * The class is the bridge that allows parsing and mapping of formSubmission fields with 
  * those defined in xls form for external system entity mappings.
+ * 
+ * Parsed form_definition.json, form.json and model.xml files are cached per file and reloaded when the file's
+ * modification time or size changes. The cached JsonObjects and Documents are shared between threads, so the public
+ * getters hand out copies and model.xml is only queried through {@link ModelXml}.
  */
 
 @Service
@@ -54,6 +58,10 @@ public class FormAttributeParser {
 	private String jsonFilePath;
 	private String xmlFilePath;
 	
+	private final Map<String, CachedFile<JsonObject>> jsonCache = new ConcurrentHashMap<>();
+	
+	private final Map<String, CachedFile<ModelXml>> modelCache = new ConcurrentHashMap<>();
+	
 	@Autowired
 	public FormAttributeParser(@Value("#{opensrp['form.directory.name']}") String formDirPath) throws IOException
 	{
@@ -64,9 +72,9 @@ public class FormAttributeParser {
 	}
 	
 	public FormSubmissionMap createFormSubmissionMap(FormSubmission fs) throws JsonIOException, JsonSyntaxException, ParserConfigurationException, SAXException, IOException, XPathExpressionException {
-		JsonObject formDefinitionData = getFormDefinitionData(fs.formName());
-		Document modelXml = getModelXmlData(fs.formName());
-		JsonObject jsonForm = getJSONFormData(fs.formName());
+		JsonObject formDefinitionData = formDefinition(fs.formName());
+		ModelXml modelXml = getModelXml(fs.formName());
+		JsonObject jsonForm = jsonForm(fs.formName());
 		
 		Map<String, String> formAttributes = getAttributesForBindPath(fs.defaultBindPath(), modelXml);
 		List<FormFieldMap> fields = new ArrayList<FormFieldMap>();
@@ -124,26 +132,86 @@ public class FormAttributeParser {
 		return new FormSubmissionMap(fs, formAttributes, fields, subforms);
 	}
 	
+	/**
+	 * @return a copy of the parsed form_definition.json that the caller may modify
+	 */
 	public JsonObject getFormDefinitionData(String formName) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
-		String filePath = this.jsonFilePath+"/"+formName+"/form_definition.json";
-		JsonParser parser = new JsonParser();
-		Object obj = parser.parse(new FileReader(filePath));
-		return (JsonObject)obj;
+		return copy(formDefinition(formName));
 	}
 	
+	/**
+	 * @return a copy of the parsed form.json that the caller may modify
+	 */
 	public JsonObject getJSONFormData(String formName) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
-		String filePath = this.jsonFilePath+"/"+formName+"/form.json";
-		JsonParser parser = new JsonParser();
-		Object obj = parser.parse(new FileReader(filePath));
-		return (JsonObject)obj;
+		return copy(jsonForm(formName));
 	}
 	
+	/**
+	 * @return a copy of the parsed model.xml that the caller may modify or query from any thread
+	 */
 	public Document getModelXmlData(String formName) throws ParserConfigurationException, SAXException, IOException {
+		return getModelXml(formName).copy();
+	}
+	
+	private JsonObject formDefinition(String formName) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
+		return getJsonData(this.jsonFilePath+"/"+formName+"/form_definition.json");
+	}
+	
+	private JsonObject jsonForm(String formName) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
+		return getJsonData(this.jsonFilePath+"/"+formName+"/form.json");
+	}
+	
+	private static JsonObject copy(JsonObject json) {
+		// JsonObject.deepCopy is not public in this gson version
+		return (JsonObject) new JsonParser().parse(json.toString());
+	}
+	
+	private JsonObject getJsonData(String filePath) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
+		File file = new File(filePath);
+		CachedFile<JsonObject> cached = jsonCache.get(filePath);
+		if (cached != null && cached.isCurrent(file)) {
+			return cached.value;
+		}
+		// stat before reading so that a change made while parsing is picked up next time
+		long lastModified = file.lastModified();
+		long length = file.length();
+		FileReader reader = new FileReader(file);
+		try {
+			JsonObject json = (JsonObject) new JsonParser().parse(reader);
+			jsonCache.put(filePath, new CachedFile<JsonObject>(lastModified, length, json));
+			return json;
+		}
+		finally {
+			try {
+				reader.close();
+			}
+			catch (IOException e) {
+				// nothing left to read
+			}
+		}
+	}
+	
+	private ModelXml getModelXml(String formName) throws ParserConfigurationException, SAXException, IOException {
 		String filePath = this.xmlFilePath+"/"+formName+"/model.xml";
-    	File file = new File(filePath);
-    	DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		File file = new File(filePath);
+		CachedFile<ModelXml> cached = modelCache.get(filePath);
+		if (cached != null && cached.isCurrent(file)) {
+			return cached.value;
+		}
+		long lastModified = file.lastModified();
+		long length = file.length();
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		try {
+			// a fully built DOM can be read from several threads, a lazily expanded one can not
+			factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+		}
+		catch (ParserConfigurationException e) {
+			// not a Xerces parser, its DOM is not deferred
+		}
 		DocumentBuilder builder = factory.newDocumentBuilder();
-		return builder.parse(file);
+		ModelXml modelXml = new ModelXml(builder.parse(file));
+		modelCache.put(filePath, new CachedFile<ModelXml>(lastModified, length, modelXml));
+		return modelXml;
 	}
 	
 	/**
@@ -202,7 +270,7 @@ public class FormAttributeParser {
 	String getFieldNameFromFormDefinition(String bind, String formName) throws JsonSyntaxException, IOException
 	{
 		String fieldAttribute = "";
-		JsonObject jsonObject = getFormDefinitionData(formName);
+		JsonObject jsonObject = formDefinition(formName);
 		JsonElement formElement = jsonObject.get("form");
 		JsonElement subformElement = null;
 		JsonObject fields = null;
@@ -277,7 +345,7 @@ public class FormAttributeParser {
 	String getFieldNameFromFormDefinition(String bind, String subform, FormSubmission formSubmission) throws JsonSyntaxException, IOException
 	{
 		String formName = formSubmission.formName();
-		JsonObject jsonObject = getFormDefinitionData(formName);
+		JsonObject jsonObject = formDefinition(formName);
 		JsonArray subforms = jsonObject.get("form").getAsJsonObject().get("sub_forms").getAsJsonArray();
 		for (JsonElement jsonElement : subforms) {
 			if(jsonElement.getAsJsonObject().get("name").getAsString().equalsIgnoreCase(subform)){
@@ -306,14 +374,9 @@ public class FormAttributeParser {
 	 */
 	Node getFieldTagFromModel(Map<String,String> attributeMapForm,FormSubmission formSubmission) throws IOException, XPathExpressionException, ParserConfigurationException, SAXException
 	{
-		Node lastNode = null;
 		String formName = formSubmission.formName();
-		Document document = getModelXmlData(formName);
-		XPathFactory xPathFactory = XPathFactory.newInstance();
-		XPath xpath = xPathFactory.newXPath();
 		String expression = "//*[";
 		String expressionQuery = "";
-		NodeList nodeList;
 		for(String key:attributeMapForm.keySet())
 		{				
 			if(expressionQuery.length()>0)
@@ -325,9 +388,7 @@ public class FormAttributeParser {
 		
 		expression += expressionQuery;
 		expression += "]";
-		nodeList = (NodeList) xpath.evaluate(expression, document, XPathConstants.NODESET);
-		lastNode = nodeList.item(0);			
-		return lastNode;
+		return getModelXml(formName).find(expression);
 	}
 	
 	/**
@@ -343,14 +404,9 @@ public class FormAttributeParser {
 	 */
 	public Node getFieldTagFromModel(Map<String,String> attributeMapForm, String subform, FormSubmission formSubmission) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException
 	{
-		Node lastNode = null;
 		String formName = formSubmission.formName();
-		Document document = getModelXmlData(formName);
-		XPathFactory xPathFactory = XPathFactory.newInstance();
-		XPath xpath = xPathFactory.newXPath();
 		String expression = getDefaultBindPathFromSubformDefinition(subform, formSubmission)+"/node()[";
 		String expressionQuery = "";
-		NodeList nodeList;
 		for(String key:attributeMapForm.keySet())
 		{				
 			if(expressionQuery.length()>0)
@@ -362,9 +418,7 @@ public class FormAttributeParser {
 		
 		expression += expressionQuery;
 		expression += "]";
-		nodeList = (NodeList) xpath.evaluate(expression, document, XPathConstants.NODESET);
-		lastNode = nodeList.item(0);			
-		return lastNode;
+		return getModelXml(formName).find(expression);
 	}
 	
 	/**
@@ -384,12 +438,8 @@ public class FormAttributeParser {
 
 		Node lastNode = null;
 		String formName = formSubmission.formName();
-		Document document = getModelXmlData(formName);
-		XPathFactory xPathFactory = XPathFactory.newInstance();
-		XPath xpath = xPathFactory.newXPath();
 		String expression = "//*[";
 		String expressionQuery = "";
-		NodeList nodeList;
 		for(String att:attributeName)
 		{				
 			if(expressionQuery.length()>0)
@@ -401,8 +451,7 @@ public class FormAttributeParser {
 		
 		expression += expressionQuery;
 		expression += "]";
-		nodeList = (NodeList) xpath.evaluate(expression, document, XPathConstants.NODESET);
-		lastNode = nodeList.item(0);
+		lastNode = getModelXml(formName).find(expression);
 		
 		NamedNodeMap attributes = lastNode.getAttributes();
     	for(int i=0;i<attributes.getLength();i++)
@@ -438,7 +487,7 @@ public class FormAttributeParser {
 		Node tagAndAttributes = null;
 		if(formBindForField!=null)
 		{
-			tagAndAttributes  = getFormPropertyNameForAttribute(formBindForField, getModelXmlData(formName));
+			tagAndAttributes  = getModelXml(formName).evaluate(formBindForField);
 		}
 
 		return convertToMap(tagAndAttributes);
@@ -446,11 +495,11 @@ public class FormAttributeParser {
 	}
 	public Map<String, String> getAttributesForField (String fieldName, String subform, String formName) throws JsonSyntaxException, IOException, XPathExpressionException, ParserConfigurationException, SAXException{
 		
-		String formBindForField = getPathFromSubformDefinition(subform, fieldName, formName, getFormDefinitionData(formName));
+		String formBindForField = getPathFromSubformDefinition(subform, fieldName, formName, formDefinition(formName));
 		Node tagAndAttributes = null;
 		if(formBindForField!=null)
 		{
-			tagAndAttributes = getFormPropertyNameForAttribute(formBindForField, getModelXmlData(formName));
+			tagAndAttributes = getModelXml(formName).evaluate(formBindForField);
 		}
 
 		return convertToMap(tagAndAttributes);
@@ -462,8 +511,11 @@ public class FormAttributeParser {
 	}
 	
 	public Map<String, String> getAttributesForBindPath (String bindPath, String formName) throws XPathExpressionException, ParserConfigurationException, SAXException, IOException{
-		Document xmlModel = getModelXmlData(formName);
-		return convertToMap(getFormPropertyNameForAttribute(bindPath, xmlModel));
+		return convertToMap(getModelXml(formName).evaluate(bindPath));
+	}
+	
+	private Map<String, String> getAttributesForBindPath (String bindPath, ModelXml xmlModel) throws XPathExpressionException {
+		return convertToMap(xmlModel.evaluate(bindPath));
 	}
 	
 	private Map<String, String> convertToMap(Node tagAndAttributes){
@@ -518,7 +570,7 @@ public class FormAttributeParser {
 		// xpath in model.xml
 		if(formBindForField!=null && !formBindForField.equals("null") && formBindForField.length()>0)
 		{
-			tagAndAttributes = getFormPropertyNameForAttribute(formBindForField, getModelXmlData(formSubmission.formName()));
+			tagAndAttributes = getModelXml(formSubmission.formName()).evaluate(formBindForField);
 		}
 
 	    return convertToMap(tagAndAttributes); 
@@ -553,13 +605,13 @@ public class FormAttributeParser {
 	{		
 		String bindPath = null;
 		if(StringUtils.isEmptyOrWhitespaceOnly(subform)){
-			bindPath = getPropertyBindFromFormDefinition(fieldName, fs.formName(), getFormDefinitionData(fs.formName()));
+			bindPath = getPropertyBindFromFormDefinition(fieldName, fs.formName(), formDefinition(fs.formName()));
 		}
 		else {
-			bindPath = getPathFromSubformDefinition(subform, fieldName, fs.formName(), getFormDefinitionData(fs.formName()));
+			bindPath = getPathFromSubformDefinition(subform, fieldName, fs.formName(), formDefinition(fs.formName()));
 		}
 		
-		return getInstanceAttributesForFormFieldAndValue(bindPath, fieldVal, getJSONFormData(fs.formName()));
+		return getInstanceAttributesForFormFieldAndValue(bindPath, fieldVal, jsonForm(fs.formName()));
 	}
 	
 	public Map<String, String> getInstanceAttributesForFormFieldAndValue(String fieldBindPath, String fieldVal, JsonObject jsonForm) throws JsonSyntaxException, IOException
@@ -653,7 +705,7 @@ public class FormAttributeParser {
 	 */
 	String getDefaultBindPathFromSubformDefinition(String subformName, FormSubmission formSubmission) throws IOException, JsonSyntaxException
 	{		
-		JsonObject jsonObject = getFormDefinitionData(formSubmission.formName());
+		JsonObject jsonObject = formDefinition(formSubmission.formName());
 		JsonArray subforms = jsonObject.get("form").getAsJsonObject().get("sub_forms").getAsJsonArray();
 		for (JsonElement jsonElement : subforms) {
 			if(jsonElement.getAsJsonObject().get("name").getAsString().equalsIgnoreCase(subformName)){
@@ -725,7 +777,7 @@ public class FormAttributeParser {
 	 */
 	String getPropertyBindFromFormDefinition(String fieldName, String formName) throws JsonSyntaxException, IOException
 	{		
-		JsonObject jsonObject = getFormDefinitionData(formName);
+		JsonObject jsonObject = formDefinition(formName);
 		return getPropertyBindFromFormDefinition(fieldName, formName, jsonObject);
 	}
 	
@@ -758,17 +810,72 @@ public class FormAttributeParser {
 	 */
 	Node getFormPropertyNameForAttribute(String formBindForField, Document xmlModel) throws XPathExpressionException, ParserConfigurationException, SAXException, IOException
 	{
-		if(formBindForField.endsWith("/")){
-			formBindForField = formBindForField.substring(0, formBindForField.length()-1);
-		}
     	Node lastNode = null;
 		XPathFactory xPathFactory = XPathFactory.newInstance();
 		XPath xPath = xPathFactory.newXPath();
 		//put the xpath to get
-		XPathExpression expr = xPath.compile(formBindForField);
+		XPathExpression expr = xPath.compile(trimBindPath(formBindForField));
 		
 		lastNode = (Node) expr.evaluate(xmlModel, XPathConstants.NODE);
 
 		return lastNode;
 	}
+	
+	private static String trimBindPath(String bindPath) {
+		if(bindPath.endsWith("/")){
+			return bindPath.substring(0, bindPath.length()-1);
+		}
+		return bindPath;
+	}
+	
+	private static class CachedFile<T> {
+		private final long lastModified;
+		private final long length;
+		private final T value;
+		
+		CachedFile(long lastModified, long length, T value) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.value = value;
+		}
+		
+		boolean isCurrent(File file) {
+			return file.lastModified() == lastModified && file.length() == length;
+		}
+	}
+	
+	/**
+	 * A parsed model.xml with the XPath expressions compiled against it so far. XPath objects are not thread safe and
+	 * evaluating an expression walks the shared DOM, so lookups are serialized per model. The Nodes handed back
+	 * belong to the shared DOM and are only read.
+	 */
+	private static class ModelXml {
+		private final Document document;
+		private final XPath xPath = XPathFactory.newInstance().newXPath();
+		private final Map<String, XPathExpression> expressions = new HashMap<>();
+		
+		ModelXml(Document document) {
+			this.document = document;
+		}
+		
+		synchronized Node evaluate(String bindPath) throws XPathExpressionException {
+			XPathExpression expr = expressions.get(bindPath);
+			if (expr == null) {
+				expr = xPath.compile(trimBindPath(bindPath));
+				expressions.put(bindPath, expr);
+			}
+			return (Node) expr.evaluate(document, XPathConstants.NODE);
+		}
+		
+		/**
+		 * First node matching an expression built for one lookup, which is not worth keeping compiled
+		 */
+		synchronized Node find(String expression) throws XPathExpressionException {
+			return (Node) xPath.evaluate(expression, document, XPathConstants.NODE);
+		}
+		
+		synchronized Document copy() {
+			return (Document) document.cloneNode(true);
+		}
+	}
 }
@@ -4,6 +4,7 @@ import ch.lambdaj.function.convert.Converter;
 
 import org.ektorp.CouchDbConnector;
 import org.opensrp.common.util.DateUtil;
+import org.opensrp.common.util.ServerVersionPager;
 import org.opensrp.dto.form.FormSubmissionDTO;
 import org.opensrp.form.domain.FormSubmission;
 import org.opensrp.form.repository.AllFormSubmissions;
@@ -49,6 +50,13 @@ public class FormSubmissionService {
     public List<FormSubmission> getAllSubmissions(Long version, Integer batchSize) {
         return allFormSubmissions.allFormSubmissions(version, batchSize);
     }
+
+    /**
+     * Lazily iterate over all submissions with a greater serverVersion, a page at a time
+     */
+    public Iterable<FormSubmission> iterateByServerVersion(long version) {
+        return allFormSubmissions.iterateByServerVersion(version, ServerVersionPager.DEFAULT_PAGE_SIZE);
+    }
     
     public List<FormSubmission> getAllSubmissions(CouchDbConnector sourceDb,Long version, Integer batchSize) {
         return allFormSubmissions.allFormSubmissions(sourceDb,version, batchSize);
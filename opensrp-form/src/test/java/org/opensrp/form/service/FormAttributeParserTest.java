@@ -3,10 +3,13 @@ package org.opensrp.form.service;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -19,11 +22,16 @@ import javax.xml.xpath.XPathExpressionException;
 
 import org.hamcrest.Matchers;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opensrp.form.domain.FormSubmission;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
 import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 
 
@@ -35,6 +43,9 @@ public class FormAttributeParserTest extends TestResourceLoader{
 
 	FormAttributeParser fam;
 
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	@Before
     public void setUp() throws Exception {
         initMocks(this);
@@ -485,4 +496,62 @@ public class FormAttributeParserTest extends TestResourceLoader{
 		//TODO
 	}
 
+	@Test
+	public void shouldReuseParsedFormFilesUntilTheyChange() throws Exception {
+		File formDir = temporaryFolder.newFolder("cached_form");
+		File definition = new File(formDir, "form_definition.json");
+		File model = new File(formDir, "model.xml");
+		write(definition, "{\"form\":{\"bind_type\":\"first\"}}");
+		write(model, "<model><instance><first openmrs_entity=\"person\"/></instance></model>");
+		FormAttributeParser parser = new FormAttributeParser("file:" + temporaryFolder.getRoot().getAbsolutePath());
+
+		JsonObject first = parser.getFormDefinitionData("cached_form");
+		assertEquals("person", parser.getAttributesForBindPath("/model/instance/first/", "cached_form").get("openmrs_entity"));
+
+		// same length and modification time, so only a parser that reads the files again can see the change
+		long definitionModified = definition.lastModified();
+		long modelModified = model.lastModified();
+		write(definition, "{\"form\":{\"bind_type\":\"third\"}}");
+		write(model, "<model><instance><first openmrs_entity=\"people\"/></instance></model>");
+		definition.setLastModified(definitionModified);
+		model.setLastModified(modelModified);
+
+		assertEquals("first", parser.getFormDefinitionData("cached_form").get("form").getAsJsonObject().get("bind_type").getAsString());
+		assertEquals("person", parser.getAttributesForBindPath("/model/instance/first/", "cached_form").get("openmrs_entity"));
+
+		definition.setLastModified(definitionModified + 2000);
+		model.setLastModified(modelModified + 2000);
+
+		JsonObject second = parser.getFormDefinitionData("cached_form");
+		assertNotSame(first, second);
+		assertEquals("third", second.get("form").getAsJsonObject().get("bind_type").getAsString());
+		assertEquals("people", parser.getAttributesForBindPath("/model/instance/first/", "cached_form").get("openmrs_entity"));
+	}
+
+	@Test
+	public void shouldHandOutCopiesOfCachedFormFiles() throws Exception {
+		File formDir = temporaryFolder.newFolder("copied_form");
+		write(new File(formDir, "form_definition.json"), "{\"form\":{\"bind_type\":\"first\"}}");
+		write(new File(formDir, "model.xml"), "<model><instance><first openmrs_entity=\"person\"/></instance></model>");
+		FormAttributeParser parser = new FormAttributeParser("file:" + temporaryFolder.getRoot().getAbsolutePath());
+
+		JsonObject definition = parser.getFormDefinitionData("copied_form");
+		definition.get("form").getAsJsonObject().addProperty("bind_type", "changed");
+		Document model = parser.getModelXmlData("copied_form");
+		((Element) model.getElementsByTagName("first").item(0)).setAttribute("openmrs_entity", "changed");
+
+		assertNotSame(model, parser.getModelXmlData("copied_form"));
+		assertEquals("first", parser.getFormDefinitionData("copied_form").get("form").getAsJsonObject().get("bind_type").getAsString());
+		assertEquals("person", parser.getAttributesForBindPath("/model/instance/first/", "copied_form").get("openmrs_entity"));
+	}
+
+	private void write(File file, String content) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		}
+		finally {
+			writer.close();
+		}
+	}
 }
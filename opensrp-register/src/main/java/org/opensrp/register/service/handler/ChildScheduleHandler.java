@@ -68,11 +68,11 @@ public class ChildScheduleHandler extends BaseScheduleHandler {
         Calendar cal = Calendar.getInstance();
         cal.setTime(dateCreated);
         cal.add(Calendar.DATE, 1);
-        String dateTo = dateFormat.format(cal.getTime());
+        String dateTo = dateFormat.get().format(cal.getTime());
         cal = Calendar.getInstance();
         cal.setTime(dateCreated);
         cal.add(Calendar.DATE, -1);
-        String dateFrom = dateFormat.format(cal.getTime());		
+        String dateFrom = dateFormat.get().format(cal.getTime());		
         List<Client> children = clientService.findByRelationshipIdAndDateCreated(event.getBaseEntityId(), dateFrom, dateTo);
         return children;
     }
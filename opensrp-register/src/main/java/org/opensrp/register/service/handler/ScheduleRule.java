@@ -0,0 +1,437 @@
+package org.opensrp.register.service.handler;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.joda.time.LocalDate;
+import org.joda.time.ReadableInstant;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opensrp.domain.Client;
+import org.opensrp.domain.Event;
+import org.opensrp.domain.Obs;
+import org.opensrp.register.service.handler.BaseScheduleHandler.ActionType;
+import org.opensrp.service.ClientService;
+
+/**
+ * One event of a schedule config, compiled once into an immutable rule that evaluates events by reading their obs and
+ * properties directly rather than going through their json. Rules hold no state of an evaluation so one rule is
+ * shared by all the threads handling events.
+ * <p>
+ * Event and client properties are read the way they would appear in the documents' json: under their
+ * {@link JsonProperty} name, with dates as millisecond timestamps.
+ */
+final class ScheduleRule {
+
+	private static final String JSON_KEY_CONCEPT = "concept";
+
+	private static final String JSON_KEY_PARENT_CODE = "parent_code";
+
+	private static final String JSON_KEY_FIELD = "field";
+
+	private static final String JSON_KEY_VALUE = "value";
+
+	private static final String JSON_KEY_MILESTONE = "milestone";
+
+	private static final String JSON_KEY_ACTION = "action";
+
+	private static final String JSON_KEY_REFDATEFIELDS = "reference_date_fields";
+
+	private static final String JSON_KEY_FULFILLMENTDATEFIELDS = "fulfillment_date_fields";
+
+	private static final String JSON_KEY_FULFILLMENT_FIELDS = "fulfillment_fields";
+
+	private static final String JSON_KEY_ENROLLMENTFIELDS = "enrollment_fields";
+
+	private static final String JSON_KEY_NOTEMPTY = "NOT_EMPTY";
+
+	private static final String JSON_KEY_PASSLOGIC = "pass_logic";
+
+	private static final String JSON_KEY_FORMSUBMISSIONFIELD = "formSubmissionField";
+
+	private static final String JSON_KEY_TYPE = "type";
+
+	/**
+	 * json properties by name of every document class read so far
+	 */
+	private static final ConcurrentMap<Class<?>, Map<String, Field>> properties = new ConcurrentHashMap<Class<?>, Map<String, Field>>();
+
+	private final String action;
+
+	private final String milestone;
+
+	private final boolean allConditions;
+
+	private final List<Condition> conditions;
+
+	private final DateSource enrollmentDate;
+
+	private final DateSource fulfillmentDate;
+
+	private ScheduleRule(String action, String milestone, boolean allConditions, List<Condition> conditions,
+	    DateSource enrollmentDate, DateSource fulfillmentDate) {
+		this.action = action;
+		this.milestone = milestone;
+		this.allConditions = allConditions;
+		this.conditions = conditions;
+		this.enrollmentDate = enrollmentDate;
+		this.fulfillmentDate = fulfillmentDate;
+	}
+
+	static ScheduleRule compile(JSONObject scheduleConfigEvent) throws JSONException {
+		String action = stringOf(scheduleConfigEvent, JSON_KEY_ACTION);
+		List<Condition> conditions = Collections.emptyList();
+		if (action.equalsIgnoreCase(ActionType.enroll.toString())) {
+			conditions = conditions(scheduleConfigEvent, JSON_KEY_ENROLLMENTFIELDS);
+		} else if (action.equalsIgnoreCase(ActionType.fulfill.toString())) {
+			conditions = conditions(scheduleConfigEvent, JSON_KEY_FULFILLMENT_FIELDS);
+		}
+		return new ScheduleRule(action, stringOf(scheduleConfigEvent, JSON_KEY_MILESTONE),
+		        stringOf(scheduleConfigEvent, JSON_KEY_PASSLOGIC).equalsIgnoreCase("AND"), conditions,
+		        DateSource.compile(scheduleConfigEvent, JSON_KEY_REFDATEFIELDS),
+		        DateSource.compile(scheduleConfigEvent, JSON_KEY_FULFILLMENTDATEFIELDS));
+	}
+
+	String getAction() {
+		return action;
+	}
+
+	String getMilestone() {
+		return milestone;
+	}
+
+	/**
+	 * With pass logic AND the event qualifies if every condition it has a value for is met and at least one is,
+	 * otherwise the first condition met qualifies it. Event fields and form submission fields only count when met.
+	 *
+	 * @param event
+	 * @return
+	 */
+	boolean evaluate(Event event) {
+		boolean met = false;
+		for (Condition condition : conditions) {
+			Boolean result = condition.evaluate(event);
+			if (result == null) {
+				continue;
+			}
+			if (!result) {
+				return false;
+			}
+			if (!allConditions) {
+				return true;
+			}
+			met = true;
+		}
+		return met;
+	}
+
+	/**
+	 * @param event
+	 * @param action enroll takes the date from the reference_date_fields, fulfill from the fulfillment_date_fields
+	 * @param clientService to fetch the event's client when the date is one of its fields
+	 * @return the date as yyyy-MM-dd, or empty if the event has none
+	 * @throws JSONException if the schedule config has no date fields for the action
+	 */
+	String referenceDate(Event event, String action, ClientService clientService) throws JSONException {
+		DateSource source;
+		if (action.equalsIgnoreCase(ActionType.enroll.toString())) {
+			source = required(enrollmentDate, JSON_KEY_REFDATEFIELDS);
+		} else if (action.equalsIgnoreCase(ActionType.fulfill.toString())) {
+			source = required(fulfillmentDate, JSON_KEY_FULFILLMENTDATEFIELDS);
+		} else {
+			return "";
+		}
+		return source.dateOf(event, clientService);
+	}
+
+	private static DateSource required(DateSource source, String key) throws JSONException {
+		if (source == null) {
+			throw new JSONException("Schedule config has no " + key);
+		}
+		return source;
+	}
+
+	private static List<Condition> conditions(JSONObject scheduleConfigEvent, String key) throws JSONException {
+		List<Condition> conditions = new ArrayList<Condition>();
+		JSONArray fields = scheduleConfigEvent.optJSONArray(key);
+		if (fields == null) {
+			return conditions;
+		}
+		for (int i = 0; i < fields.length(); i++) {
+			Map<String, String> field = toMap(fields.getJSONObject(i));
+			String value = valueOf(field, JSON_KEY_VALUE);
+			if (value == null) {
+				throw new JSONException(key + " entry " + field + " has no " + JSON_KEY_VALUE);
+			}
+			String concept = conceptOf(field);
+			if (concept != null) {
+				conditions.add(new Condition(Source.CONCEPT, concept, value));
+			}
+			String eventField = valueOf(field, JSON_KEY_FIELD);
+			if (eventField != null) {
+				conditions.add(new Condition(Source.FIELD, eventField, value));
+			}
+			String formSubmissionField = valueOf(field, JSON_KEY_FORMSUBMISSIONFIELD);
+			if (formSubmissionField != null) {
+				conditions.add(new Condition(Source.FORM_SUBMISSION_FIELD, formSubmissionField, value));
+			}
+		}
+		return Collections.unmodifiableList(conditions);
+	}
+
+	private enum Source {
+		CONCEPT, FIELD, FORM_SUBMISSION_FIELD
+	}
+
+	private static final class Condition {
+
+		private final Source source;
+
+		private final String name;
+
+		private final String expected;
+
+		private final boolean notEmpty;
+
+		Condition(Source source, String name, String expected) {
+			this.source = source;
+			this.name = name;
+			this.expected = expected;
+			this.notEmpty = expected.equalsIgnoreCase(JSON_KEY_NOTEMPTY);
+		}
+
+		/**
+		 * @return whether the event meets the condition, null if it does not count
+		 */
+		Boolean evaluate(Event event) {
+			switch (source) {
+				case CONCEPT: {
+					String value = conceptValue(event, name);
+					return value == null ? null : matches(value);
+				}
+				case FIELD: {
+					Object value = property(event, name);
+					return matches(value == null ? "" : value.toString()) ? Boolean.TRUE : null;
+				}
+				default: {
+					String value = formSubmissionFieldValue(event, name);
+					return value != null && matches(value) ? Boolean.TRUE : null;
+				}
+			}
+		}
+
+		private boolean matches(String value) {
+			return value.equalsIgnoreCase(expected) || (notEmpty && !value.isEmpty());
+		}
+	}
+
+	/**
+	 * Where a schedule's reference or fulfillment date is taken from, the first entry of the date fields of a config
+	 */
+	private static final class DateSource {
+
+		private final String concept;
+
+		private final String formSubmissionField;
+
+		private final String eventField;
+
+		private final String clientField;
+
+		private DateSource(String concept, String formSubmissionField, String eventField, String clientField) {
+			this.concept = concept;
+			this.formSubmissionField = formSubmissionField;
+			this.eventField = eventField;
+			this.clientField = clientField;
+		}
+
+		static DateSource compile(JSONObject scheduleConfigEvent, String key) throws JSONException {
+			JSONArray fields = scheduleConfigEvent.optJSONArray(key);
+			if (fields == null) {
+				return null;
+			}
+			Map<String, String> field = toMap(fields.getJSONObject(0));
+			String type = valueOf(field, JSON_KEY_TYPE);
+			String name = valueOf(field, JSON_KEY_FIELD);
+			boolean ofEvent = type == null || type.equalsIgnoreCase("Event");
+			boolean ofClient = type != null && type.equalsIgnoreCase("Client");
+			return new DateSource(conceptOf(field), valueOf(field, JSON_KEY_FORMSUBMISSIONFIELD), ofEvent ? name : null,
+			        ofClient ? name : null);
+		}
+
+		String dateOf(Event event, ClientService clientService) {
+			String date = "";
+			if (concept != null) {
+				date = dateOf(conceptValue(event, concept), date);
+			}
+			if (formSubmissionField != null) {
+				date = dateOf(formSubmissionFieldValue(event, formSubmissionField), date);
+			}
+			if (eventField != null) {
+				date = dateOf(property(event, eventField), date);
+			}
+			if (clientField != null) {
+				Client client = clientService.getByBaseEntityId(event.getBaseEntityId());
+				if (client != null) {
+					date = dateOf(property(client, clientField), date);
+				}
+			}
+			return date;
+		}
+
+		/**
+		 * Dates come as millisecond timestamps from date properties and as yyyy-MM-dd or full ISO date times such as
+		 * 2016-08-20T17:45:00.000+03:00 from obs
+		 */
+		private static String dateOf(Object value, String otherwise) {
+			if (value == null || value.toString().isEmpty()) {
+				return otherwise;
+			}
+			if (value instanceof Long) {
+				return new LocalDate(((Long) value).longValue()).toString();
+			}
+			String date = value.toString();
+			int time = date.indexOf('T');
+			return time < 0 ? date : date.substring(0, time);
+		}
+	}
+
+	/**
+	 * Concepts with a parent code are keyed as concept-parentcode
+	 */
+	private static String conceptOf(Map<String, String> field) {
+		String concept = valueOf(field, JSON_KEY_CONCEPT);
+		String parentCode = valueOf(field, JSON_KEY_PARENT_CODE);
+		return concept == null || parentCode == null ? concept : concept + "-" + parentCode;
+	}
+
+	/**
+	 * @return value of the last obs of the concept, where a concept key of an obs with a parent code is
+	 *         fieldCode-parentCode, or null if the event has none
+	 */
+	private static String conceptValue(Event event, String concept) {
+		List<Obs> obs = event.getObs();
+		for (int i = obs.size() - 1; i >= 0; i--) {
+			Obs o = obs.get(i);
+			if (o != null && isConcept(o, concept)) {
+				return valueOf(o);
+			}
+		}
+		return null;
+	}
+
+	private static boolean isConcept(Obs obs, String concept) {
+		String fieldCode = obs.getFieldCode();
+		if (fieldCode == null) {
+			return false;
+		}
+		String parentCode = obs.getParentCode();
+		if (parentCode == null || parentCode.isEmpty()) {
+			return concept.equals(fieldCode);
+		}
+		// compares with fieldCode-parentCode without building it
+		return concept.length() == fieldCode.length() + 1 + parentCode.length() && concept.startsWith(fieldCode)
+		        && concept.charAt(fieldCode.length()) == '-' && concept.endsWith(parentCode);
+	}
+
+	private static String formSubmissionFieldValue(Event event, String formSubmissionField) {
+		List<Obs> obs = event.getObs();
+		for (int i = obs.size() - 1; i >= 0; i--) {
+			Obs o = obs.get(i);
+			if (o != null && formSubmissionField.equals(o.getFormSubmissionField())) {
+				return valueOf(o);
+			}
+		}
+		return null;
+	}
+
+	private static String valueOf(Obs obs) {
+		List<Object> values = obs.getValues();
+		if (values == null || values.isEmpty() || values.get(0) == null) {
+			return "";
+		}
+		return values.get(0).toString();
+	}
+
+	/**
+	 * @return the json property of the document, with dates as millisecond timestamps, or null if it has no such
+	 *         property or it is not set
+	 */
+	static Object property(Object document, String name) {
+		Field field = propertiesOf(document.getClass()).get(name);
+		if (field == null) {
+			return null;
+		}
+		Object value;
+		try {
+			value = field.get(document);
+		}
+		catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+		if (value instanceof ReadableInstant) {
+			return ((ReadableInstant) value).getMillis();
+		}
+		return value;
+	}
+
+	private static Map<String, Field> propertiesOf(Class<?> type) {
+		Map<String, Field> fields = properties.get(type);
+		if (fields != null) {
+			return fields;
+		}
+		fields = new HashMap<String, Field>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				JsonProperty jsonProperty = field.getAnnotation(JsonProperty.class);
+				if (jsonProperty == null || Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				String name = jsonProperty.value().isEmpty() ? field.getName() : jsonProperty.value();
+				// a subclass field hides one of the same name further up
+				if (!fields.containsKey(name)) {
+					field.setAccessible(true);
+					fields.put(name, field);
+				}
+			}
+		}
+		Map<String, Field> existing = properties.putIfAbsent(type, Collections.unmodifiableMap(fields));
+		return existing == null ? properties.get(type) : existing;
+	}
+
+	private static Map<String, String> toMap(JSONObject jsonObject) throws JSONException {
+		Map<String, String> map = new HashMap<String, String>();
+		Iterator<?> keys = jsonObject.keys();
+		while (keys.hasNext()) {
+			String key = keys.next().toString();
+			map.put(key, jsonObject.get(key).toString());
+		}
+		return map;
+	}
+
+	/**
+	 * Config keys are matched ignoring case
+	 */
+	private static String valueOf(Map<String, String> map, String key) {
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(key)) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static String stringOf(JSONObject jsonObject, String key) throws JSONException {
+		return jsonObject.has(key) ? jsonObject.get(key).toString() : "";
+	}
+}
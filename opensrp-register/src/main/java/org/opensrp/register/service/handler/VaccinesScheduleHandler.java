@@ -102,7 +102,7 @@ public class VaccinesScheduleHandler extends BaseScheduleHandler {
                     String strDate = obs.getValues().get(0).toString();
 					
                     try {						
-                        DateTime vaccineDate = new DateTime(dateFormat.parse(strDate));
+                        DateTime vaccineDate = new DateTime(dateFormat.get().parse(strDate));
                         DateTime now = new DateTime(new Date());						
                         int weeks = Weeks.weeksBetween(vaccineDate, now).getWeeks();
                         if (weeks >= 4) {
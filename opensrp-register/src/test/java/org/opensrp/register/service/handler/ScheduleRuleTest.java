@@ -0,0 +1,66 @@
+package org.opensrp.register.service.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.joda.time.DateTime;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.opensrp.domain.Client;
+import org.opensrp.domain.Event;
+import org.opensrp.domain.Obs;
+import org.opensrp.service.ClientService;
+
+public class ScheduleRuleTest {
+
+	private static final String BCG_FULFILLMENT = "{\"types\":[\"Vaccination\"],\"pass_logic\":\"AND\","
+	        + "\"fulfillment_fields\":[{\"parent_code\":\"886AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"concept\":\"1410AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"value\":\"NOT_EMPTY\"},"
+	        + "{\"parent_code\":\"886AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"concept\":\"1418AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"value\":\"1\"}],"
+	        + "\"fulfillment_date_fields\":[{\"concept\":\"1410AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parent_code\":\"886AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\"}],"
+	        + "\"milestone\":\"bcg\",\"action\":\"fulfill\"}";
+
+	private static final String BCG_ENROLLMENT = "{\"types\":[\"Birth Registration\"],\"pass_logic\":\"AND\","
+	        + "\"enrollment_fields\":[{\"field\":\"eventDate\",\"value\":\"NOT_EMPTY\"}],\"milestone\":\"bcg\","
+	        + "\"reference_date_fields\":[{\"type\":\"client\",\"field\":\"birthdate\"}],\"action\":\"enroll\"}";
+
+	private Event vaccination(String dose) {
+		return new Event("ooo-yyy-yyy", "Vaccination", new DateTime(), "child", "provider", "location", "submission")
+		        .withObs(new Obs("concept", "date", "1410AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+		                "886AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", "2016-08-20T17:45:00.000+03:00", null, "bcg"))
+		        .withObs(new Obs("concept", "calculate", "1418AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+		                "886AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", dose, null, "bcg_dose"));
+	}
+
+	@Test
+	public void shouldMatchConceptsKeyedByParentCode() throws JSONException {
+		ScheduleRule rule = ScheduleRule.compile(new JSONObject(BCG_FULFILLMENT));
+
+		assertEquals("fulfill", rule.getAction());
+		assertEquals("bcg", rule.getMilestone());
+		assertTrue(rule.evaluate(vaccination("1")));
+		assertFalse(rule.evaluate(vaccination("2")));
+		assertEquals("2016-08-20", rule.referenceDate(vaccination("1"), "fulfill", null));
+	}
+
+	@Test
+	public void shouldReadEventAndClientFields() throws JSONException {
+		ScheduleRule rule = ScheduleRule.compile(new JSONObject(BCG_ENROLLMENT));
+		Event event = vaccination("1");
+		ClientService clientService = mock(ClientService.class);
+		when(clientService.getByBaseEntityId("ooo-yyy-yyy")).thenReturn(
+		    new Client("ooo-yyy-yyy").withBirthdate(new DateTime(2016, 1, 5, 10, 30), false));
+
+		assertTrue(rule.evaluate(event));
+		assertFalse(rule.evaluate(new Event().withBaseEntityId("ooo-yyy-yyy")));
+		assertEquals("2016-01-05", rule.referenceDate(event, "enroll", clientService));
+	}
+
+	@Test(expected = JSONException.class)
+	public void shouldFailForActionWithoutDateFields() throws JSONException {
+		ScheduleRule.compile(new JSONObject(BCG_ENROLLMENT)).referenceDate(vaccination("1"), "fulfill", null);
+	}
+}
@@ -50,8 +50,8 @@ public class ANMReportsRepository {
         this.annualTargetsRepository = annualTargetsRepository;
         this.monitor = monitor;
         this.reportMonth = reportMonth;
-        cachedANMs = new ReadOnlyCachingRepository<>(anmRepository);
-        cachedIndicators = new ReadOnlyCachingRepository<>(indicatorRepository);
+        cachedANMs = new ReadOnlyCachingRepository<>("anm-reports.anms", anmRepository);
+        cachedIndicators = new ReadOnlyCachingRepository<>("anm-reports.indicators", indicatorRepository);
     }
 
     @Transactional("anm_report")
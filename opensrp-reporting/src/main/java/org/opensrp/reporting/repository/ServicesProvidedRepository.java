@@ -45,7 +45,7 @@ public class ServicesProvidedRepository {
         this.serviceProvidersRepository = serviceProvidersRepository;
         this.servicesProvidedRepository = servicesProvidedRepository;
         this.monitor = monitor;
-        cachedIndicators = new ReadOnlyCachingRepository<>(indicatorRepository);
+        cachedIndicators = new ReadOnlyCachingRepository<>("services-provided.indicators", indicatorRepository);
         this.locationRepository = locationRepository;
     }
 
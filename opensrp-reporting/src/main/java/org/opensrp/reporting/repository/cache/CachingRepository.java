@@ -1,52 +1,48 @@
 package org.opensrp.reporting.repository.cache;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
+
+import org.opensrp.common.cache.ConcurrentCache;
 
 public class CachingRepository<T> {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_EXPIRY_MINUTES = 60;
+
     private CacheableRepository<T> cacheableRepository;
-    private Map<T, T> cache;
-    private static ReentrantLock lock = new ReentrantLock();
+    private ConcurrentCache<T, T> cache;
+    private final ConcurrentCache.Loader<T, T> loader = new ConcurrentCache.Loader<T, T>() {
+        @Override
+        public T load(T object) {
+            T objectInDB = cacheableRepository.fetch(object);
+            if (objectInDB == null) {
+                cacheableRepository.save(object);
+                cacheableRepository.flush();
+                objectInDB = cacheableRepository.fetch(object);
+            }
+            return objectInDB;
+        }
+    };
 
-    public CachingRepository(CacheableRepository<T> cacheableRepository) {
+    /**
+     * @param name the cache statistics are reported under, unique among the caches
+     * @param cacheableRepository
+     */
+    public CachingRepository(String name, CacheableRepository<T> cacheableRepository) {
         this.cacheableRepository = cacheableRepository;
-        cache = new HashMap<>();
+        cache = new ConcurrentCache<>(name, DEFAULT_MAX_SIZE, DEFAULT_EXPIRY_MINUTES, TimeUnit.MINUTES);
     }
 
+    /**
+     * @param object
+     * @return the object from the database, saved there first if it is not there yet
+     */
     public T fetch(T object) {
-        if (cache.containsKey(object)) {
-            return cache.get(object);
-        }
-
-        saveToCache(object);
-        return cache.get(object);
+        return cache.get(object, loader);
     }
 
     public void clear(T object) {
-        if (cache.containsKey(object)) {
-            cache.remove(object);
-        }
-    }
-
-    private void saveToCache(T object) {
-        lock.lock();
-        try {
-            if (cache.containsKey(object)) {
-                return;
-            }
-
-            T objectInDB = cacheableRepository.fetch(object);
-            if (objectInDB == null) {
-                cacheableRepository.save(object);
-                cacheableRepository.flush();
-                objectInDB = cacheableRepository.fetch(object);
-            }
-            cache.put(object, objectInDB);
-        } finally {
-            lock.unlock();
-        }
+        cache.invalidate(object);
     }
 
     public List<T> fetchAll() {
@@ -1,50 +1,42 @@
 package org.opensrp.reporting.repository.cache;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
+
+import org.opensrp.common.cache.ConcurrentCache;
 
 public class ReadOnlyCachingRepository<T> {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_EXPIRY_MINUTES = 60;
+
     private ReadOnlyCacheableRepository<T> cacheableRepository;
-    private Map<T, T> cache;
-    private static ReentrantLock lock = new ReentrantLock();
+    private ConcurrentCache<T, T> cache;
+    private final ConcurrentCache.Loader<T, T> loader = new ConcurrentCache.Loader<T, T>() {
+        @Override
+        public T load(T object) {
+            return cacheableRepository.fetch(object);
+        }
+    };
 
-    public ReadOnlyCachingRepository(ReadOnlyCacheableRepository<T> cacheableRepository) {
+    /**
+     * @param name the cache statistics are reported under, unique among the caches
+     * @param cacheableRepository
+     */
+    public ReadOnlyCachingRepository(String name, ReadOnlyCacheableRepository<T> cacheableRepository) {
         this.cacheableRepository = cacheableRepository;
-        cache = new HashMap<>();
+        cache = new ConcurrentCache<>(name, DEFAULT_MAX_SIZE, DEFAULT_EXPIRY_MINUTES, TimeUnit.MINUTES);
     }
 
+    /**
+     * @param object
+     * @return the object from the database, null if it is not there
+     */
     public T fetch(T object) {
-        if (cache.containsKey(object)) {
-            return cache.get(object);
-        }
-
-        return writeToCache(object);
+        return cache.get(object, loader);
     }
 
-    public void clear(T object){
-        if (cache.containsKey(object)) {
-            cache.remove(object);
-        }
-    }
-
-    private T writeToCache(T object) {
-        lock.lock();
-        try {
-            if (cache.containsKey(object)) {
-                return cache.get(object);
-            }
-
-            T objectInDB = cacheableRepository.fetch(object);
-            if (objectInDB == null) {
-                return null;
-            }
-            cache.put(object, objectInDB);
-        } finally {
-            lock.unlock();
-        }
-        return cache.get(object);
+    public void clear(T object) {
+        cache.invalidate(object);
     }
 
     public List<T> fetchAll() {
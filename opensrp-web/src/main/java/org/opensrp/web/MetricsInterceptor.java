@@ -0,0 +1,76 @@
+package org.opensrp.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.MetricsRegistry;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Times the sync and ingestion endpoints into the metrics registry. Requests are matched on method and path, so the
+ * controllers themselves stay free of timing code.
+ */
+public class MetricsInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String START_ATTRIBUTE = MetricsInterceptor.class.getName() + ".start";
+
+	private static final String METRIC_ATTRIBUTE = MetricsInterceptor.class.getName() + ".metric";
+
+	private static final Map<String, Metric> ENDPOINTS = new HashMap<String, Metric>();
+
+	static {
+		ENDPOINTS.put("GET /rest/event/sync", Metric.SYNC_EVENTS_TIME);
+		ENDPOINTS.put("GET /rest/event/sync/stream", Metric.SYNC_EVENTS_STREAM_TIME);
+		ENDPOINTS.put("GET /actions/sync", Metric.SYNC_ACTIONS_TIME);
+		ENDPOINTS.put("GET /rest/stockresource/sync", Metric.SYNC_STOCK_TIME);
+		ENDPOINTS.put("GET /form-submissions", Metric.SYNC_FORM_SUBMISSIONS_TIME);
+		ENDPOINTS.put("POST /rest/event/add", Metric.EVENTS_INGEST_TIME);
+		ENDPOINTS.put("POST /rest/event/add/bulk", Metric.EVENTS_INGEST_TIME);
+		ENDPOINTS.put("POST /form-submissions", Metric.FORM_SUBMISSIONS_INGEST_TIME);
+	}
+
+	private final MetricsRegistry registry;
+
+	public MetricsInterceptor() {
+		this(MetricsRegistry.getDefault());
+	}
+
+	MetricsInterceptor(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		Metric metric = metricFor(request);
+		if (metric != null) {
+			request.setAttribute(METRIC_ATTRIBUTE, metric);
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		}
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		Metric metric = (Metric) request.getAttribute(METRIC_ATTRIBUTE);
+		Long start = (Long) request.getAttribute(START_ATTRIBUTE);
+		if (metric == null || start == null) {
+			return;
+		}
+		registry.record(metric, System.nanoTime() - start);
+		if (ex != null) {
+			registry.counter(metric.name() + ".failed").increment();
+		}
+	}
+
+	static Metric metricFor(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length()).replaceAll("/+", "/");
+		if (path.length() > 1 && path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return ENDPOINTS.get(request.getMethod() + " " + path);
+	}
+}
@@ -0,0 +1,36 @@
+package org.opensrp.web.controller;
+
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+import org.opensrp.common.monitor.Monitor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import com.google.gson.Gson;
+
+/**
+ * Exports the timers, counters and gauges of the server as JSON. Timers are in milliseconds and cover everything
+ * recorded since startup or the last reset through JMX.
+ */
+@Controller
+public class MetricsController {
+
+	private Monitor monitor;
+
+	@Autowired
+	public MetricsController(Monitor monitor) {
+		this.monitor = monitor;
+	}
+
+	@RequestMapping(method = GET, value = "/metrics")
+	public ResponseEntity<String> metrics() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		return new ResponseEntity<>(new Gson().toJson(monitor.registry().snapshot()), headers, HttpStatus.OK);
+	}
+}
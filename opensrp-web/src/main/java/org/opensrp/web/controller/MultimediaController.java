@@ -2,21 +2,22 @@ package org.opensrp.web.controller;
 
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.opensrp.domain.Multimedia;
 import org.opensrp.dto.form.MultimediaDTO;
 import org.opensrp.service.MultimediaService;
 import org.opensrp.web.security.DrishtiAuthenticationProvider;
+import org.opensrp.web.utils.FileSender;
+import org.opensrp.web.utils.ImageThumbnails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,7 +28,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.FileCopyUtils;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -53,20 +53,38 @@ public class MultimediaController {
 	@Autowired
 	MultimediaService multimediaService;
 	
+	@Value("#{opensrp['multimedia.cache.max.age.seconds']}")
+	long cacheMaxAgeSeconds;
+	
+	FileSender fileSender;
+	
+	ImageThumbnails thumbnails;
+	
+	@PostConstruct
+	public void init() {
+		fileSender = new FileSender(cacheMaxAgeSeconds);
+		thumbnails = new ImageThumbnails(new File(multiMediaDir + File.separator + "thumbnails"));
+	}
+	
 	/**
 	 * Download a file from the multimedia directory. The method also assumes two file types mp4 and
 	 * images whereby all images are stored in the images folder and videos in mp4 in the multimedia
 	 * directory This method is set to bypass spring security config but authenticate through the
-	 * username/password passed at the headers
+	 * username/password passed at the headers. Images are scaled down to the optional size, the length of their
+	 * longest side in pixels.
 	 * 
+	 * @param request
 	 * @param response
 	 * @param fileName
+	 * @param size
 	 * @param userName
 	 * @param password
 	 * @throws IOException
 	 */
 	@RequestMapping(value = "/download/{fileName:.+}", method = RequestMethod.GET)
-	public void downloadFile(HttpServletResponse response, @PathVariable("fileName") String fileName,
+	public void downloadFile(HttpServletRequest request, HttpServletResponse response,
+	                         @PathVariable("fileName") String fileName,
+	                         @RequestParam(value = "size", required = false) Integer size,
 	                         @RequestHeader(value = "username") String userName,
 	                         @RequestHeader(value = "password") String password)
 	    throws Exception {
@@ -78,7 +96,7 @@ public class MultimediaController {
 					file = new File(multiMediaDir + File.separator + "videos" + File.separator + fileName);
 				}
 				
-				downloadFile(file, response);
+				downloadFile(file, size, request, response);
 			}
 		}
 		catch (Exception e) {
@@ -90,14 +108,18 @@ public class MultimediaController {
 	 * This method downloads a file from the server given the client id. A search is made to the
 	 * multimedia repo to see if any file exists mapped to the user whereby the filepath is recorded
 	 * 
+	 * @param request
 	 * @param response
 	 * @param baseEntityId
+	 * @param size
 	 * @param userName
 	 * @param password
 	 * @throws Exception
 	 */
 	@RequestMapping(value = "/profileimage/{baseEntityId}", method = RequestMethod.GET)
-	public void downloadFileByClientId(HttpServletResponse response, @PathVariable("baseEntityId") String baseEntityId,
+	public void downloadFileByClientId(HttpServletRequest request, HttpServletResponse response,
+	                                   @PathVariable("baseEntityId") String baseEntityId,
+	                                   @RequestParam(value = "size", required = false) Integer size,
 	                                   @RequestHeader(value = "username") String userName,
 	                                   @RequestHeader(value = "password") String password)
 	    throws Exception {
@@ -111,7 +133,8 @@ public class MultimediaController {
 					File file = new File(multiMediaDir + File.separator + MultimediaService.IMAGES_DIR + File.separator
 					        + baseEntityId + ".jpg");
 					if (file.exists()) {
-						downloadFile(file, response);
+						downloadFile(file, size, request, response);
+						return;
 					} else {
 						String errorMessage = "Sorry. The file you are looking for does not exist";
 						logger.info(errorMessage);
@@ -124,7 +147,7 @@ public class MultimediaController {
 				String filePath = multiMedia.getFilePath();
 				
 				File file = new File(filePath);
-				downloadFile(file, response);
+				downloadFile(file, size, request, response);
 			}
 		}
 		catch (Exception e) {
@@ -154,7 +177,8 @@ public class MultimediaController {
 		return auth;
 	}
 	
-	private void downloadFile(File file, HttpServletResponse response) throws Exception {
+	private void downloadFile(File file, Integer size, HttpServletRequest request, HttpServletResponse response)
+	    throws Exception {
 		
 		if (!file.exists()) {
 			String errorMessage = "Sorry. The file you are looking for does not exist";
@@ -173,7 +197,9 @@ public class MultimediaController {
 		
 		logger.info("mimetype : " + mimeType);
 		
-		response.setContentType(mimeType);
+		if (size != null && size > 0 && mimeType.startsWith("image/")) {
+			file = thumbnails.thumbnailOf(file, size);
+		}
 		
 		/* "Content-Disposition : inline" will show viewable types [like images/text/pdf/anything viewable by browser] right on browser 
 		    while others(zip e.g) will be directly downloaded [may provide save as popup, based on your browser setting.]*/
@@ -182,12 +208,7 @@ public class MultimediaController {
 		/* "Content-Disposition : attachment" will be directly download, may provide save as popup, based on your browser setting*/
 		//response.setHeader("Content-Disposition", String.format("attachment; filename=\"%s\"", file.getName()));
 		
-		response.setContentLength((int) file.length());
-		
-		InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-		
-		//Copy bytes from source to destination(outputstream in this example), closes both streams.
-		FileCopyUtils.copy(inputStream, response.getOutputStream());
+		fileSender.send(file, mimeType, request, response);
 	}
 	
 }
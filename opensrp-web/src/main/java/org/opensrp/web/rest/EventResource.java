@@ -16,14 +16,20 @@ import static org.springframework.http.HttpStatus.CREATED;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.joda.time.DateTime;
 import org.json.JSONObject;
 import org.opensrp.common.AllConstants.BaseEntity;
@@ -31,7 +37,9 @@ import org.opensrp.domain.Client;
 import org.opensrp.domain.Event;
 import org.opensrp.service.ClientService;
 import org.opensrp.service.EventService;
+import org.opensrp.service.RecordStatus;
 import org.opensrp.util.DateTimeTypeConverter;
+import org.opensrp.util.DocumentStreamWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -59,6 +67,9 @@ public class EventResource extends RestResource<Event> {
 	
 	private ClientService clientService;
 	
+	// a failed stream must leave the body unterminated so that clients do not mistake it for a complete page
+	private JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+	
 	Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
 	        .registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
 	
@@ -141,6 +152,85 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 	
+	/**
+	 * Streaming variant of {@link #sync(HttpServletRequest)}. The events and their clients are copied straight from
+	 * the CouchDB responses into the servlet output stream instead of being built up in memory first. Pages are keyed
+	 * on serverVersion; the serverVersion in the response is the cursor to send back for the next page.
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/sync/stream", method = RequestMethod.GET)
+	public void syncStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Long requestedServerVersion = null;
+		List<String> eventIds = new ArrayList<String>();
+		try {
+			String providerId = getStringFilter(PROVIDER_ID, request);
+			String locationId = getStringFilter(LOCATION_ID, request);
+			String baseEntityId = getStringFilter(BASE_ENTITY_ID, request);
+			String serverVersion = getStringFilter(BaseEntity.SERVER_VERSIOIN, request);
+			Long lastSyncedServerVersion = null;
+			if (serverVersion != null) {
+				requestedServerVersion = Long.valueOf(serverVersion);
+				lastSyncedServerVersion = requestedServerVersion + 1;
+			}
+			String team = getStringFilter("team", request);
+			Integer limit = getIntegerFilter("limit", request);
+			if (limit == null || limit.intValue() == 0) {
+				limit = 25;
+			}
+			
+			if (team != null || providerId != null || locationId != null || baseEntityId != null) {
+				eventIds = eventService.findEventIds(team, providerId, locationId, baseEntityId, lastSyncedServerVersion,
+				    BaseEntity.SERVER_VERSIOIN, "asc", limit);
+			}
+		}
+		catch (Exception e) {
+			logger.error("", e);
+			Map<String, Object> error = new HashMap<String, Object>();
+			error.put("msg", "Error occurred");
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			response.setContentType("application/json");
+			response.getWriter().write(new Gson().toJson(error));
+			return;
+		}
+		
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		JsonGenerator generator = jsonFactory.createJsonGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+		try {
+			generator.writeStartObject();
+			
+			generator.writeArrayFieldStart("events");
+			DocumentStreamWriter eventWriter = new DocumentStreamWriter(generator);
+			if (!eventIds.isEmpty()) {
+				eventWriter.writeDocs(eventService.streamEventsByIds(eventIds));
+			}
+			generator.writeEndArray();
+			
+			generator.writeArrayFieldStart("clients");
+			if (!eventWriter.getBaseEntityIds().isEmpty()) {
+				new DocumentStreamWriter(generator)
+				        .writeDocs(clientService.streamByBaseEntityIds(eventWriter.getBaseEntityIds()));
+			}
+			generator.writeEndArray();
+			
+			generator.writeNumberField("no_of_events", eventWriter.getCount());
+			Long nextServerVersion = eventWriter.getLastServerVersion() != null ? eventWriter.getLastServerVersion()
+			        : requestedServerVersion;
+			generator.writeNumberField(BaseEntity.SERVER_VERSIOIN, nextServerVersion == null ? 0l : nextServerVersion);
+			generator.writeEndObject();
+		}
+		catch (Exception e) {
+			// the status line has already gone out, the client gets a truncated body and retries the same page
+			logger.error("Streaming sync failed", e);
+		}
+		finally {
+			generator.close();
+		}
+	}
+	
 	@SuppressWarnings("unchecked")
 	@RequestMapping(headers = { "Accept=application/json" }, method = POST, value = "/add")
 	public ResponseEntity<HttpStatus> save(@RequestBody String data) {
@@ -186,6 +276,61 @@ public class EventResource extends RestResource<Event> {
 		return new ResponseEntity<>(CREATED);
 	}
 	
+	/**
+	 * Batched variant of {@link #save(String)}. Clients and events are each resolved against the database with
+	 * multi-key lookups and written with one _bulk_docs request, instead of a lookup and a PUT per record.
+	 * 
+	 * @param data the same payload accepted by /add
+	 * @return the per record status of the clients and events, in the order they were posted
+	 */
+	@SuppressWarnings("unchecked")
+	@RequestMapping(headers = { "Accept=application/json" }, method = POST, value = "/add/bulk")
+	public ResponseEntity<String> saveBulk(@RequestBody String data) {
+		Map<String, Object> response = new HashMap<String, Object>();
+		try {
+			JSONObject syncData = new JSONObject(data);
+			if (!syncData.has("clients") && !syncData.has("events")) {
+				return new ResponseEntity<>(BAD_REQUEST);
+			}
+			
+			if (syncData.has("clients")) {
+				ArrayList<Client> clients = (ArrayList<Client>) gson.fromJson(syncData.getString("clients"),
+				    new TypeToken<ArrayList<Client>>() {}.getType());
+				response.put("clients", clientService.addorUpdate(clients));
+			}
+			if (syncData.has("events")) {
+				ArrayList<Event> events = (ArrayList<Event>) gson.fromJson(syncData.getString("events"),
+				    new TypeToken<ArrayList<Event>>() {}.getType());
+				RecordStatus[] statuses = new RecordStatus[events.size()];
+				List<Event> processed = new ArrayList<Event>();
+				List<Integer> positions = new ArrayList<Integer>();
+				for (int i = 0; i < events.size(); i++) {
+					Event event = events.get(i);
+					try {
+						processed.add(eventService.processOutOfArea(event));
+						positions.add(i);
+					}
+					catch (Exception e) {
+						logger.error("Event of type " + event.getEventType() + " for client " + event.getBaseEntityId()
+						        + " failed to sync", e);
+						statuses[i] = RecordStatus.failed(event.getBaseEntityId(), event.getId(), e.getMessage());
+					}
+				}
+				List<RecordStatus> saved = eventService.addorUpdateEvents(processed);
+				for (int i = 0; i < saved.size(); i++) {
+					statuses[positions.get(i)] = saved.get(i);
+				}
+				response.put("events", Arrays.asList(statuses));
+			}
+		}
+		catch (Exception e) {
+			logger.error(format("Bulk sync data processing failed with exception {0}.- ", e));
+			response.put("msg", "Error occurred");
+			return new ResponseEntity<>(gson.toJson(response), INTERNAL_SERVER_ERROR);
+		}
+		return new ResponseEntity<>(gson.toJson(response), CREATED);
+	}
+	
 	/*	@RequestMapping(method=RequestMethod.GET)
 		@ResponseBody
 		public Event getByBaseEntityAndFormSubmissionId(@RequestParam String baseEntityId, @RequestParam String formSubmissionId) {
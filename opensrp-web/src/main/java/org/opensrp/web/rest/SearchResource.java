@@ -13,9 +13,24 @@ import static org.opensrp.web.rest.RestUtils.getStringFilter;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 
 import org.joda.time.DateTime;
@@ -28,6 +43,7 @@ import org.opensrp.service.SearchService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -47,11 +63,44 @@ public class SearchResource extends RestResource<Client> {
 	
 	private EventService eventService;
 	
-	@Autowired
+	public static final int DEFAULT_SEARCH_THREADS = 32;
+	
+	private static final String MOTHER_PHONE_NUMBER_CONCEPT = "159635AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+	
+	/**
+	 * Runs the independent sub-queries of a path search side by side. It has no queue: when every thread is busy
+	 * with other searches the request thread runs the sub-query itself rather than waiting behind them.
+	 */
+	private final ExecutorService searchExecutor;
+	
 	public SearchResource(SearchService searchService, ClientService clientService, EventService eventService) {
+		this(searchService, clientService, eventService, DEFAULT_SEARCH_THREADS);
+	}
+	
+	@Autowired
+	public SearchResource(SearchService searchService, ClientService clientService, EventService eventService,
+	    @Value("#{opensrp['search.threads']}") int searchThreads) {
 		this.searchService = searchService;
 		this.clientService = clientService;
 		this.eventService = eventService;
+		ThreadFactory threadFactory = new ThreadFactory() {
+			
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "search-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		this.searchExecutor = new ThreadPoolExecutor(0, searchThreads > 0 ? searchThreads : 1, 60, TimeUnit.SECONDS,
+		        new SynchronousQueue<Runnable>(), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		searchExecutor.shutdown();
 	}
 	
 	@Override
@@ -134,14 +183,15 @@ public class SearchResource extends RestResource<Client> {
 				}
 			}
 			
-			List<Client> children = new ArrayList<Client>();
+			// The child, mother and phone number searches do not depend on each other, run them side by side
+			Future<List<Client>> childrenSearch = null;
 			
 			if (!StringUtils.isEmptyOrWhitespaceOnly(firstName) || !StringUtils.isEmptyOrWhitespaceOnly(middleName)
 			        || !StringUtils.isEmptyOrWhitespaceOnly(lastName) || !StringUtils.isEmptyOrWhitespaceOnly(gender)
 			        || !identifiers.isEmpty() || !attributes.isEmpty() || birthdate != null || lastEdit != null) {
 				
-				children = searchService.searchClient(null, firstName, middleName, lastName, gender, identifiers,
-				    attributes, birthdate == null ? null : birthdate[0], birthdate == null ? null : birthdate[1],
+				childrenSearch = searchClient(null, firstName, middleName, lastName, gender, identifiers, attributes,
+				    birthdate == null ? null : birthdate[0], birthdate == null ? null : birthdate[1],
 				    lastEdit == null ? null : lastEdit[0], lastEdit == null ? null : lastEdit[1], limit);
 				
 			}
@@ -163,7 +213,7 @@ public class SearchResource extends RestResource<Client> {
 				motherAttributes.put(NRC_NUMBER_KEY, motherGuardianNrc);
 			}
 			
-			List<Client> mothers = new ArrayList<Client>();
+			Future<List<Client>> mothersSearch = null;
 			if (!StringUtils.isEmptyOrWhitespaceOnly(motherFirstName)
 			        || !StringUtils.isEmptyOrWhitespaceOnly(motherLastName) || !motherAttributes.isEmpty()) {
 				
@@ -180,79 +230,62 @@ public class SearchResource extends RestResource<Client> {
 						motherLastName = null;
 					}
 				}
-				mothers = searchService.searchClient(nameLike, motherFirstName, null, motherLastName, null, null,
+				mothersSearch = searchClient(nameLike, motherFirstName, null, motherLastName, null, null,
 				    motherAttributes, null, null, lastEdit == null ? null : lastEdit[0], lastEdit == null ? null
 				            : lastEdit[1], limit);
 				
 			}
 			
-			List<Client> eventChildren = new ArrayList<Client>();
+			Future<List<Client>> eventChildrenSearch = null;
 			if (!StringUtils.isEmptyOrWhitespaceOnly(motherGuardianPhoneNumber)) {
-				List<Event> events = eventService.findEventsByConceptAndValue("159635AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
-				    motherGuardianPhoneNumber);
-				if (events != null && !events.isEmpty()) {
-					List<String> clientIds = new ArrayList<String>();
-					for (Event event : events) {
-						String entityId = event.getBaseEntityId();
-						if (entityId != null && !clientIds.contains(entityId)) {
-							clientIds.add(entityId);
-						}
-					}
-					
-					eventChildren = clientService.findByFieldValue(BaseEntity.BASE_ENTITY_ID, clientIds);
-					
-				}
+				eventChildrenSearch = findByMotherPhoneNumber(motherGuardianPhoneNumber, limit);
 			}
 			
-			// Search conjunction is "AND" find intersection
-			children = intersection(children, eventChildren);
-			
-			List<Client> linkedMothers = new ArrayList<Client>();
-			
 			String RELATIONSHIP_KEY = "mother";
-			if (!children.isEmpty()) {
-				List<String> clientIds = new ArrayList<String>();
-				for (Client c : children) {
-					String relationshipId = getRelationalId(c, RELATIONSHIP_KEY);
-					if (relationshipId != null && !clientIds.contains(relationshipId)) {
-						clientIds.add(relationshipId);
-					}
+			String M_ZEIR_ID = "M_ZEIR_ID";
+			
+			// Children of the mothers found can be looked up while the child searches are still running
+			List<Client> mothers = resultOf(mothersSearch);
+			Set<String> cIndentifers = new LinkedHashSet<String>();
+			for (Client m : mothers) {
+				String childIdentifier = getChildIndentifier(m, M_ZEIR_ID, RELATIONSHIP_KEY);
+				if (childIdentifier != null) {
+					cIndentifers.add(childIdentifier);
 				}
-				
-				linkedMothers = clientService.findByFieldValue(BaseEntity.BASE_ENTITY_ID, clientIds);
-				
 			}
+			Future<List<Client>> linkedChildrenSearch = findByFieldValue(ZEIR_ID_KEY, cIndentifers);
 			
-			List<Client> linkedChildren = new ArrayList<Client>();
+			// Search conjunction is "AND" find intersection
+			List<Client> children = intersection(resultOf(childrenSearch), resultOf(eventChildrenSearch));
 			
-			String M_ZEIR_ID = "M_ZEIR_ID";
-			if (!mothers.isEmpty()) {
-				List<String> cIndentifers = new ArrayList<String>();
-				for (Client m : mothers) {
-					String childIdentifier = getChildIndentifier(m, M_ZEIR_ID, RELATIONSHIP_KEY);
-					if (childIdentifier != null && !cIndentifers.contains(childIdentifier)) {
-						cIndentifers.add(childIdentifier);
-					}
+			Set<String> motherIds = new LinkedHashSet<String>();
+			for (Client c : children) {
+				String relationshipId = getRelationalId(c, RELATIONSHIP_KEY);
+				if (relationshipId != null) {
+					motherIds.add(relationshipId);
 				}
-				
-				linkedChildren = clientService.findByFieldValue(ZEIR_ID_KEY, cIndentifers);
-				
 			}
+			Future<List<Client>> linkedMothersSearch = findByFieldValue(BaseEntity.BASE_ENTITY_ID, motherIds);
 			
 			// Search conjunction is "AND" find intersection
-			children = intersection(children, linkedChildren);
+			children = intersection(children, resultOf(linkedChildrenSearch));
 			
-			for (Client linkedMother : linkedMothers) {
-				if (!contains(mothers, linkedMother)) {
-					mothers.add(linkedMother);
+			Map<String, List<Client>> mothersById = new LinkedHashMap<String, List<Client>>();
+			for (Client mother : mothers) {
+				addMother(mothersById, mother);
+			}
+			for (Client linkedMother : resultOf(linkedMothersSearch)) {
+				String linkedMotherId = linkedMother.getBaseEntityId();
+				if (linkedMotherId == null || !mothersById.containsKey(key(linkedMotherId))) {
+					addMother(mothersById, linkedMother);
 				}
 			}
 			
 			for (Client child : children) {
-				for (Client mother : mothers) {
-					String relationalId = getRelationalId(child, RELATIONSHIP_KEY);
-					String motherEntityId = mother.getBaseEntityId();
-					if (relationalId != null && motherEntityId != null && relationalId.equalsIgnoreCase(motherEntityId)) {
+				String relationalId = getRelationalId(child, RELATIONSHIP_KEY);
+				List<Client> childMothers = relationalId == null ? null : mothersById.get(key(relationalId));
+				if (childMothers != null) {
+					for (Client mother : childMothers) {
 						childMotherList.add(new ChildMother(child, mother));
 					}
 				}
@@ -266,6 +299,94 @@ public class SearchResource extends RestResource<Client> {
 		return childMotherList;
 	}
 	
+	private Future<List<Client>> searchClient(final String nameLike, final String firstName, final String middleName,
+	                                          final String lastName, final String gender,
+	                                          final Map<String, String> identifiers, final Map<String, String> attributes,
+	                                          final DateTime birthdateFrom, final DateTime birthdateTo,
+	                                          final DateTime lastEditFrom, final DateTime lastEditTo, final Integer limit) {
+		return searchExecutor.submit(new Callable<List<Client>>() {
+			
+			@Override
+			public List<Client> call() {
+				return searchService.searchClient(nameLike, firstName, middleName, lastName, gender, identifiers,
+				    attributes, birthdateFrom, birthdateTo, lastEditFrom, lastEditTo, limit);
+			}
+		});
+	}
+	
+	/**
+	 * Up to limit clients that have events recording the given mother phone number. A client usually has several
+	 * such events, so events are read a page at a time until limit distinct clients are found.
+	 */
+	private Future<List<Client>> findByMotherPhoneNumber(final String phoneNumber, final int limit) {
+		return searchExecutor.submit(new Callable<List<Client>>() {
+			
+			@Override
+			public List<Client> call() {
+				Set<String> clientIds = new LinkedHashSet<String>();
+				for (int skip = 0; clientIds.size() < limit; skip += limit) {
+					List<Event> events = eventService.findEventsByConceptAndValue(MOTHER_PHONE_NUMBER_CONCEPT,
+					    phoneNumber, skip, limit);
+					if (events == null) {
+						break;
+					}
+					for (Event event : events) {
+						if (event.getBaseEntityId() != null && clientIds.size() < limit) {
+							clientIds.add(event.getBaseEntityId());
+						}
+					}
+					if (events.size() < limit) {
+						break;
+					}
+				}
+				return clientIds.isEmpty() ? new ArrayList<Client>() : clientService.findByFieldValue(
+				    BaseEntity.BASE_ENTITY_ID, new ArrayList<String>(clientIds));
+			}
+		});
+	}
+	
+	private Future<List<Client>> findByFieldValue(final String field, final Set<String> values) {
+		if (values.isEmpty()) {
+			return null;
+		}
+		return searchExecutor.submit(new Callable<List<Client>>() {
+			
+			@Override
+			public List<Client> call() {
+				return clientService.findByFieldValue(field, new ArrayList<String>(values));
+			}
+		});
+	}
+	
+	/**
+	 * @param search a sub-query that was submitted, or null if its criteria were not given
+	 * @return the clients the sub-query found, never null
+	 */
+	private static List<Client> resultOf(Future<List<Client>> search) throws InterruptedException, ExecutionException {
+		List<Client> clients = search == null ? null : search.get();
+		return clients == null ? new ArrayList<Client>() : clients;
+	}
+	
+	private static void addMother(Map<String, List<Client>> mothersById, Client mother) {
+		String motherEntityId = mother.getBaseEntityId();
+		if (motherEntityId == null) {
+			return;
+		}
+		List<Client> mothers = mothersById.get(key(motherEntityId));
+		if (mothers == null) {
+			mothers = new ArrayList<Client>(1);
+			mothersById.put(key(motherEntityId), mothers);
+		}
+		mothers.add(mother);
+	}
+	
+	/**
+	 * Children refer to their mother's baseEntityId ignoring case
+	 */
+	private static String key(String baseEntityId) {
+		return baseEntityId.toLowerCase(Locale.ENGLISH);
+	}
+	
 	@Override
 	public List<Client> filter(String query) {
 		// TODO Auto-generated method stub
@@ -358,20 +479,6 @@ public class SearchResource extends RestResource<Client> {
 		return unformattedId;
 	}
 	
-	private boolean contains(List<Client> clients, Client c) {
-		if (clients == null || clients.isEmpty() || c == null) {
-			return false;
-		}
-		for (Client client : clients) {
-			if (client != null && client.getBaseEntityId() != null && c.getBaseEntityId() != null) {
-				if (client.getBaseEntityId().equals(c.getBaseEntityId())) {
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-	
 	public List<Client> intersection(List<Client> list1, List<Client> list2) {
 		if (list1 == null) {
 			list1 = new ArrayList<Client>();
@@ -393,10 +500,17 @@ public class SearchResource extends RestResource<Client> {
 			return list1;
 		}
 		
+		Set<String> ids = new HashSet<String>();
+		for (Client client : list2) {
+			if (client != null && client.getBaseEntityId() != null) {
+				ids.add(client.getBaseEntityId());
+			}
+		}
+		
 		List<Client> list = new ArrayList<Client>();
 		
 		for (Client t : list1) {
-			if (contains(list2, t)) {
+			if (t != null && t.getBaseEntityId() != null && ids.contains(t.getBaseEntityId())) {
 				list.add(t);
 			}
 		}
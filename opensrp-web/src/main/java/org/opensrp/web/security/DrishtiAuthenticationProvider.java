@@ -2,8 +2,13 @@ package org.opensrp.web.security;
 
 import static java.text.MessageFormat.format;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
+import org.joda.time.DateTimeUtils;
 import org.json.JSONException;
 import org.opensrp.api.domain.User;
 import org.opensrp.connector.openmrs.service.OpenmrsUserService;
@@ -11,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -30,15 +36,39 @@ public class DrishtiAuthenticationProvider implements AuthenticationProvider {
     public static final String USER_NOT_ACTIVATED = "The user has been registered but not activated. Please contact your local administrator.";
     public static final String INTERNAL_ERROR = "Failed to authenticate user due to internal server error.";
 
+    public static final long DEFAULT_CACHE_TTL_SECONDS = 300;
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
     //private AllOpenSRPUsers allOpenSRPUsers;
     private PasswordEncoder passwordEncoder;
     private OpenmrsUserService openmrsUserService;
 
+    /**
+     * Users that authenticated successfully against OpenMRS, keyed on the authenticating username and the user looked
+     * up. Only a salted hash of the password is kept. Entries expire after cacheTtlMillis and the least recently used
+     * entry is dropped once cacheSize is reached.
+     */
+    private final Map<String, CachedUser> userCache;
+    private final long cacheTtlMillis;
+    private final String salt = UUID.randomUUID().toString();
+
+    public DrishtiAuthenticationProvider(OpenmrsUserService openmrsUserService, PasswordEncoder passwordEncoder) {
+        this(openmrsUserService, passwordEncoder, DEFAULT_CACHE_TTL_SECONDS, DEFAULT_CACHE_SIZE);
+    }
 
     @Autowired
-    public DrishtiAuthenticationProvider(OpenmrsUserService openmrsUserService, @Qualifier("shaPasswordEncoder") PasswordEncoder passwordEncoder) {
+    public DrishtiAuthenticationProvider(OpenmrsUserService openmrsUserService, @Qualifier("shaPasswordEncoder") PasswordEncoder passwordEncoder,
+            @Value("#{opensrp['authentication.cache.ttl.seconds']}") long cacheTtlSeconds,
+            @Value("#{opensrp['authentication.cache.size']}") final int cacheSize) {
         this.openmrsUserService = openmrsUserService;
         this.passwordEncoder = passwordEncoder;
+        this.cacheTtlMillis = cacheTtlSeconds * 1000;
+        this.userCache = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                return size() > cacheSize;
+            }
+        };
     }
 
     @Override
@@ -74,7 +104,12 @@ public class DrishtiAuthenticationProvider implements AuthenticationProvider {
     
     
     public User getDrishtiUser(Authentication authentication, String username) {
-        User user = null;
+        String cacheKey = authentication.getName() + "\u0000" + username;
+        String passwordHash = hashPassword(authentication);
+        User user = getCachedUser(cacheKey, passwordHash);
+        if (user != null) {
+            return user;
+        }
         try {
         	if(openmrsUserService.authenticate(authentication.getName(), authentication.getCredentials().toString())){
                 boolean response = openmrsUserService.deleteSession(authentication.getName(),authentication.getCredentials().toString());
@@ -89,6 +124,69 @@ public class DrishtiAuthenticationProvider implements AuthenticationProvider {
         	e.printStackTrace();
             throw new BadCredentialsException(INTERNAL_ERROR);
         }
+        if (user != null && passwordHash != null) {
+            synchronized (userCache) {
+                userCache.put(cacheKey, new CachedUser(passwordHash, user, DateTimeUtils.currentTimeMillis() + cacheTtlMillis));
+            }
+        }
         return user;
     }
+
+    /**
+     * Drop the cached authentications of the given user, e.g. after the password or roles changed in OpenMRS.
+     */
+    public void invalidate(String username) {
+        String prefix = username + "\u0000";
+        String suffix = "\u0000" + username;
+        synchronized (userCache) {
+            for (Iterator<String> keys = userCache.keySet().iterator(); keys.hasNext();) {
+                String key = keys.next();
+                if (key.startsWith(prefix) || key.endsWith(suffix)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (userCache) {
+            userCache.clear();
+        }
+    }
+
+    private User getCachedUser(String cacheKey, String passwordHash) {
+        if (passwordHash == null) {
+            return null;
+        }
+        synchronized (userCache) {
+            CachedUser cached = userCache.get(cacheKey);
+            if (cached == null) {
+                return null;
+            }
+            if (cached.expiresAt < DateTimeUtils.currentTimeMillis()) {
+                userCache.remove(cacheKey);
+                return null;
+            }
+            return cached.passwordHash.equals(passwordHash) ? cached.user : null;
+        }
+    }
+
+    private String hashPassword(Authentication authentication) {
+        if (passwordEncoder == null || cacheTtlMillis <= 0 || authentication.getCredentials() == null) {
+            return null;
+        }
+        return passwordEncoder.encodePassword(authentication.getCredentials().toString(), salt + authentication.getName());
+    }
+
+    private static class CachedUser {
+        private final String passwordHash;
+        private final User user;
+        private final long expiresAt;
+
+        CachedUser(String passwordHash, User user, long expiresAt) {
+            this.passwordHash = passwordHash;
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
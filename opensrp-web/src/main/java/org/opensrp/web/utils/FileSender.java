@@ -0,0 +1,193 @@
+package org.opensrp.web.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes a file to a GET response. The response carries an ETag and Last-Modified so clients can revalidate with a
+ * conditional GET and get a 304 back instead of the file, and a single byte range can be requested so an interrupted
+ * download is resumed rather than restarted. The bytes are handed to the servlet output stream with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} so they are not copied through a stream buffer here.
+ */
+public class FileSender {
+
+	private static final Pattern BYTE_RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+	private static final long[] UNSATISFIABLE = new long[0];
+
+	private final long maxAgeSeconds;
+
+	/**
+	 * @param maxAgeSeconds how long clients may use their copy of a file without revalidating it
+	 */
+	public FileSender(long maxAgeSeconds) {
+		this.maxAgeSeconds = maxAgeSeconds;
+	}
+
+	public void send(File file, String contentType, HttpServletRequest request, HttpServletResponse response)
+	    throws IOException {
+		long length = file.length();
+		// HTTP dates have a resolution of one second
+		long lastModified = file.lastModified() / 1000 * 1000;
+		String etag = etag(file);
+
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Cache-Control", "private, max-age=" + maxAgeSeconds);
+		response.setHeader("Accept-Ranges", "bytes");
+
+		if (isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		long start = 0;
+		long end = length - 1;
+		String range = request.getHeader("Range");
+		if (range != null && ifRangeMatches(request, etag, lastModified)) {
+			long[] byteRange = parseRange(range, length);
+			if (byteRange == UNSATISFIABLE) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			if (byteRange != null) {
+				start = byteRange[0];
+				end = byteRange[1];
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+			}
+		}
+
+		response.setContentType(contentType);
+		// setContentLength takes an int, which files over 2GB do not fit in
+		response.setHeader("Content-Length", String.valueOf(end - start + 1));
+		transfer(file, start, end - start + 1, response.getOutputStream());
+	}
+
+	/**
+	 * Changes whenever the file is replaced or rewritten
+	 *
+	 * @param file
+	 * @return quoted strong entity tag
+	 */
+	public static String etag(File file) {
+		return "\"" + Long.toHexString(file.lastModified()) + "-" + Long.toHexString(file.length()) + "\"";
+	}
+
+	/**
+	 * If-None-Match wins over If-Modified-Since when both are sent
+	 */
+	static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.equals("*") || stripWeak(tag).equals(etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		long ifModifiedSince = dateHeader(request, "If-Modified-Since");
+		return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+	}
+
+	/**
+	 * A range is only served if the client still has the version of the file named in If-Range, otherwise the whole
+	 * file is sent
+	 */
+	static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(etag);
+		}
+		return dateHeader(request, "If-Range") == lastModified;
+	}
+
+	/**
+	 * Parses a single "bytes=first-last", "bytes=first-" or "bytes=-suffixLength" range. Anything else, multiple
+	 * ranges included, is ignored and the whole file sent as allowed by RFC 7233.
+	 *
+	 * @param range
+	 * @param length
+	 * @return first and last byte positions, {@link #UNSATISFIABLE} if the range starts after the end of the file or
+	 *         null if the header is to be ignored
+	 */
+	static long[] parseRange(String range, long length) {
+		Matcher matcher = BYTE_RANGE.matcher(range.trim());
+		if (!matcher.matches()) {
+			return null;
+		}
+		String first = matcher.group(1);
+		String last = matcher.group(2);
+		try {
+			if (first.isEmpty()) {
+				if (last.isEmpty()) {
+					return null;
+				}
+				long suffixLength = Long.parseLong(last);
+				if (suffixLength == 0 || length == 0) {
+					return UNSATISFIABLE;
+				}
+				return new long[] { Math.max(0, length - suffixLength), length - 1 };
+			}
+			long start = Long.parseLong(first);
+			long end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+			if (end < start) {
+				return null;
+			}
+			if (start >= length) {
+				return UNSATISFIABLE;
+			}
+			return new long[] { start, Math.min(end, length - 1) };
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static long dateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		}
+		catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	private static String stripWeak(String tag) {
+		return tag.startsWith("W/") ? tag.substring(2) : tag;
+	}
+
+	private static void transfer(File file, long position, long count, OutputStream outputStream) throws IOException {
+		WritableByteChannel target = Channels.newChannel(outputStream);
+		try (FileInputStream inputStream = new FileInputStream(file); FileChannel channel = inputStream.getChannel()) {
+			long remaining = count;
+			while (remaining > 0) {
+				long sent = channel.transferTo(position, remaining, target);
+				if (sent <= 0) {
+					// the file got shorter while it was being sent
+					break;
+				}
+				position += sent;
+				remaining -= sent;
+			}
+		}
+		outputStream.flush();
+	}
+}
@@ -0,0 +1,101 @@
+package org.opensrp.web.utils;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Scaled down copies of images, made on first request and kept on disk under the cache directory in one folder per
+ * size. A cached copy is made again once the original image is newer than it.
+ */
+public class ImageThumbnails {
+
+	public static final int MAX_SIZE = 1024;
+
+	private final File cacheDir;
+
+	public ImageThumbnails(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * @param image
+	 * @param size longest side of the thumbnail in pixels, at most {@link #MAX_SIZE}
+	 * @return the thumbnail, or the image itself if it is no bigger than size or cannot be scaled
+	 * @throws IOException
+	 */
+	public File thumbnailOf(File image, int size) throws IOException {
+		size = Math.max(1, Math.min(size, MAX_SIZE));
+		File thumbnail = new File(new File(cacheDir, String.valueOf(size)), image.getName());
+		if (thumbnail.exists() && thumbnail.lastModified() >= image.lastModified()) {
+			return thumbnail;
+		}
+
+		String format = formatOf(image);
+		if (format == null || !ImageIO.getImageWritersByFormatName(format).hasNext()) {
+			return image;
+		}
+		BufferedImage source = ImageIO.read(image);
+		if (source == null || Math.max(source.getWidth(), source.getHeight()) <= size) {
+			return image;
+		}
+
+		BufferedImage scaled = scale(source, size, "png".equals(format) || "gif".equals(format));
+
+		File folder = thumbnail.getParentFile();
+		if (!folder.isDirectory() && !folder.mkdirs() && !folder.isDirectory()) {
+			throw new IOException("Could not create thumbnail folder " + folder);
+		}
+		// written aside and moved in place so a thumbnail being made is never sent half written
+		File partial = File.createTempFile("thumbnail", ".tmp", folder);
+		try {
+			if (!ImageIO.write(scaled, format, partial)) {
+				return image;
+			}
+			Files.move(partial.toPath(), thumbnail.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			    StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(partial.toPath());
+		}
+		return thumbnail;
+	}
+
+	private static BufferedImage scale(BufferedImage source, int size, boolean keepAlpha) {
+		double ratio = (double) size / Math.max(source.getWidth(), source.getHeight());
+		int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+		int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+		int type = keepAlpha && source.getTransparency() != Transparency.OPAQUE ? BufferedImage.TYPE_INT_ARGB
+		        : BufferedImage.TYPE_INT_RGB;
+
+		BufferedImage scaled = new BufferedImage(width, height, type);
+		Graphics2D graphics = scaled.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(source, 0, 0, width, height, null);
+		}
+		finally {
+			graphics.dispose();
+		}
+		return scaled;
+	}
+
+	private static String formatOf(File image) {
+		String name = image.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot < 0) {
+			return null;
+		}
+		String extension = name.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+		return extension.equals("jpeg") ? "jpg" : extension;
+	}
+}
@@ -0,0 +1,63 @@
+package org.opensrp.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.common.monitor.Metric;
+import org.opensrp.common.monitor.MetricsRegistry;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class MetricsInterceptorTest {
+
+	private MetricsRegistry registry;
+
+	private MetricsInterceptor interceptor;
+
+	@Before
+	public void setUp() {
+		registry = new MetricsRegistry();
+		interceptor = new MetricsInterceptor(registry);
+	}
+
+	private MockHttpServletRequest request(String method, String uri) {
+		MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+		request.setContextPath("/opensrp");
+		return request;
+	}
+
+	@Test
+	public void shouldMatchEndpointsOnMethodAndPath() {
+		assertEquals(Metric.SYNC_EVENTS_TIME, MetricsInterceptor.metricFor(request("GET", "/opensrp/rest/event/sync")));
+		assertEquals(Metric.SYNC_STOCK_TIME,
+		    MetricsInterceptor.metricFor(request("GET", "/opensrp/rest/stockresource//sync/")));
+		assertEquals(Metric.SYNC_FORM_SUBMISSIONS_TIME, MetricsInterceptor.metricFor(request("GET", "/opensrp/form-submissions")));
+		assertEquals(Metric.FORM_SUBMISSIONS_INGEST_TIME,
+		    MetricsInterceptor.metricFor(request("POST", "/opensrp/form-submissions")));
+		assertNull(MetricsInterceptor.metricFor(request("GET", "/opensrp/rest/event/getall")));
+	}
+
+	@Test
+	public void shouldTimeRequestAndCountFailures() {
+		MockHttpServletRequest request = request("POST", "/opensrp/rest/event/add");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		interceptor.preHandle(request, response, null);
+		interceptor.afterCompletion(request, response, null, new RuntimeException());
+
+		assertEquals(1, registry.timer(Metric.EVENTS_INGEST_TIME).snapshot().getCount());
+		assertEquals(1, registry.counter("EVENTS_INGEST_TIME.failed").value());
+	}
+
+	@Test
+	public void shouldNotTimeOtherRequests() {
+		MockHttpServletRequest request = request("GET", "/opensrp/rest/client/search");
+
+		interceptor.preHandle(request, new MockHttpServletResponse(), null);
+		interceptor.afterCompletion(request, new MockHttpServletResponse(), null, null);
+
+		assertEquals(0, registry.getCounters().size());
+	}
+}
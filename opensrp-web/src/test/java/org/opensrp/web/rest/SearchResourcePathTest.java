@@ -0,0 +1,138 @@
+package org.opensrp.web.rest;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.springframework.test.web.server.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.server.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.stubbing.OngoingStubbing;
+import org.opensrp.common.AllConstants.BaseEntity;
+import org.opensrp.domain.Client;
+import org.opensrp.domain.Event;
+import org.opensrp.service.ClientService;
+import org.opensrp.service.EventService;
+import org.opensrp.service.SearchService;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.server.MockMvc;
+import org.springframework.test.web.server.setup.MockMvcBuilders;
+
+public class SearchResourcePathTest {
+
+	private static final String MOTHER_PHONE_NUMBER_CONCEPT = "159635AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+	@Mock
+	private SearchService searchService;
+
+	@Mock
+	private ClientService clientService;
+
+	@Mock
+	private EventService eventService;
+
+	private SearchResource searchResource;
+
+	private MockMvc mockMvc;
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		// a single search thread, so that sub-queries also run on the request thread
+		searchResource = new SearchResource(searchService, clientService, eventService, 1);
+		mockMvc = MockMvcBuilders.standaloneSetup(searchResource).build();
+	}
+
+	@After
+	public void tearDown() {
+		searchResource.shutdown();
+	}
+
+	@Test
+	public void shouldPairChildrenWithTheirMothersIgnoringCaseAndSkippingLinkedDuplicates() throws Exception {
+		Client child = childOf("child-1", "MOTHER-1");
+		Client childOfAnotherMother = childOf("child-2", "mother-2");
+		Client mother = new Client("mother-1").withFirstName("jane");
+		mother.withIdentifier("M_ZEIR_ID", "z1_mother");
+		whenSearchingFor("baby").thenReturn(asList(child, childOfAnotherMother));
+		whenSearchingFor("jane").thenReturn(asList(mother));
+		when(clientService.findByFieldValue(eq("ZEIR_ID"), anyListOf(String.class))).thenReturn(asList(child));
+		when(clientService.findByFieldValue(eq(BaseEntity.BASE_ENTITY_ID), anyListOf(String.class))).thenReturn(
+		    asList(new Client("mother-1").withFirstName("jane")));
+
+		JsonNode pairs = searchPath("first_name=baby&mother_first_name=jane");
+
+		assertEquals(1, pairs.size());
+		assertEquals("child-1", pairs.get(0).get("child").get("baseEntityId").getTextValue());
+		assertEquals("mother-1", pairs.get(0).get("mother").get("baseEntityId").getTextValue());
+		verify(clientService).findByFieldValue("ZEIR_ID", asList("z1"));
+		verify(clientService).findByFieldValue(BaseEntity.BASE_ENTITY_ID, asList("MOTHER-1", "mother-2"));
+	}
+
+	@Test
+	public void shouldAddLinkedMotherWhenTheMotherSearchDidNotFindHer() throws Exception {
+		Client child = childOf("child-1", "Mother-1");
+		whenSearchingFor("baby").thenReturn(asList(child));
+		when(clientService.findByFieldValue(eq(BaseEntity.BASE_ENTITY_ID), anyListOf(String.class))).thenReturn(
+		    asList(new Client("mother-1")));
+
+		JsonNode pairs = searchPath("first_name=baby");
+
+		assertEquals(1, pairs.size());
+		assertEquals("child-1", pairs.get(0).get("child").get("baseEntityId").getTextValue());
+		assertEquals("mother-1", pairs.get(0).get("mother").get("baseEntityId").getTextValue());
+	}
+
+	@Test
+	public void shouldLimitPhoneNumberSearchToDistinctClients() throws Exception {
+		when(eventService.findEventsByConceptAndValue(MOTHER_PHONE_NUMBER_CONCEPT, "0977", 0, 2)).thenReturn(
+		    asList(eventOf("child-1"), eventOf("child-1")));
+		when(eventService.findEventsByConceptAndValue(MOTHER_PHONE_NUMBER_CONCEPT, "0977", 2, 2)).thenReturn(
+		    asList(eventOf("child-2"), eventOf("child-3")));
+		when(clientService.findByFieldValue(eq(BaseEntity.BASE_ENTITY_ID), anyListOf(String.class))).thenReturn(
+		    new ArrayList<Client>());
+
+		searchPath("mother_contact_phone_number=0977&limit=2");
+
+		verify(clientService).findByFieldValue(BaseEntity.BASE_ENTITY_ID, asList("child-1", "child-2"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private OngoingStubbing<List<Client>> whenSearchingFor(String firstName) {
+		return when(searchService.searchClient(anyString(), eq(firstName), anyString(), anyString(), anyString(),
+		    anyMap(), anyMap(), any(DateTime.class), any(DateTime.class), any(DateTime.class), any(DateTime.class),
+		    any(Integer.class)));
+	}
+
+	private JsonNode searchPath(String query) throws Exception {
+		String response = mockMvc.perform(get("/rest/search/path?" + query).accept(MediaType.APPLICATION_JSON))
+		        .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+		return new ObjectMapper().readTree(response);
+	}
+
+	private static Client childOf(String baseEntityId, String motherId) {
+		Client child = new Client(baseEntityId).withFirstName("baby");
+		child.addRelationship("mother", motherId);
+		return child;
+	}
+
+	private static Event eventOf(String baseEntityId) {
+		return new Event().withBaseEntityId(baseEntityId);
+	}
+}
@@ -2,7 +2,11 @@ package org.opensrp.web.security;
 
 import com.google.gson.Gson;
 
+import org.opensrp.api.domain.User;
+import org.opensrp.connector.openmrs.service.OpenmrsUserService;
 import org.opensrp.repository.AllUsers;
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
@@ -20,6 +24,8 @@ import java.util.UUID;
 import static java.util.Arrays.asList;
 import static java.util.UUID.randomUUID;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -34,8 +40,88 @@ public class DrishtiAuthenticationProviderTest {
     @Rule
     public ExpectedException exception = ExpectedException.none();
 
+    @Mock
+    private OpenmrsUserService openmrsUserService;
+
     private DrishtiAuthenticationProvider authenticationProvider;
 
+    private DrishtiAuthenticationProvider cachingProvider;
+
+    @Before
+    public void setUpCachingProvider() throws Exception {
+        initMocks(this);
+        cachingProvider = new DrishtiAuthenticationProvider(openmrsUserService, new ShaPasswordEncoder());
+        when(openmrsUserService.authenticate("user 1", "password 1")).thenReturn(true);
+        when(openmrsUserService.deleteSession("user 1", "password 1")).thenReturn(true);
+        when(openmrsUserService.getUser("user 1")).thenReturn(new User("user 1").withRoles(asList("Provider")));
+    }
+
+    @Test
+    public void shouldServeRepeatedAuthenticationFromCache() throws Exception {
+        Authentication authentication = new UsernamePasswordAuthenticationToken("user 1", "password 1");
+
+        User first = cachingProvider.getDrishtiUser(authentication, "user 1");
+        User second = cachingProvider.getDrishtiUser(authentication, "user 1");
+
+        assertEquals(first, second);
+        verify(openmrsUserService, times(1)).authenticate("user 1", "password 1");
+        verify(openmrsUserService, times(1)).getUser("user 1");
+    }
+
+    @Test
+    public void shouldGoToOpenmrsWhenPasswordDiffersFromCachedOne() throws Exception {
+        cachingProvider.getDrishtiUser(new UsernamePasswordAuthenticationToken("user 1", "password 1"), "user 1");
+
+        User user = cachingProvider.getDrishtiUser(new UsernamePasswordAuthenticationToken("user 1", "wrong password"),
+            "user 1");
+
+        assertNull(user);
+        verify(openmrsUserService).authenticate("user 1", "wrong password");
+    }
+
+    @Test
+    public void shouldNotCacheFailedAuthentication() throws Exception {
+        Authentication authentication = new UsernamePasswordAuthenticationToken("user 1", "wrong password");
+
+        cachingProvider.getDrishtiUser(authentication, "user 1");
+        cachingProvider.getDrishtiUser(authentication, "user 1");
+
+        verify(openmrsUserService, times(2)).authenticate("user 1", "wrong password");
+    }
+
+    @Test
+    public void shouldGoToOpenmrsAfterInvalidation() throws Exception {
+        Authentication authentication = new UsernamePasswordAuthenticationToken("user 1", "password 1");
+
+        cachingProvider.getDrishtiUser(authentication, "user 1");
+        cachingProvider.invalidate("user 1");
+        cachingProvider.getDrishtiUser(authentication, "user 1");
+
+        verify(openmrsUserService, times(2)).authenticate("user 1", "password 1");
+    }
+
+    @After
+    public void resetClock() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void shouldExpireCachedAuthentication() throws Exception {
+        DateTimeUtils.setCurrentMillisFixed(1000000);
+        DrishtiAuthenticationProvider provider = new DrishtiAuthenticationProvider(openmrsUserService,
+                new ShaPasswordEncoder(), 60, DrishtiAuthenticationProvider.DEFAULT_CACHE_SIZE);
+        Authentication authentication = new UsernamePasswordAuthenticationToken("user 1", "password 1");
+
+        provider.getDrishtiUser(authentication, "user 1");
+        DateTimeUtils.setCurrentMillisFixed(1000000 + 60 * 1000);
+        provider.getDrishtiUser(authentication, "user 1");
+        verify(openmrsUserService, times(1)).authenticate("user 1", "password 1");
+
+        DateTimeUtils.setCurrentMillisFixed(1000000 + 61 * 1000);
+        provider.getDrishtiUser(authentication, "user 1");
+        verify(openmrsUserService, times(2)).authenticate("user 1", "password 1");
+    }
+
     /*@Before
     public void setUp() throws Exception {
         initMocks(this);
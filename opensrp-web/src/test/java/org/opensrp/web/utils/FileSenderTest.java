@@ -0,0 +1,126 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class FileSenderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	private FileSender fileSender;
+
+	@Before
+	public void setUp() throws Exception {
+		file = folder.newFile("video.mp4");
+		FileUtils.writeStringToFile(file, "0123456789", "UTF-8");
+		fileSender = new FileSender(3600);
+	}
+
+	private MockHttpServletResponse send(MockHttpServletRequest request) throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		fileSender.send(file, "video/mp4", request, response);
+		return response;
+	}
+
+	@Test
+	public void shouldSendWholeFileWithValidators() throws Exception {
+		MockHttpServletResponse response = send(new MockHttpServletRequest());
+
+		assertEquals(200, response.getStatus());
+		assertEquals("0123456789", response.getContentAsString());
+		assertEquals("10", response.getHeader("Content-Length"));
+		assertEquals(FileSender.etag(file), response.getHeader("ETag"));
+		assertEquals("private, max-age=3600", response.getHeader("Cache-Control"));
+		assertEquals("bytes", response.getHeader("Accept-Ranges"));
+	}
+
+	@Test
+	public void shouldAnswerNotModifiedWhenEtagMatches() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("If-None-Match", FileSender.etag(file));
+
+		MockHttpServletResponse response = send(request);
+
+		assertEquals(304, response.getStatus());
+		assertEquals(0, response.getContentAsByteArray().length);
+	}
+
+	@Test
+	public void shouldSendRequestedRange() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=4-");
+
+		MockHttpServletResponse response = send(request);
+
+		assertEquals(206, response.getStatus());
+		assertEquals("456789", response.getContentAsString());
+		assertEquals("bytes 4-9/10", response.getHeader("Content-Range"));
+		assertEquals("6", response.getHeader("Content-Length"));
+	}
+
+	@Test
+	public void shouldSendWholeFileWhenIfRangeIsStale() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=4-");
+		request.addHeader("If-Range", "\"stale\"");
+
+		MockHttpServletResponse response = send(request);
+
+		assertEquals(200, response.getStatus());
+		assertEquals("0123456789", response.getContentAsString());
+	}
+
+	@Test
+	public void shouldRejectRangeAfterEndOfFile() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=10-20");
+
+		MockHttpServletResponse response = send(request);
+
+		assertEquals(416, response.getStatus());
+		assertEquals("bytes */10", response.getHeader("Content-Range"));
+	}
+
+	@Test
+	public void shouldParseRanges() {
+		assertArrayEquals(new long[] { 0, 4 }, FileSender.parseRange("bytes=0-4", 10));
+		assertArrayEquals(new long[] { 2, 9 }, FileSender.parseRange("bytes=2-100", 10));
+		assertArrayEquals(new long[] { 7, 9 }, FileSender.parseRange("bytes=-3", 10));
+		assertArrayEquals(new long[] { 0, 9 }, FileSender.parseRange("bytes=-30", 10));
+		assertNull(FileSender.parseRange("bytes=5-2", 10));
+		assertNull(FileSender.parseRange("bytes=0-1,4-5", 10));
+		assertNull(FileSender.parseRange("items=0-1", 10));
+	}
+
+	@Test
+	public void shouldCacheScaledDownImage() throws Exception {
+		File image = new File(folder.getRoot(), "photo.png");
+		ImageIO.write(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB), "png", image);
+		ImageThumbnails thumbnails = new ImageThumbnails(folder.newFolder("thumbnails"));
+
+		File thumbnail = thumbnails.thumbnailOf(image, 100);
+
+		BufferedImage scaled = ImageIO.read(thumbnail);
+		assertEquals(100, scaled.getWidth());
+		assertEquals(50, scaled.getHeight());
+		assertEquals(thumbnail, thumbnails.thumbnailOf(image, 100));
+		assertEquals(image, thumbnails.thumbnailOf(image, 800));
+	}
+}